@@ -294,6 +294,18 @@ public class Injectors {
   }
 */
 
+  /**
+   * Returns the {@link Closer} implementations bound in the given injector or any of its parent
+   * injectors so that the objects of child injectors are closed the same way as their parent's
+   */
+  public static Set<Closer> getClosers(Injector injector) {
+    Set<Closer> answer = Sets.newHashSet();
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      answer.addAll(getInstancesOf(current, Closer.class));
+    }
+    return answer;
+  }
+
   /**
    * Closes any singleton objects in the injector using the currently registered {@link Closer}
    * implementations
@@ -325,7 +337,7 @@ public class Injectors {
    */
   public static void close(Injector injector, Class<? extends Annotation> scopeAnnotationToClose,
       CloseErrors errors) throws CloseFailedException {
-    Set<Closer> closers = getInstancesOf(injector, Closer.class);
+    Set<Closer> closers = getClosers(injector);
     Closer closer = CompositeCloser.newInstance(closers);
     if (closer == null) {
       return;
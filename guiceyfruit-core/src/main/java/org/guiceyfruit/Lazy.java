@@ -0,0 +1,43 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit;
+
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field or method to be injected like @{link com.google.inject.Inject} but with a proxy
+ * which only creates the real object from its binding when the first method is invoked on the
+ * proxy. A binding annotation can be used on the field or method parameter to choose the binding.
+ * <p/>
+ * Interfaces and classes which are not final and have a visible zero argument constructor can be
+ * proxied; note that the constructor of a class is invoked to create the proxy and that final
+ * methods are not delegated to the real object.
+ *
+ * @see org.guiceyfruit.support.GuiceyFruitModule#bindLazyInjection()
+ * @version $Revision: 1.1 $
+ */
+@Documented
+@Target({ FIELD, METHOD }) @Retention(RUNTIME)
+public @interface Lazy {
+}
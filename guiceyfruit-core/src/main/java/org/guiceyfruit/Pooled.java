@@ -0,0 +1,59 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit;
+
+import com.google.inject.ScopeAnnotation;
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.TYPE;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are expensive to create and are not thread safe, such as parsers
+ * or ciphers, so that it is injected with a thread safe proxy which borrows an instance from a
+ * bounded pool for each method call and then returns it to the pool.
+ * <p/>
+ * Interfaces and classes which are not final and have a visible zero argument constructor can be
+ * proxied; note that the constructor of a class is invoked to create the proxy and that final
+ * methods are not delegated to a pooled instance. Instances should not keep state between method
+ * calls as each call may use a different instance.
+ *
+ * @see org.guiceyfruit.util.PooledScope
+ * @see org.guiceyfruit.support.GuiceyFruitModule#bindPooledScope()
+ * @version $Revision: 1.1 $
+ */
+@Documented
+@Target(TYPE) @Retention(RUNTIME)
+@ScopeAnnotation
+public @interface Pooled {
+  /** The number of idle instances which are kept in the pool however long they are idle */
+  int min() default 0;
+
+  /**
+   * The maximum number of instances which can be borrowed at once; callers block until an instance
+   * is returned once they are all in use
+   */
+  int max() default 16;
+
+  /**
+   * The number of milliseconds after which idle instances above the minimum are closed
+   */
+  long idleTimeout() default 60000;
+}
@@ -22,28 +22,59 @@ import com.google.inject.Injector;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.Scopes;
+import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import org.guiceyfruit.Injectors;
 import org.guiceyfruit.jndi.internal.JndiContext;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
 
 /**
  * A factory of the Guice JNDI provider which creates an injector from all the available modules
  * specified in the space separated {@link Injectors#MODULE_CLASS_NAMES} property. <p/> For more
  * details of how this JNDI provider works see <a href="http://code.google.com/p/camel-extra/wiki/GuiceJndi">the
  * wiki documentation</a>
+ * <p/>
+ * By default the injector and its frozen JNDI context are cached for each distinct environment so
+ * that creating many {@link javax.naming.InitialContext} instances with the same environment only
+ * creates a single injector; each caller is given a lightweight view over the shared context.
+ * Names bound or unbound through a view are only visible through that view.
+ * Use {@link #evict(Hashtable)} or {@link #evictAll()} to close and discard cached injectors or set
+ * the {@link #CACHE_ENABLED} property to <tt>false</tt> to create a new injector on each call.
  *
  * @version $Revision: 656978 $
  */
 public class GuiceInitialContextFactory implements InitialContextFactory {
   public static final String NAME_PREFIX = "org.guiceyfruit.jndi/";
 
+  /**
+   * The environment property used to disable the caching of injectors and contexts for an
+   * environment
+   */
+  public static final String CACHE_ENABLED = "org.guiceyfruit.jndi.cache";
+
+  /**
+   * The environment property used to enable lazy resolution of JNDI names so that names are only
+   * created for bindings when they are looked up
+   *
+   * @see JndiBindings#bindInjectorLazily(JndiContext, Injector, Properties)
+   */
+  public static final String LAZY_NAMES = "org.guiceyfruit.jndi.lazy";
+
+  private static final ConcurrentMap<Map<String, Object>, CachedEnvironment> cache
+      = new ConcurrentHashMap<Map<String, Object>, CachedEnvironment>();
+
   /**
    * Creates a new context with the given environment.
    *
@@ -52,10 +83,112 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
    * @throws NamingException is thrown if creation failed.
    */
   public Context getInitialContext(final Hashtable environment) throws NamingException {
+    if (!isCacheEnabled(environment)) {
+      return createContext(environment);
+    }
+
+    Map<String, Object> fingerprint = createFingerprint(environment);
+    while (true) {
+      CachedEnvironment cached = cache.get(fingerprint);
+      if (cached == null) {
+        CachedEnvironment newValue = new CachedEnvironment(environment);
+        cached = cache.putIfAbsent(fingerprint, newValue);
+        if (cached == null) {
+          cached = newValue;
+        }
+      }
+      Context answer;
+      try {
+        answer = cached.createView(environment);
+      }
+      catch (NamingException e) {
+        // lets not cache failures so the next caller gets a chance to retry
+        cache.remove(fingerprint, cached);
+        throw e;
+      }
+      if (answer != null && cache.get(fingerprint) == cached) {
+        return answer;
+      }
+
+      // the environment was evicted while we were creating the view so lets close any injector we
+      // may have just created for it and try again with a fresh one
+      CloseErrors errors = new CloseErrorsImpl(GuiceInitialContextFactory.class);
+      cached.close(errors);
+      try {
+        errors.throwIfNecessary();
+      }
+      catch (CloseFailedException e) {
+        NamingException exception = new NamingException(e.getMessage());
+        exception.initCause(e);
+        throw exception;
+      }
+    }
+  }
+
+  /**
+   * Closes and removes the cached injector and context for the given environment so that the next
+   * call to {@link #getInitialContext(Hashtable)} with this environment creates a fresh injector
+   *
+   * @return true if there was a cached injector for the environment
+   * @throws CloseFailedException if the singletons of the injector could not be closed
+   */
+  public static boolean evict(Hashtable environment) throws CloseFailedException {
+    CachedEnvironment cached = cache.remove(createFingerprint(environment));
+    if (cached == null) {
+      return false;
+    }
+    CloseErrors errors = new CloseErrorsImpl(GuiceInitialContextFactory.class);
+    cached.close(errors);
+    errors.throwIfNecessary();
+    return true;
+  }
+
+  /**
+   * Closes and removes all of the cached injectors and contexts
+   *
+   * @throws CloseFailedException if the singletons of any of the injectors could not be closed
+   */
+  public static void evictAll() throws CloseFailedException {
+    CloseErrors errors = new CloseErrorsImpl(GuiceInitialContextFactory.class);
+    Collection<Map<String, Object>> fingerprints = cache.keySet();
+    for (Map<String, Object> fingerprint : fingerprints) {
+      CachedEnvironment cached = cache.remove(fingerprint);
+      if (cached != null) {
+        cached.close(errors);
+      }
+    }
+    errors.throwIfNecessary();
+  }
+
+  /**
+   * Closes any cached injector for the given environment and eagerly creates a new one, returning
+   * a context for the new injector
+   */
+  public Context refresh(Hashtable environment) throws NamingException, CloseFailedException {
+    evict(environment);
+    return getInitialContext(environment);
+  }
+
+  /** Returns the number of environments which currently have a cached injector */
+  public static int getCachedEnvironmentCount() {
+    return cache.size();
+  }
+
+  /**
+   * Creates a new injector and JNDI context for the given environment without using the cache
+   */
+  protected static Context createContext(Hashtable environment) throws NamingException {
+    return createInjector(environment).getInstance(Context.class);
+  }
+
+  /**
+   * Creates a new injector for the given environment which binds the JNDI {@link Context}
+   */
+  protected static Injector createInjector(final Hashtable environment) throws NamingException {
     try {
       // lets avoid infinite recursion with a provider creating an InitialContext by binding the
       // singleton initial context into the injector
-      Injector injector = Injectors.createInjector(environment, new AbstractModule() {
+      return Injectors.createInjector(environment, new AbstractModule() {
         protected void configure() {
           bind(Context.class).toProvider(new Provider<Context>() {
             @Inject
@@ -65,7 +198,13 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
               JndiContext context = new JndiContext(environment);
               Properties jndiNames = createJndiNamesProperties(environment);
               try {
-                JndiBindings.bindInjectorAndBindings(context, injector, jndiNames);
+                if (isLazyNamesEnabled(environment)) {
+                  JndiBindings.bindInjectorLazily(context, injector, jndiNames);
+                }
+                else {
+                  JndiBindings.bindInjectorAndBindings(context, injector, jndiNames);
+                }
+                JndiBindings.bindGuiceScheme(context, injector);
                 return context;
               }
               catch (NamingException e) {
@@ -75,7 +214,6 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
           }).in(Scopes.SINGLETON);
         }
       });
-      return injector.getInstance(Context.class);
     }
     catch (Exception e) {
       NamingException exception = new NamingException(e.getMessage());
@@ -84,13 +222,41 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
     }
   }
 
+  protected static boolean isCacheEnabled(Hashtable environment) {
+    Object value = environment.get(CACHE_ENABLED);
+    return value == null || !"false".equalsIgnoreCase(value.toString().trim());
+  }
+
+  protected static boolean isLazyNamesEnabled(Hashtable environment) {
+    Object value = environment.get(LAZY_NAMES);
+    return value != null && "true".equalsIgnoreCase(value.toString().trim());
+  }
+
+  /**
+   * Returns a normalized copy of the environment which can be used as a key for the cache; keys
+   * are converted to strings and sorted so that equivalent environments share the same injector
+   */
+  protected static Map<String, Object> createFingerprint(Hashtable environment) {
+    Map<String, Object> answer = new TreeMap<String, Object>();
+    Set<Map.Entry> set = environment.entrySet();
+    for (Entry entry : set) {
+      String key = entry.getKey().toString().trim();
+      Object value = entry.getValue();
+      if (value instanceof String) {
+        value = ((String) value).trim();
+      }
+      answer.put(key, value);
+    }
+    return answer;
+  }
+
   /**
    * Creates a properties object containing all of the values whose keys start with {@link
    * #NAME_PREFIX} with the prefix being removed on the key
    *
    * @return a properties object
    */
-  private Properties createJndiNamesProperties(Hashtable environment) {
+  private static Properties createJndiNamesProperties(Hashtable environment) {
     Set<Map.Entry> set = environment.entrySet();
     Properties answer = new Properties();
     for (Entry entry : set) {
@@ -104,4 +270,67 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
     return answer;
   }
 
+  /**
+   * The injector and frozen JNDI context created for an environment which are lazily created by
+   * the first caller
+   */
+  private static class CachedEnvironment {
+    private final Hashtable environment;
+    private Injector injector;
+    private Context context;
+    private boolean closed;
+
+    CachedEnvironment(Hashtable environment) {
+      this.environment = new Hashtable(environment);
+    }
+
+    /** Returns the shared context or <tt>null</tt> if this environment has been closed */
+    public synchronized Context getContext() throws NamingException {
+      if (context == null && !closed) {
+        Injector newInjector = createInjector(environment);
+        try {
+          context = newInjector.getInstance(Context.class);
+        }
+        catch (RuntimeException e) {
+          NamingException exception = new NamingException(e.getMessage());
+          exception.initCause(e);
+          throw exception;
+        }
+        if (context instanceof JndiContext) {
+          ((JndiContext) context).freeze();
+        }
+        injector = newInjector;
+      }
+      return context;
+    }
+
+    public Context createView(Hashtable callerEnvironment) throws NamingException {
+      Context shared = getContext();
+      if (shared == null) {
+        return null;
+      }
+      if (shared instanceof JndiContext) {
+        return new JndiContext((JndiContext) shared, callerEnvironment);
+      }
+      return shared;
+    }
+
+    public void close(CloseErrors errors) {
+      Injector oldInjector;
+      synchronized (this) {
+        oldInjector = injector;
+        injector = null;
+        context = null;
+        closed = true;
+      }
+      if (oldInjector != null) {
+        try {
+          Injectors.close(oldInjector, errors);
+        }
+        catch (CloseFailedException e) {
+          // the failures have already been added to the errors
+        }
+      }
+    }
+  }
 }
@@ -19,21 +19,34 @@
 package org.guiceyfruit.jndi;
 
 import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provider;
+import com.google.inject.internal.Maps;
 import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import org.guiceyfruit.jndi.internal.Classes;
+import org.guiceyfruit.jndi.internal.JndiContext;
+import org.guiceyfruit.jndi.internal.NameResolver;
 
 /** @version $Revision: 1.1 $ */
 public class JndiBindings {
+  /**
+   * The built in URL scheme used to look up the providers of an injector's bindings using a key
+   * expression such as <code>guice:com.acme.Foo</code> or <code>guice:com.acme.Foo/name</code> for
+   * a {@link Named} binding
+   */
+  public static final String GUICE_SCHEME = "guice";
+
   /**
    * Binds the given injector and its binding providers to the given JNDI context using <a
    * href="http://code.google.com/p/camel-extra/wiki/GuiceJndi">this mapping mechanism</a>. <p/>
@@ -50,37 +63,7 @@ public class JndiBindings {
     for (Entry<Key<?>, Binding<?>> entry : entries) {
       Key<?> key = entry.getKey();
       Binding<?> binding = entry.getValue();
-      Annotation annotation = key.getAnnotation();
-      Type type = key.getTypeLiteral().getType();
-      JndiBind jndiBind = null;
-      if (type instanceof Class) {
-        Class<?> aClass = (Class<?>) type;
-        jndiBind = aClass.getAnnotation(JndiBind.class);
-      }
-
-      if (annotation instanceof JndiBind) {
-        jndiBind = (JndiBind) annotation;
-      }
-      String jndiName = null;
-      if (jndiBind != null) {
-        jndiName = jndiBind.value();
-      }
-      if (jndiName == null) {
-        if (annotation instanceof Named) {
-          Named named = (Named) annotation;
-          String name = named.value();
-          jndiName = type.toString() + "/" + name;
-        }
-        else if (type instanceof Class<?>) {
-          Class<?> aClass = (Class<?>) type;
-          if (annotation == null) {
-            jndiName = aClass.getName();
-          }
-          else {
-            jndiName = aClass.getName() + annotation;
-          }
-        }
-      }
+      String jndiName = getJndiName(key);
       if (jndiName != null) {
         Object value = binding.getProvider();
         if (value != null) {
@@ -89,27 +72,244 @@ public class JndiBindings {
       }
     }
 
+    Map<String, Key<?>> expressionKeys = compileExpressions(jndiNames);
+    for (Entry<String, Key<?>> entry : expressionKeys.entrySet()) {
+      context.bind(entry.getKey(), injector.getProvider(entry.getValue()));
+    }
+  }
+
+  /**
+   * Configures the given JNDI context to lazily resolve the names of the injector's bindings on
+   * demand rather than eagerly binding every name using {@link #bindInjectorAndBindings(Context,
+   * Injector, Properties)}. <p/> Names are mapped back to a {@link Key} using the inverse of the
+   * naming rules of {@link #getJndiName(Key)}; only the names defined by {@link JndiBind} and
+   * {@link Named} bindings of generic types are indexed up front. Note that lazily resolved names
+   * are not included when listing the context.
+   *
+   * @param context the context to resolve names for
+   * @param injector the injector used to find the bindings
+   */
+  public static void bindInjectorLazily(JndiContext context, Injector injector,
+      Properties jndiNames) {
+    context.setResolver(new KeyNameResolver(injector, jndiNames));
+  }
+
+  /**
+   * Registers the {@link #GUICE_SCHEME} URL scheme on the given JNDI context so that the providers
+   * of the injector's bindings can be looked up directly via a key expression without requiring
+   * a JNDI name to be bound
+   *
+   * @param context the context to register the scheme on
+   * @param injector the injector used to resolve the key expressions
+   */
+  public static void bindGuiceScheme(JndiContext context, final Injector injector) {
+    context.addSchemeResolver(GUICE_SCHEME, new NameResolver() {
+      public Object resolve(String name) throws NamingException {
+        String expression = name.substring(GUICE_SCHEME.length() + 1);
+        Key<?> key = getKeyForExpression(expression);
+        if (key == null) {
+          return null;
+        }
+        try {
+          return injector.getProvider(key);
+        }
+        catch (ConfigurationException e) {
+          return null;
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the JNDI name that the given key is exposed as or null if the key is not exposed in
+   * JNDI
+   */
+  public static String getJndiName(Key<?> key) {
+    JndiBind jndiBind = getJndiBind(key);
+    if (jndiBind != null) {
+      return jndiBind.value();
+    }
+    Annotation annotation = key.getAnnotation();
+    Type type = key.getTypeLiteral().getType();
+    if (annotation instanceof Named) {
+      Named named = (Named) annotation;
+      return type.toString() + "/" + named.value();
+    }
+    else if (type instanceof Class<?>) {
+      Class<?> aClass = (Class<?>) type;
+      if (annotation == null) {
+        return aClass.getName();
+      }
+      else {
+        return aClass.getName() + annotation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the {@link JndiBind} annotation on the key or on the type of the key or null if there
+   * is none
+   */
+  static JndiBind getJndiBind(Key<?> key) {
+    Annotation annotation = key.getAnnotation();
+    if (annotation instanceof JndiBind) {
+      return (JndiBind) annotation;
+    }
+    Type type = key.getTypeLiteral().getType();
+    if (type instanceof Class) {
+      Class<?> aClass = (Class<?>) type;
+      return aClass.getAnnotation(JndiBind.class);
+    }
+    return null;
+  }
+
+  /**
+   * Compiles the JNDI name expressions into the keys they refer to, ignoring any expressions which
+   * cannot be resolved
+   */
+  static Map<String, Key<?>> compileExpressions(Properties jndiNames) {
+    Map<String, Key<?>> answer = Maps.newHashMap();
     for (Entry entry : jndiNames.entrySet()) {
       String jndiName = entry.getKey().toString();
       String expression = entry.getValue().toString();
 
-      Provider provider = getProviderForExpression(injector, expression);
-      if (provider != null) {
-        context.bind(jndiName, provider);
+      Key<?> key = getKeyForExpression(expression);
+      if (key != null) {
+        answer.put(jndiName, key);
       }
     }
+    return answer;
   }
 
   static Provider getProviderForExpression(Injector injector, String expression) {
+    Key<?> key = getKeyForExpression(expression);
+    if (key == null) {
+      return null;
+    }
+    return injector.getProvider(key);
+  }
+
+  static Key<?> getKeyForExpression(String expression) {
     // TODO we could support more complex expressions
-    // like 'className/name' to map to @Named annotations
-    // or even 'className@annotationType(values) etc
-    try {
-      Class<?> type = Classes.loadClass(expression, JndiBindings.class.getClassLoader());
-      return injector.getProvider(type);
+    // like 'className@annotationType(values) etc
+    int idx = expression.indexOf('/');
+    if (idx > 0) {
+      Class<?> type = loadClass(expression.substring(0, idx));
+      if (type == null) {
+        return null;
+      }
+      return Key.get(type, Names.named(expression.substring(idx + 1)));
     }
-    catch (ClassNotFoundException e) {
+    Class<?> type = loadClass(expression);
+    if (type == null) {
       return null;
     }
+    return Key.get(type);
+  }
+
+  static Class<?> loadClass(String name) {
+    // expressions which are not class names are cached as misses so they are only rejected once
+    return Classes.findClass(name, JndiBindings.class.getClassLoader());
+  }
+
+  /**
+   * Resolves JNDI names to the providers of the injector's bindings using the inverse of the
+   * naming rules of {@link JndiBindings#getJndiName(Key)}
+   */
+  static class KeyNameResolver implements NameResolver {
+    private static final String CLASS_PREFIX = "class ";
+    private static final String INTERFACE_PREFIX = "interface ";
+
+    private final Injector injector;
+    private final Map<String, Key<?>> indexedKeys = Maps.newHashMap();
+    private final Map<String, Key<?>> expressionKeys;
+
+    KeyNameResolver(Injector injector, Properties jndiNames) {
+      this.injector = injector;
+      this.expressionKeys = compileExpressions(jndiNames);
+
+      // only names which cannot be inverted are indexed up front
+      Set<Key<?>> keys = injector.getBindings().keySet();
+      for (Key<?> key : keys) {
+        JndiBind jndiBind = getJndiBind(key);
+        if (jndiBind != null) {
+          indexedKeys.put(jndiBind.value(), key);
+        }
+        else if (key.getAnnotation() instanceof Named
+            && !(key.getTypeLiteral().getType() instanceof Class)) {
+          indexedKeys.put(getJndiName(key), key);
+        }
+      }
+    }
+
+    public Object resolve(String name) throws NamingException {
+      Key<?> key = expressionKeys.get(name);
+      if (key != null) {
+        return injector.getProvider(key);
+      }
+      key = indexedKeys.get(name);
+      if (key == null) {
+        key = getKeyForName(name);
+
+        // lets make sure the key really would have been exposed with this name
+        if (key == null || !name.equals(getJndiName(key))) {
+          return null;
+        }
+      }
+      Binding<?> binding = injector.getBindings().get(key);
+      if (binding == null) {
+        return null;
+      }
+      return binding.getProvider();
+    }
+
+    /** Returns the key which would be exposed in JNDI with the given name or null */
+    protected Key<?> getKeyForName(String name) {
+      int idx = name.indexOf('/');
+      if (idx > 0) {
+        // named bindings use Class.toString() followed by the name
+        String typeName = name.substring(0, idx);
+        if (typeName.startsWith(CLASS_PREFIX)) {
+          typeName = typeName.substring(CLASS_PREFIX.length());
+        }
+        else if (typeName.startsWith(INTERFACE_PREFIX)) {
+          typeName = typeName.substring(INTERFACE_PREFIX.length());
+        }
+        else {
+          return null;
+        }
+        Class<?> type = loadClass(typeName);
+        if (type == null) {
+          return null;
+        }
+        return Key.get(type, Names.named(name.substring(idx + 1)));
+      }
+
+      idx = name.indexOf('@');
+      if (idx > 0) {
+        // other binding annotations use the class name followed by the annotation
+        Class<?> type = loadClass(name.substring(0, idx));
+        if (type == null) {
+          return null;
+        }
+        String annotationText = name.substring(idx);
+        Set<Key<?>> keys = injector.getBindings().keySet();
+        for (Key<?> key : keys) {
+          Annotation annotation = key.getAnnotation();
+          if (annotation != null && type.equals(key.getTypeLiteral().getType())
+              && annotationText.equals(annotation.toString())) {
+            return key;
+          }
+        }
+        return null;
+      }
+
+      Class<?> type = loadClass(name);
+      if (type == null) {
+        return null;
+      }
+      return Key.get(type);
+    }
   }
 }
@@ -18,8 +18,30 @@
 
 package org.guiceyfruit.jndi.internal;
 
-/** @version $Revision: 1.1 $ */
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helper methods for loading classes which caches the results, including the most recently used
+ * names which could not be found, for each class loader. The cache is weakly keyed by the class
+ * loader and weakly references the loaded classes so that it does not prevent class loaders being
+ * garbage collected when bundles or applications are reloaded. The number of names which could not
+ * be found is bounded as arbitrary names may be looked up, such as JNDI names, and so that classes
+ * which become available later are eventually found.
+ *
+ * @version $Revision: 1.1 $
+ */
 public class Classes {
+  /** The maximum number of names which could not be found which are cached for a class loader */
+  protected static final int MAX_MISSES = 1000;
+
+  private static final Map<ClassLoader, ClassCache> cache = Collections
+      .synchronizedMap(new WeakHashMap<ClassLoader, ClassCache>());
 
   /**
    * Attempts to load the class of the given name from the thread context class loader first then
@@ -31,20 +53,94 @@ public class Classes {
    * @throws ClassNotFoundException if the class could not be found
    */
   public static Class<?> loadClass(String name, ClassLoader loader) throws ClassNotFoundException {
+    Class<?> answer = findClass(name, loader);
+    if (answer == null) {
+      throw new ClassNotFoundException(name);
+    }
+    return answer;
+  }
+
+  /**
+   * Attempts to find the class of the given name from the thread context class loader first then
+   * the given class loader second returning null if it could not be found
+   *
+   * @param name the name of the class
+   * @param loader the class loader to use if the thread context class loader cannot find the class
+   * @return the class loaded or null if it could not be found
+   */
+  public static Class<?> findClass(String name, ClassLoader loader) {
     ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    Class<?> answer = null;
     if (contextClassLoader != null) {
-      try {
-        return contextClassLoader.loadClass(name);
+      answer = findClassInLoader(name, contextClassLoader);
+    }
+    if (answer == null && loader != null && loader != contextClassLoader) {
+      answer = findClassInLoader(name, loader);
+    }
+    return answer;
+  }
+
+  /**
+   * Attempts to find the class of the given name using only the given class loader returning null
+   * if it could not be found. Hits and the {@link #MAX_MISSES} most recent misses are cached for
+   * the class loader.
+   *
+   * @param name the name of the class
+   * @param loader the class loader to use
+   * @return the class loaded or null if it could not be found
+   */
+  public static Class<?> findClassInLoader(String name, ClassLoader loader) {
+    ClassCache classCache = getClassCache(loader);
+    Reference<Class<?>> reference = classCache.classes.get(name);
+    if (reference != null) {
+      Class<?> answer = reference.get();
+      if (answer != null) {
+        return answer;
       }
-      catch (ClassNotFoundException e) {
-        try {
-          return loader.loadClass(name);
-        }
-        catch (ClassNotFoundException e1) {
-          throw e;
-        }
+    }
+    if (classCache.misses.containsKey(name)) {
+      return null;
+    }
+    try {
+      Class<?> answer = loader.loadClass(name);
+      classCache.classes.put(name, new WeakReference<Class<?>>(answer));
+      return answer;
+    }
+    catch (ClassNotFoundException e) {
+      classCache.misses.put(name, Boolean.TRUE);
+      return null;
+    }
+  }
+
+  /**
+   * Clears all of the cached classes and misses such as when new classes are made available to an
+   * existing class loader
+   */
+  public static void clearCache() {
+    cache.clear();
+  }
+
+  protected static ClassCache getClassCache(ClassLoader loader) {
+    synchronized (cache) {
+      ClassCache answer = cache.get(loader);
+      if (answer == null) {
+        answer = new ClassCache();
+        cache.put(loader, answer);
       }
+      return answer;
     }
-    return null;
+  }
+
+  /** The classes found by a class loader and the most recently used names it could not find */
+  protected static class ClassCache {
+    final Map<String, Reference<Class<?>>> classes
+        = new ConcurrentHashMap<String, Reference<Class<?>>>();
+    final Map<String, Boolean> misses = Collections.synchronizedMap(
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_MISSES;
+          }
+        });
   }
 }
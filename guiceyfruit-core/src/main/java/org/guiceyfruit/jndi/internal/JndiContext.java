@@ -19,10 +19,13 @@ package org.guiceyfruit.jndi.internal;
 
 import com.google.inject.Provider;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.naming.Binding;
 import javax.naming.CompositeName;
 import javax.naming.Context;
@@ -51,12 +54,22 @@ public class JndiContext implements Context, Serializable {
     }
   };
   private static final long serialVersionUID = -5754338187296859149L;
+  private static final Object UNRESOLVED = new Object();
+  private static final int MAX_UNRESOLVED_NAMES = 1000;
 
   private final Hashtable environment; // environment for this context
-  private final Map bindings; // bindings at my level
-  private final Map treeBindings; // all bindings under me
+  private Map bindings; // bindings at my level
+  private Map treeBindings; // all bindings under me
   private boolean frozen;
+  private boolean copyOnWrite; // the bindings are shared with a frozen context until written
   private String nameInNamespace = "";
+  private transient NameResolver resolver;
+  private transient Map<String, Object> resolvedBindings; // names resolved on demand
+  private transient Map<String, Object> unresolvedNames; // recent names the resolver did not find
+  private transient Map<String, NameResolver> schemeResolvers; // built in URL schemes
+  private transient Map<String, Object> schemeBindings; // names resolved by built in schemes
+  private transient Map<String, Object> unresolvedSchemeNames; // recent unknown scheme names
+  private transient Map<String, Object> urlContexts; // URL contexts found for my environment
 
   public JndiContext() throws Exception {
     this(new Hashtable(), new HashMap());
@@ -75,6 +88,10 @@ public class JndiContext implements Context, Serializable {
     }
     this.bindings = bindings;
     treeBindings = new HashMap();
+    schemeResolvers = new ConcurrentHashMap<String, NameResolver>();
+    schemeBindings = new ConcurrentHashMap<String, Object>();
+    unresolvedSchemeNames = createUnresolvedNamesCache();
+    urlContexts = new ConcurrentHashMap<String, Object>();
   }
 
   public JndiContext(Hashtable environment, Map bindings, String nameInNamespace) {
@@ -82,10 +99,24 @@ public class JndiContext implements Context, Serializable {
     this.nameInNamespace = nameInNamespace;
   }
 
-  protected JndiContext(JndiContext clone, Hashtable env) {
+  /**
+   * Creates a lightweight view of the given context which shares its bindings but has its own
+   * environment and so its own cache of URL contexts. If the given context is frozen then the view
+   * is still writable; its bindings are copied the first time it is modified so that changes are
+   * only visible through this view.
+   */
+  public JndiContext(JndiContext clone, Hashtable env) {
     this.bindings = clone.bindings;
     this.treeBindings = clone.treeBindings;
     this.environment = new Hashtable(env);
+    this.copyOnWrite = clone.frozen || clone.copyOnWrite;
+    this.resolver = clone.resolver;
+    this.resolvedBindings = clone.resolvedBindings;
+    this.unresolvedNames = clone.unresolvedNames;
+    this.schemeResolvers = clone.schemeResolvers;
+    this.schemeBindings = clone.schemeBindings;
+    this.unresolvedSchemeNames = clone.unresolvedSchemeNames;
+    this.urlContexts = new ConcurrentHashMap<String, Object>();
   }
 
   protected JndiContext(JndiContext clone, Hashtable env, String nameInNamespace) {
@@ -93,14 +124,157 @@ public class JndiContext implements Context, Serializable {
     this.nameInNamespace = nameInNamespace;
   }
 
+  /**
+   * Freezes this context and all of its sub contexts so that no more bindings can be added
+   * which allows the context to be safely shared across threads and callers
+   */
   public void freeze() {
     frozen = true;
+    for (Object value : bindings.values()) {
+      if (value instanceof JndiContext) {
+        ((JndiContext) value).freeze();
+      }
+    }
   }
 
   boolean isFrozen() {
     return frozen;
   }
 
+  /**
+   * Replaces the bindings shared with a frozen context with a private copy, copying any sub
+   * contexts so that they can be modified too
+   */
+  protected void copyBindingsIfShared() {
+    if (!copyOnWrite) {
+      return;
+    }
+    Map newBindings = new HashMap();
+    Map newTreeBindings = new HashMap();
+    for (Iterator iter = bindings.entrySet().iterator(); iter.hasNext();) {
+      Map.Entry entry = (Map.Entry) iter.next();
+      String name = (String) entry.getKey();
+      Object value = entry.getValue();
+      if (value instanceof JndiContext) {
+        JndiContext subContext = new JndiContext((JndiContext) value, environment);
+        subContext.copyBindingsIfShared();
+        value = subContext;
+        for (Iterator subIter = subContext.treeBindings.entrySet().iterator();
+            subIter.hasNext();) {
+          Map.Entry subEntry = (Map.Entry) subIter.next();
+          newTreeBindings.put(name + SEPARATOR + subEntry.getKey(), subEntry.getValue());
+        }
+      }
+      newBindings.put(name, value);
+      newTreeBindings.put(name, value);
+    }
+    bindings = newBindings;
+    treeBindings = newTreeBindings;
+    copyOnWrite = false;
+  }
+
+  /**
+   * Sets the resolver used to lazily resolve names which are not bound into this context. The
+   * results of the resolver are cached so the resolver is only invoked once for each name; only
+   * the most recent names which could not be resolved are cached.
+   */
+  public void setResolver(NameResolver resolver) {
+    this.resolver = resolver;
+    this.resolvedBindings = new ConcurrentHashMap<String, Object>();
+    this.unresolvedNames = createUnresolvedNamesCache();
+  }
+
+  public NameResolver getResolver() {
+    return resolver;
+  }
+
+  /**
+   * Resolves the given name using the {@link NameResolver} if there is one, returning null if the
+   * name cannot be resolved
+   */
+  protected Object resolve(String name) throws NamingException {
+    if (resolver == null) {
+      return null;
+    }
+    Object answer = resolvedBindings.get(name);
+    if (answer == null && !unresolvedNames.containsKey(name)) {
+      answer = resolver.resolve(name);
+      if (answer == null) {
+        unresolvedNames.put(name, UNRESOLVED);
+      }
+      else {
+        resolvedBindings.put(name, answer);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Registers a built in URL scheme such as <code>guice:</code> whose names are resolved by the
+   * given resolver rather than by searching for a URL context factory via {@link
+   * NamingManager#getURLContext(String, Hashtable)}. The resolver is given the full name including
+   * the scheme and its results are cached.
+   */
+  public void addSchemeResolver(String scheme, NameResolver resolver) {
+    schemeResolvers.put(scheme, resolver);
+  }
+
+  protected NameResolver getSchemeResolver(String scheme) {
+    if (schemeResolvers == null) {
+      return null;
+    }
+    return schemeResolvers.get(scheme);
+  }
+
+  protected Object resolveSchemeName(NameResolver schemeResolver, String name)
+      throws NamingException {
+    Object answer = schemeBindings.get(name);
+    if (answer == null && !unresolvedSchemeNames.containsKey(name)) {
+      answer = schemeResolver.resolve(name);
+      if (answer == null) {
+        unresolvedSchemeNames.put(name, UNRESOLVED);
+      }
+      else {
+        schemeBindings.put(name, answer);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the URL context for the given scheme or null if the scheme is not recognized. Searching
+   * for the URL context factory is expensive so the results, including unknown schemes, are cached
+   * by each context; URL contexts are created from the environment of this context so they are
+   * never shared with other views and the cache is cleared when the environment is changed.
+   */
+  protected Context getURLContext(String scheme) throws NamingException {
+    if (urlContexts == null) {
+      return NamingManager.getURLContext(scheme, environment);
+    }
+    Object answer = urlContexts.get(scheme);
+    if (answer == null) {
+      answer = NamingManager.getURLContext(scheme, environment);
+      if (answer == null) {
+        answer = UNRESOLVED;
+      }
+      urlContexts.put(scheme, answer);
+    }
+    return answer == UNRESOLVED ? null : (Context) answer;
+  }
+
+  /**
+   * Creates a cache of the most recently used names which could not be resolved so that looking
+   * up many different unknown names cannot grow the cache without limit
+   */
+  private static Map<String, Object> createUnresolvedNamesCache() {
+    return Collections.synchronizedMap(new LinkedHashMap<String, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+        return size() > MAX_UNRESOLVED_NAMES;
+      }
+    });
+  }
+
   /**
    * internalBind is intended for use only during setup or possibly by suitably synchronized
    * superclasses. It binds every possible lookup into a map in each context. To do this, each
@@ -169,6 +343,7 @@ public class JndiContext implements Context, Serializable {
   }
 
   public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+    clearURLContexts();
     return environment.put(propName, propVal);
   }
 
@@ -177,9 +352,16 @@ public class JndiContext implements Context, Serializable {
   }
 
   public Object removeFromEnvironment(String propName) throws NamingException {
+    clearURLContexts();
     return environment.remove(propName);
   }
 
+  private void clearURLContexts() {
+    if (urlContexts != null) {
+      urlContexts.clear();
+    }
+  }
+
   public Object lookup(String name) throws NamingException {
     if (name.length() == 0) {
       return this;
@@ -188,36 +370,46 @@ public class JndiContext implements Context, Serializable {
     if (result == null) {
       result = bindings.get(name);
     }
+    if (result == null) {
+      result = resolve(name);
+    }
     if (result == null) {
       int pos = name.indexOf(':');
       if (pos > 0) {
         String scheme = name.substring(0, pos);
-        Context ctx = NamingManager.getURLContext(scheme, environment);
-        if (ctx == null) {
-          throw new NamingException("scheme " + scheme + " not recognized");
+        NameResolver schemeResolver = getSchemeResolver(scheme);
+        if (schemeResolver == null) {
+          Context ctx = getURLContext(scheme);
+          if (ctx == null) {
+            throw new NamingException("scheme " + scheme + " not recognized");
+          }
+          return ctx.lookup(name);
+        }
+        result = resolveSchemeName(schemeResolver, name);
+        if (result == null) {
+          throw new NameNotFoundException(name);
         }
-        return ctx.lookup(name);
       }
-      else {
-        // Split out the first name of the path
-        // and look for it in the bindings map.
-        CompositeName path = new CompositeName(name);
+    }
+    if (result == null) {
+      // Split out the first name of the path
+      // and look for it in the bindings map.
+      CompositeName path = new CompositeName(name);
 
-        if (path.size() == 0) {
-          return this;
+      if (path.size() == 0) {
+        return this;
+      }
+      else {
+        String first = path.get(0);
+        Object value = bindings.get(first);
+        if (value == null) {
+          throw new NameNotFoundException(name);
         }
-        else {
-          String first = path.get(0);
-          Object value = bindings.get(first);
-          if (value == null) {
-            throw new NameNotFoundException(name);
-          }
-          else if (value instanceof Context && path.size() > 1) {
-            Context subContext = (Context) value;
-            value = subContext.lookup(path.getSuffix(1));
-          }
-          return value;
+        else if (value instanceof Context && path.size() > 1) {
+          Context subContext = (Context) value;
+          value = subContext.lookup(path.getSuffix(1));
         }
+        return value;
       }
     }
     if (result instanceof Provider) {
@@ -316,6 +508,7 @@ public class JndiContext implements Context, Serializable {
       throw new OperationNotSupportedException();
     }
     else {
+      copyBindingsIfShared();
       internalBind(name, value);
     }
   }
@@ -373,6 +566,10 @@ public class JndiContext implements Context, Serializable {
   }
 
   public void unbind(String name) throws NamingException {
+    if (isFrozen()) {
+      throw new OperationNotSupportedException();
+    }
+    copyBindingsIfShared();
     bindings.remove(name);
     treeBindings.remove(name);
   }
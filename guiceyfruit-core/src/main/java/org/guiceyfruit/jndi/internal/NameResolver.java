@@ -0,0 +1,36 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.internal;
+
+import javax.naming.NamingException;
+
+/**
+ * A strategy used by a {@link JndiContext} to resolve names on demand which have not been bound
+ * into the context
+ *
+ * @version $Revision: 1.1 $
+ */
+public interface NameResolver {
+
+  /**
+   * Returns the value for the given name, which may be a {@link com.google.inject.Provider}, or
+   * null if the name cannot be resolved
+   */
+  Object resolve(String name) throws NamingException;
+}
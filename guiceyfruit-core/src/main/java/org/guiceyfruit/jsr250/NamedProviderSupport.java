@@ -60,14 +60,27 @@ public abstract class NamedProviderSupport<A extends Annotation> extends Annotat
         if (binding != null) {
             return binding.getProvider().get();
         }
+        return lookupInJndi(name);
+    }
 
+    /**
+     * Looks up the given name in the JNDI context, creating a new initial context for the lookup
+     * if no context has been injected as an initial context cannot be shared by threads
+     */
+    protected Object lookupInJndi(String name) {
         // TODO we may want to try avoid the dependency on JNDI classes
         // for better operation in GAE?
         try {
-            if (context == null) {
-                context = new InitialContext();
+            if (context != null) {
+                return context.lookup(name);
+            }
+            Context initialContext = new InitialContext();
+            try {
+                return initialContext.lookup(name);
+            }
+            finally {
+                initialContext.close();
             }
-            return context.lookup(name);
         }
         catch (NamingException e) {
             throw new ProvisionException("Failed to find name '" + name + "' in JNDI. Cause: " + e, e);
@@ -0,0 +1,37 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+/**
+ * Represents an object which holds resources which should be released when the object is no longer
+ * used, even if it is not cached in a scope which is closed. When cleanup tracking is enabled via
+ * {@link GuiceyFruitModule#bindCleanupTracking()} the task is performed when the object is closed
+ * by its scope or asynchronously after the object has become unreachable.
+ *
+ * @see CleanupTracker
+ * @version $Revision: 1.1 $
+ */
+public interface Cleanable {
+  /**
+   * Returns the task which releases the resources of this object. The task must not refer to this
+   * object (or it could never become unreachable) and the same task should be returned each time
+   * this method is called.
+   */
+  CloseTask getCleanupTask();
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import com.google.inject.internal.Preconditions;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+/**
+ * Tracks {@link Cleanable} instances using phantom references so that their cleanup tasks are
+ * performed once they become unreachable, without keeping the instances alive. This allows unscoped
+ * objects, which are never closed by {@link org.guiceyfruit.Injectors#close(com.google.inject.Injector)},
+ * to release their resources.
+ * <p/>
+ * The tracker is also a {@link Closer} so that if a tracked object is closed by its scope its
+ * cleanup task is performed at that point and it is no longer tracked; each task is performed at
+ * most once. Tracked references are processed by a single shared daemon thread which exits once
+ * there are no more tracked instances and is restarted when needed; containers which discard
+ * class loaders can call {@link #stopCleanupThread()} to stop it straight away.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class CleanupTracker implements Closer {
+  private static final Logger log = Logger.getLogger(CleanupTracker.class.getName());
+  private static final long IDLE_TIMEOUT = 60000L;
+  private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+  private static final AtomicInteger pendingReferences = new AtomicInteger();
+  private static Thread cleanupThread;
+
+  private final ConcurrentMap<CloseTask, TrackedReference> references
+      = new ConcurrentHashMap<CloseTask, TrackedReference>();
+  private final AtomicLong trackedCount = new AtomicLong();
+  private final AtomicLong closedCount = new AtomicLong();
+  private final AtomicLong cleanedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * Tracks the given instance so that the task is performed after the instance becomes
+   * unreachable
+   *
+   * @param instance the instance to track
+   * @param task the task to perform which must not refer to the instance
+   */
+  public void track(Object instance, CloseTask task) {
+    Preconditions.checkNotNull(instance, "instance");
+    Preconditions.checkNotNull(task, "task");
+
+    TrackedReference reference = new TrackedReference(instance, this, task);
+    if (references.putIfAbsent(task, reference) == null) {
+      trackedCount.incrementAndGet();
+      pendingReferences.incrementAndGet();
+      startCleanupThread();
+    }
+    else {
+      reference.clear();
+    }
+  }
+
+  /** Performs the cleanup task of a tracked {@link Cleanable} which is being closed by its scope */
+  public void close(Object object) throws Throwable {
+    if (object instanceof Cleanable) {
+      CloseTask task = ((Cleanable) object).getCleanupTask();
+      if (task != null) {
+        TrackedReference reference = references.remove(task);
+        if (reference != null) {
+          reference.clear();
+          pendingReferences.decrementAndGet();
+          closedCount.incrementAndGet();
+          task.perform();
+        }
+      }
+    }
+  }
+
+  /** Returns the total number of instances which have been tracked */
+  public long getTrackedCount() {
+    return trackedCount.get();
+  }
+
+  /** Returns the number of tracked instances which have not yet been cleaned up or closed */
+  public int getPendingCount() {
+    return references.size();
+  }
+
+  /** Returns the number of tracked instances which were closed by their scope */
+  public long getClosedCount() {
+    return closedCount.get();
+  }
+
+  /** Returns the number of cleanup tasks performed after their instance became unreachable */
+  public long getCleanedCount() {
+    return cleanedCount.get();
+  }
+
+  /** Returns the number of cleanup tasks which failed after their instance became unreachable */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  protected void cleanup(TrackedReference reference) {
+    CloseTask task = reference.task;
+    if (references.remove(task, reference)) {
+      pendingReferences.decrementAndGet();
+      try {
+        task.perform();
+        cleanedCount.incrementAndGet();
+      }
+      catch (Exception e) {
+        failedCount.incrementAndGet();
+        CloseErrors errors = new CloseErrorsImpl(CleanupTracker.class);
+        errors.closeError(task.getSource(), task, e);
+        try {
+          errors.throwIfNecessary();
+        }
+        catch (CloseFailedException closeFailed) {
+          log.log(Level.WARNING, closeFailed.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the shared cleanup thread, for example when the class loader of an application is being
+   * discarded, so that it no longer keeps the class loader alive. The thread is started again if
+   * more instances are tracked.
+   */
+  public static void stopCleanupThread() {
+    Thread thread;
+    synchronized (CleanupTracker.class) {
+      thread = cleanupThread;
+      cleanupThread = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private static synchronized void startCleanupThread() {
+    if (cleanupThread == null) {
+      Thread thread = new Thread("GuiceyFruit CleanupTracker") {
+        @Override
+        public void run() {
+          while (isCleanupThread(this)) {
+            try {
+              TrackedReference reference = (TrackedReference) queue.remove(IDLE_TIMEOUT);
+              if (reference != null) {
+                reference.tracker.cleanup(reference);
+              }
+              else if (stopIfIdle(this)) {
+                return;
+              }
+            }
+            catch (InterruptedException e) {
+              // we have been stopped
+              return;
+            }
+            catch (Throwable e) {
+              // lets keep going so that the other tracked instances are still cleaned up
+              log.log(Level.SEVERE, "Failed to process a tracked reference. Reason: " + e, e);
+            }
+          }
+        }
+      };
+      thread.setDaemon(true);
+      thread.setContextClassLoader(CleanupTracker.class.getClassLoader());
+      thread.start();
+      cleanupThread = thread;
+    }
+  }
+
+  private static synchronized boolean isCleanupThread(Thread thread) {
+    return cleanupThread == thread;
+  }
+
+  /** Stops the given cleanup thread if it is still current and nothing is being tracked */
+  private static synchronized boolean stopIfIdle(Thread thread) {
+    if (cleanupThread == thread && pendingReferences.get() <= 0) {
+      cleanupThread = null;
+      return true;
+    }
+    return false;
+  }
+
+  static class TrackedReference extends PhantomReference<Object> {
+    final CleanupTracker tracker;
+    final CloseTask task;
+
+    TrackedReference(Object referent, CleanupTracker tracker, CloseTask task) {
+      super(referent, queue);
+      this.tracker = tracker;
+      this.task = task;
+    }
+  }
+}
@@ -35,6 +35,7 @@ import com.google.inject.spi.InjectionListener;
 import com.google.inject.spi.TypeEncounter;
 import com.google.inject.spi.TypeListener;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -42,8 +43,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.guiceyfruit.Configures;
+import org.guiceyfruit.Lazy;
+import org.guiceyfruit.Pooled;
 import static org.guiceyfruit.support.EncounterProvider.encounterProvider;
 import org.guiceyfruit.support.internal.MethodKey;
+import org.guiceyfruit.util.PooledScope;
 
 /**
  * Adds some new helper methods to the base Guice module
@@ -270,7 +274,7 @@ public abstract class GuiceyFruitModule extends AbstractModule {
           final TypeLiteral<?> type, final Method method) {
         // TODO lets exclude methods with @Inject?
         final A annotation = method.getAnnotation(annotationType);
-        if (annotation != null) {
+        if (annotation != null && !isInjectedByAnotherAnnotation(annotationType, method)) {
           if (providerProvider == null) {
             providerProvider = memberProviderProvider.get(encounter);
           }
@@ -316,7 +320,7 @@ public abstract class GuiceyFruitModule extends AbstractModule {
           final TypeLiteral<?> type, final Field field) {
         // TODO lets exclude fields with @Inject?
         final A annotation = field.getAnnotation(annotationType);
-        if (annotation != null) {
+        if (annotation != null && !isInjectedByAnotherAnnotation(annotationType, field)) {
           if (providerProvider == null) {
             providerProvider = memberProviderProvider.get(encounter);
           }
@@ -342,6 +346,72 @@ public abstract class GuiceyFruitModule extends AbstractModule {
     });
   }
 
+  /**
+   * Enables the tracking of {@link Cleanable} instances so that their cleanup tasks are performed
+   * once they become unreachable, even if they are not in a scope which is closed.
+   *
+   * @see CleanupTracker
+   */
+  protected void bindCleanupTracking() {
+    final CleanupTracker tracker = new CleanupTracker();
+    bind(CleanupTracker.class).toInstance(tracker);
+
+    bindListener(new AbstractMatcher<TypeLiteral<?>>() {
+      public boolean matches(TypeLiteral<?> typeLiteral) {
+        return Cleanable.class.isAssignableFrom(typeLiteral.getRawType());
+      }
+    }, new TypeListener() {
+      public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
+        encounter.register(new InjectionListener<I>() {
+          public void afterInjection(I injectee) {
+            CloseTask task = ((Cleanable) injectee).getCleanupTask();
+            if (task != null) {
+              tracker.track(injectee, task);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Enables the injection of fields and methods annotated with {@link Lazy} with proxies which
+   * create the real object from its binding when they are first used.
+   *
+   * @see LazyMemberProvider
+   */
+  protected void bindLazyInjection() {
+    bindAnnotationInjector(Lazy.class, LazyMemberProvider.class);
+  }
+
+  /**
+   * Binds the {@link PooledScope} to the {@link Pooled} annotation and returns it. The scope is
+   * also bound as a singleton so that the idle pooled instances are closed when the singletons of
+   * the injector are closed.
+   */
+  protected PooledScope bindPooledScope() {
+    final PooledScope scope = new PooledScope();
+    requestInjection(scope);
+    bindScope(Pooled.class, scope);
+    bind(PooledScope.class).toProvider(new Provider<PooledScope>() {
+      public PooledScope get() {
+        return scope;
+      }
+    }).asEagerSingleton();
+    return scope;
+  }
+
+  /**
+   * Returns true if the given member is annotated with the annotation type but is injected by the
+   * injector of one of its other annotations, so that the member is not injected twice. For example
+   * the {@link LazyMemberProvider} should not inject members which another annotation injector
+   * already injects lazily.
+   */
+  protected boolean isInjectedByAnotherAnnotation(Class<? extends Annotation> annotationType,
+      AnnotatedElement member) {
+    return false;
+  }
+
   protected Class<?> getParameterType(TypeLiteral<?> type, Method method, int i) {
     Class<?>[] parameterTypes = method.getParameterTypes();
     List<TypeLiteral<?>> list = type.getParameterTypes(method);
@@ -0,0 +1,89 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import com.google.inject.BindingAnnotation;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.internal.Preconditions;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import org.guiceyfruit.Lazy;
+
+/**
+ * Injects fields or methods annotated with {@link Lazy} with a proxy which creates the real object
+ * from its binding when it is first used. Members which the injector of another of their
+ * annotations already injects lazily are skipped, see
+ * {@link GuiceyFruitModule#isInjectedByAnotherAnnotation(Class, AnnotatedElement)}
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LazyMemberProvider extends AnnotationMemberProviderSupport<Lazy> {
+  private final Injector injector;
+
+  @Inject
+  public LazyMemberProvider(Injector injector) {
+    Preconditions.checkNotNull(injector, "injector");
+    this.injector = injector;
+  }
+
+  public boolean isNullParameterAllowed(Lazy annotation, Method method, Class<?> parameterType,
+      int parameterIndex) {
+    return false;
+  }
+
+  protected Object provide(Lazy lazy, Member member, TypeLiteral<?> requiredType,
+      Class<?> memberType, Annotation[] annotations) {
+    Annotation bindingAnnotation = getBindingAnnotation(member, annotations);
+    Key<?> key = bindingAnnotation == null ? Key.get(requiredType)
+        : Key.get(requiredType, bindingAnnotation);
+    return LazyProxies.newProxy((Class<Object>) memberType,
+        (Provider<Object>) injector.getProvider(key));
+  }
+
+  /**
+   * Returns the binding annotation of the method parameter or field or null if there is none
+   */
+  protected Annotation getBindingAnnotation(Member member, Annotation[] parameterAnnotations) {
+    Annotation[] annotations = parameterAnnotations;
+    if (annotations == null && member instanceof AnnotatedElement) {
+      annotations = ((AnnotatedElement) member).getAnnotations();
+    }
+    Annotation answer = null;
+    if (annotations != null) {
+      for (Annotation annotation : annotations) {
+        if (annotation.annotationType().isAnnotationPresent(BindingAnnotation.class)) {
+          if (answer != null) {
+            throw new ProvisionException(
+                "Too many binding annotations " + answer + " and " + annotation
+                    + " when trying to inject " + member);
+          }
+          answer = annotation;
+        }
+      }
+    }
+    return answer;
+  }
+}
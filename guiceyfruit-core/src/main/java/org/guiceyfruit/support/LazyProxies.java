@@ -0,0 +1,93 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.internal.cglib.proxy.Callback;
+import com.google.inject.internal.cglib.proxy.Dispatcher;
+import com.google.inject.internal.cglib.proxy.Factory;
+import org.guiceyfruit.support.internal.ProxyFactory;
+
+/**
+ * Creates proxies which create their real object from a provider when the first method is invoked
+ * on them and then delegate each method call directly to it.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LazyProxies {
+  private static final ProxyFactory proxyFactory = new ProxyFactory("lazy");
+
+  /**
+   * Returns a new proxy of the given interface or class which creates its real object from the
+   * given provider when the first method is invoked on it
+   */
+  public static <T> T newProxy(Class<T> type, Provider<? extends T> provider) {
+    return proxyFactory.newProxy(type, new LazyDispatcher(provider));
+  }
+
+  /**
+   * Returns true if the given object is a lazy proxy which has created its real object
+   */
+  public static boolean isInitialized(Object proxy) {
+    if (proxy instanceof Factory) {
+      Callback callback = ((Factory) proxy).getCallback(0);
+      if (callback instanceof LazyDispatcher) {
+        return ((LazyDispatcher) callback).target != null;
+      }
+    }
+    return false;
+  }
+
+  /** Returns true if the given object is a lazy proxy */
+  public static boolean isLazyProxy(Object object) {
+    return object instanceof Factory && ((Factory) object).getCallback(0) instanceof LazyDispatcher;
+  }
+
+  /**
+   * Returns the real object of the proxy, creating it once using double checked locking so that the
+   * only cost of each later method call is reading a volatile field
+   */
+  private static class LazyDispatcher implements Dispatcher {
+    private final Provider<?> provider;
+    private volatile Object target;
+
+    LazyDispatcher(Provider<?> provider) {
+      this.provider = provider;
+    }
+
+    public Object loadObject() {
+      Object answer = target;
+      if (answer == null) {
+        synchronized (this) {
+          answer = target;
+          if (answer == null) {
+            answer = provider.get();
+            if (answer == null) {
+              throw new ProvisionException("The lazily injected provider " + provider
+                  + " returned null");
+            }
+            target = answer;
+          }
+        }
+      }
+      return answer;
+    }
+  }
+}
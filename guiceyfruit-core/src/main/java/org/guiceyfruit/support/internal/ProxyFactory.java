@@ -0,0 +1,105 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support.internal;
+
+import com.google.inject.ProvisionException;
+import com.google.inject.internal.cglib.proxy.Callback;
+import com.google.inject.internal.cglib.proxy.CallbackFilter;
+import com.google.inject.internal.cglib.proxy.Enhancer;
+import com.google.inject.internal.cglib.proxy.Factory;
+import com.google.inject.internal.cglib.proxy.NoOp;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Creates cglib proxies of interfaces or classes which invoke a single callback for every method
+ * other than <code>finalize()</code>, so that an unused proxy being garbage collected does not
+ * invoke the callback. Each proxy class is generated once for each type and new proxies are created
+ * from its {@link Factory}.
+ * <p/>
+ * The cache of factories is weakly keyed by the proxied type and weakly references the factories,
+ * whose generated classes reference the proxied type, so that it does not prevent class loaders
+ * being garbage collected. A separate factory is required for each type of callback.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class ProxyFactory {
+  private static final CallbackFilter FINALIZE_FILTER = new CallbackFilter() {
+    public int accept(Method method) {
+      return method.getName().equals("finalize") && method.getParameterTypes().length == 0 ? 1
+          : 0;
+    }
+  };
+
+  private final Map<Class<?>, WeakReference<Factory>> factories = Collections
+      .synchronizedMap(new WeakHashMap<Class<?>, WeakReference<Factory>>());
+  private final String description;
+
+  /**
+   * @param description the kind of proxy created, such as "lazy", used in error messages
+   */
+  public ProxyFactory(String description) {
+    this.description = description;
+  }
+
+  /**
+   * Returns a new proxy of the given interface or class which invokes the callback for each method
+   *
+   * @throws ProvisionException if the type cannot be proxied
+   */
+  public <T> T newProxy(Class<T> type, Callback callback) {
+    Callback[] callbacks = { callback, NoOp.INSTANCE };
+    WeakReference<Factory> reference = factories.get(type);
+    Factory factory = reference != null ? reference.get() : null;
+    if (factory != null) {
+      return type.cast(factory.newInstance(callbacks));
+    }
+
+    if (Modifier.isFinal(type.getModifiers()) || type.isPrimitive() || type.isArray()) {
+      throw new ProvisionException(
+          "Cannot create a " + description + " proxy of " + type.getName());
+    }
+    Enhancer enhancer = new Enhancer();
+    if (type.isInterface()) {
+      enhancer.setInterfaces(new Class[] { type });
+    }
+    else {
+      enhancer.setSuperclass(type);
+    }
+    ClassLoader classLoader = type.getClassLoader();
+    enhancer.setClassLoader(
+        classLoader != null ? classLoader : ProxyFactory.class.getClassLoader());
+    enhancer.setCallbackFilter(FINALIZE_FILTER);
+    enhancer.setCallbacks(callbacks);
+    T answer;
+    try {
+      answer = type.cast(enhancer.create());
+    }
+    catch (IllegalArgumentException e) {
+      throw new ProvisionException("Cannot create a " + description + " proxy of "
+          + type.getName() + " which needs a visible zero argument constructor. Reason: " + e, e);
+    }
+    factories.put(type, new WeakReference<Factory>((Factory) answer));
+    return answer;
+  }
+}
@@ -0,0 +1,328 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.internal.Lists;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how much time the tests spend creating injectors, injecting tests and closing scopes
+ * for each test class and each module type so that the test modules which slow down a test suite
+ * can be found. The report can be written as JSON and as a Surefire compatible XML report via
+ * {@link #write(File)}.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class InjectionReport {
+  /** The file name of the JSON report */
+  public static final String JSON_FILE = "guiceyfruit-injection.json";
+
+  /** The file name of the Surefire compatible XML report */
+  public static final String XML_FILE = "TEST-org.guiceyfruit.testing.InjectionReport.xml";
+
+  private final ConcurrentMap<String, ModuleStatistics> modules
+      = new ConcurrentHashMap<String, ModuleStatistics>();
+  private final ConcurrentMap<Class<?>, TestClassStatistics> testClasses
+      = new ConcurrentHashMap<Class<?>, TestClassStatistics>();
+
+  public ModuleStatistics getModule(String moduleName) {
+    ModuleStatistics answer = modules.get(moduleName);
+    if (answer == null) {
+      ModuleStatistics newValue = new ModuleStatistics(moduleName);
+      answer = modules.putIfAbsent(moduleName, newValue);
+      if (answer == null) {
+        answer = newValue;
+      }
+    }
+    return answer;
+  }
+
+  public TestClassStatistics getTestClass(Class<?> testType, String moduleName) {
+    TestClassStatistics answer = testClasses.get(testType);
+    if (answer == null) {
+      TestClassStatistics newValue = new TestClassStatistics(testType.getName(), moduleName);
+      answer = testClasses.putIfAbsent(testType, newValue);
+      if (answer == null) {
+        answer = newValue;
+      }
+    }
+    return answer;
+  }
+
+  /** Returns the modules sorted by the total time spent creating their injectors, slowest first */
+  public List<ModuleStatistics> getSlowestModules() {
+    List<ModuleStatistics> answer = Lists.newArrayList(modules.values());
+    Collections.sort(answer, new Comparator<ModuleStatistics>() {
+      public int compare(ModuleStatistics o1, ModuleStatistics o2) {
+        long diff = o2.creationNanos.get() - o1.creationNanos.get();
+        return diff > 0 ? 1 : diff < 0 ? -1 : o1.name.compareTo(o2.name);
+      }
+    });
+    return answer;
+  }
+
+  /** Returns the test classes sorted by the time spent on injection, slowest first */
+  public List<TestClassStatistics> getSlowestTestClasses() {
+    List<TestClassStatistics> answer = Lists.newArrayList(testClasses.values());
+    Collections.sort(answer, new Comparator<TestClassStatistics>() {
+      public int compare(TestClassStatistics o1, TestClassStatistics o2) {
+        long diff = o2.getTotalNanos() - o1.getTotalNanos();
+        return diff > 0 ? 1 : diff < 0 ? -1 : o1.name.compareTo(o2.name);
+      }
+    });
+    return answer;
+  }
+
+  public boolean isEmpty() {
+    return modules.isEmpty() && testClasses.isEmpty();
+  }
+
+  /** Writes the JSON and Surefire XML reports to the given directory */
+  public void write(File directory) throws IOException {
+    directory.mkdirs();
+    PrintWriter writer = createWriter(new File(directory, JSON_FILE));
+    try {
+      writeJson(writer);
+    }
+    finally {
+      writer.close();
+    }
+    writer = createWriter(new File(directory, XML_FILE));
+    try {
+      writeSurefireXml(writer);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  public void writeJson(PrintWriter writer) {
+    List<ModuleStatistics> moduleList = getSlowestModules();
+    writer.println("{");
+    writer.println("  \"modules\": [");
+    for (int i = 0, size = moduleList.size(); i < size; i++) {
+      ModuleStatistics module = moduleList.get(i);
+      writer.print("    {\"name\": " + quote(module.name)
+          + ", \"injectorsCreated\": " + module.creationCount.get()
+          + ", \"creationMillis\": " + millis(module.creationNanos.get())
+          + ", \"reuseCount\": " + module.getReuseCount()
+          + ", \"tests\": " + module.acquireCount.get() + "}");
+      writer.println(i < size - 1 ? "," : "");
+    }
+    writer.println("  ],");
+
+    List<TestClassStatistics> classList = getSlowestTestClasses();
+    writer.println("  \"testClasses\": [");
+    for (int i = 0, size = classList.size(); i < size; i++) {
+      TestClassStatistics testClass = classList.get(i);
+      writer.print("    {\"name\": " + quote(testClass.name)
+          + ", \"module\": " + quote(testClass.moduleName)
+          + ", \"tests\": " + testClass.testCount.get()
+          + ", \"injectorMillis\": " + millis(testClass.injectorNanos.get())
+          + ", \"injectMembersMillis\": " + millis(testClass.injectMembersNanos.get())
+          + ", \"testScopeCloseMillis\": " + millis(testClass.testScopeCloseNanos.get())
+          + ", \"classScopeCloseMillis\": " + millis(testClass.classScopeCloseNanos.get()) + "}");
+      writer.println(i < size - 1 ? "," : "");
+    }
+    writer.println("  ],");
+
+    writer.print("  \"slowestModules\": [");
+    for (int i = 0, size = Math.min(10, moduleList.size()); i < size; i++) {
+      writer.print((i > 0 ? ", " : "") + quote(moduleList.get(i).name));
+    }
+    writer.println("]");
+    writer.println("}");
+  }
+
+  /**
+   * Writes a report in the format of the Surefire XML reports so that it can be viewed by the
+   * tools which display test results; each module and test class is a test case whose time is the
+   * time spent on injection
+   */
+  public void writeSurefireXml(PrintWriter writer) {
+    List<ModuleStatistics> moduleList = getSlowestModules();
+    List<TestClassStatistics> classList = getSlowestTestClasses();
+    long totalNanos = 0;
+    for (ModuleStatistics module : moduleList) {
+      totalNanos += module.creationNanos.get();
+    }
+    for (TestClassStatistics testClass : classList) {
+      totalNanos += testClass.injectMembersNanos.get() + testClass.testScopeCloseNanos.get()
+          + testClass.classScopeCloseNanos.get();
+    }
+
+    writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    writer.println("<testsuite name=\"org.guiceyfruit.testing.InjectionReport\" tests=\""
+        + (moduleList.size() + classList.size()) + "\" failures=\"0\" errors=\"0\" skipped=\"0\""
+        + " time=\"" + seconds(totalNanos) + "\">");
+    for (ModuleStatistics module : moduleList) {
+      writer.println("  <testcase classname=\"" + escapeXml(module.name)
+          + "\" name=\"createInjector\" time=\"" + seconds(module.creationNanos.get()) + "\"/>");
+    }
+    for (TestClassStatistics testClass : classList) {
+      writer.println("  <testcase classname=\"" + escapeXml(testClass.name)
+          + "\" name=\"injection\" time=\"" + seconds(testClass.getTotalNanos()) + "\"/>");
+    }
+    writer.println("</testsuite>");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buffer = new StringBuilder("Slowest Guice test modules:");
+    List<ModuleStatistics> moduleList = getSlowestModules();
+    for (int i = 0, size = Math.min(5, moduleList.size()); i < size; i++) {
+      ModuleStatistics module = moduleList.get(i);
+      buffer.append("\n  ").append(module.name).append(" created ")
+          .append(module.creationCount.get()).append(" times in ")
+          .append(millis(module.creationNanos.get())).append(" ms, reused ")
+          .append(module.getReuseCount()).append(" times");
+    }
+    return buffer.toString();
+  }
+
+  protected PrintWriter createWriter(File file) throws IOException {
+    return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  protected static String millis(long nanos) {
+    return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000.0);
+  }
+
+  protected static String seconds(long nanos) {
+    return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000000.0);
+  }
+
+  protected static String quote(String text) {
+    StringBuilder buffer = new StringBuilder("\"");
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        buffer.append('\\').append(ch);
+      }
+      else if (ch < ' ') {
+        buffer.append(String.format("\\u%04x", (int) ch));
+      }
+      else {
+        buffer.append(ch);
+      }
+    }
+    return buffer.append('"').toString();
+  }
+
+  protected static String escapeXml(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  /** The statistics of the injectors created for a module type */
+  public static class ModuleStatistics {
+    final String name;
+    final AtomicLong creationCount = new AtomicLong();
+    final AtomicLong creationNanos = new AtomicLong();
+    final AtomicLong acquireCount = new AtomicLong();
+
+    ModuleStatistics(String name) {
+      this.name = name;
+    }
+
+    public void injectorCreated(long nanos) {
+      creationCount.incrementAndGet();
+      creationNanos.addAndGet(nanos);
+    }
+
+    public void injectorAcquired() {
+      acquireCount.incrementAndGet();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCreationCount() {
+      return creationCount.get();
+    }
+
+    public long getCreationNanos() {
+      return creationNanos.get();
+    }
+
+    /** Returns the number of tests which used an injector which had already been created */
+    public long getReuseCount() {
+      return Math.max(0, acquireCount.get() - creationCount.get());
+    }
+  }
+
+  /** The time spent on injection by a test class */
+  public static class TestClassStatistics {
+    final String name;
+    final String moduleName;
+    final AtomicLong testCount = new AtomicLong();
+    final AtomicLong injectorNanos = new AtomicLong();
+    final AtomicLong injectMembersNanos = new AtomicLong();
+    final AtomicLong testScopeCloseNanos = new AtomicLong();
+    final AtomicLong classScopeCloseNanos = new AtomicLong();
+
+    TestClassStatistics(String name, String moduleName) {
+      this.name = name;
+      this.moduleName = moduleName;
+    }
+
+    /**
+     * Records a test being injected along with the time spent waiting for the injector, which
+     * includes creating it, and the time spent injecting the test
+     */
+    public void testInjected(long injectorNanos, long injectMembersNanos) {
+      testCount.incrementAndGet();
+      this.injectorNanos.addAndGet(injectorNanos);
+      this.injectMembersNanos.addAndGet(injectMembersNanos);
+    }
+
+    public void testScopeClosed(long nanos) {
+      testScopeCloseNanos.addAndGet(nanos);
+    }
+
+    public void classScopeClosed(long nanos) {
+      classScopeCloseNanos.addAndGet(nanos);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getTestCount() {
+      return testCount.get();
+    }
+
+    public long getTotalNanos() {
+      return injectorNanos.get() + injectMembersNanos.get() + testScopeCloseNanos.get()
+          + classScopeCloseNanos.get();
+    }
+  }
+}
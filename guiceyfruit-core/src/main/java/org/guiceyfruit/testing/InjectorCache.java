@@ -0,0 +1,400 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.Injector;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+/**
+ * A cache of the injectors used by tests keyed by their module type which can be bounded by the
+ * number of injectors and by the amount of heap used. When the cache is over its budget the least
+ * recently used injector which is not in use is closed via {@link Injectors#close(Injector,
+ * CloseErrors)} and discarded. Injectors which are in use, expected to be used by upcoming test
+ * classes or used by test classes which are still running are never evicted, as closing them would
+ * also close the {@link ClassScoped} objects of those test classes. An injector is acquired and
+ * checked for eviction under the same lock so a test is never given an injector being closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class InjectorCache {
+  /** The system property used to limit the number of cached injectors */
+  public static final String MAX_INJECTORS = "org.guiceyfruit.testing.maxInjectors";
+
+  /**
+   * The system property used to evict injectors when the used heap exceeds the given percentage of
+   * the maximum heap
+   */
+  public static final String MAX_HEAP_PERCENT = "org.guiceyfruit.testing.maxHeapPercent";
+
+  private final ConcurrentMap<Object, CacheEntry> entries
+      = new ConcurrentHashMap<Object, CacheEntry>();
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong prefetchCount = new AtomicLong();
+  private int maxInjectors;
+  private int maxHeapPercent;
+
+  public InjectorCache() {
+    this(Integer.getInteger(MAX_INJECTORS, 0), Integer.getInteger(MAX_HEAP_PERCENT, 0));
+  }
+
+  /**
+   * Creates a cache with the given limits
+   *
+   * @param maxInjectors the maximum number of injectors to cache or zero for no limit
+   * @param maxHeapPercent the percentage of the maximum heap which when used causes injectors to
+   * be evicted or zero for no limit
+   */
+  public InjectorCache(int maxInjectors, int maxHeapPercent) {
+    this.maxInjectors = maxInjectors;
+    this.maxHeapPercent = maxHeapPercent;
+  }
+
+  /**
+   * Returns the injector for the given module key creating it with the factory if it is not cached.
+   * The injector is marked as being in use until {@link #release(Object, Injector)} is called.
+   *
+   * @param moduleKey the key of the module type of the injector
+   * @param testType the test class which is using the injector
+   * @param factory the factory used to create the injector if it is not cached
+   */
+  public Injector acquire(Object moduleKey, Class<?> testType, Callable<Injector> factory)
+      throws Exception {
+    CacheEntry entry;
+    synchronized (this) {
+      // pinning the entry under the eviction lock means it cannot be evicted once we have it
+      entry = getEntry(moduleKey, factory);
+      entry.activeCount.incrementAndGet();
+      entry.lastUsed = clock.incrementAndGet();
+      entry.expectedClasses.remove(testType);
+      entry.runningClasses.put(testType, Boolean.TRUE);
+    }
+
+    boolean created = entry.started.compareAndSet(false, true);
+    if (created) {
+      entry.future.run();
+    }
+    try {
+      Injector answer = entry.future.get();
+      if (created) {
+        missCount.incrementAndGet();
+        evictIfNecessary(entry);
+      }
+      else {
+        hitCount.incrementAndGet();
+      }
+      return answer;
+    }
+    catch (ExecutionException e) {
+      entry.activeCount.decrementAndGet();
+      // lets allow the next test to retry creating the injector
+      entries.remove(moduleKey, entry);
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Marks the given injector, which was returned by {@link #acquire(Object, Class, Callable)} for
+   * the module key, as no longer being used by a test. Nothing is released if the injector has
+   * since been discarded by {@link #closeAll(CloseErrors)} and replaced by a new one.
+   */
+  public void release(Object moduleKey, Injector injector) {
+    CacheEntry entry = entries.get(moduleKey);
+    if (entry != null && getInjector(entry) == injector) {
+      entry.activeCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Registers that the given test class is expected to use the injector for the given module key
+   * so that the injector is not evicted before the test class runs
+   */
+  public synchronized void expect(Object moduleKey, Class<?> testType,
+      Callable<Injector> factory) {
+    CacheEntry entry = getEntry(moduleKey, factory);
+    if (!entry.runningClasses.containsKey(testType)) {
+      entry.expectedClasses.put(testType, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Registers the factory of the injector for the given module key without marking it as needed by
+   * any test class so that it can be created by {@link #prefetch(Object)} but may still be evicted
+   */
+  public synchronized void register(Object moduleKey, Callable<Injector> factory) {
+    getEntry(moduleKey, factory);
+  }
+
+  /** Returns true if the number of injectors or the heap they may use is limited */
+  public boolean isBounded() {
+    return maxInjectors > 0 || maxHeapPercent > 0;
+  }
+
+  /**
+   * Creates the injector for the given module key on the current thread if it has been registered
+   * via {@link #expect(Object, Class, Callable)} or {@link #register(Object, Callable)} and nobody
+   * has started to create it yet
+   *
+   * @return true if the injector was created
+   */
+  public boolean prefetch(Object moduleKey) {
+    CacheEntry entry = entries.get(moduleKey);
+    if (entry == null || !entry.started.compareAndSet(false, true)) {
+      return false;
+    }
+    entry.future.run();
+    try {
+      entry.future.get();
+    }
+    catch (Exception e) {
+      // lets leave the test which needs the injector to create it again and report the failure
+      entries.remove(moduleKey, entry);
+      return false;
+    }
+    prefetchCount.incrementAndGet();
+    evictIfNecessary(entry);
+    return true;
+  }
+
+  /** Registers that the given test class has completed so it no longer needs its injector */
+  public void complete(Object moduleKey, Class<?> testType) {
+    CacheEntry entry = entries.get(moduleKey);
+    if (entry != null) {
+      entry.runningClasses.remove(testType);
+      entry.expectedClasses.remove(testType);
+    }
+  }
+
+  /** Returns the injector for the given module key or null if it has not been created */
+  public Injector getIfPresent(Object moduleKey) {
+    CacheEntry entry = entries.get(moduleKey);
+    return entry == null ? null : getInjector(entry);
+  }
+
+  /** Closes and removes all of the cached injectors */
+  public synchronized void closeAll(CloseErrors errors) {
+    for (Map.Entry<Object, CacheEntry> mapEntry : entries.entrySet()) {
+      CacheEntry entry = mapEntry.getValue();
+      if (entries.remove(mapEntry.getKey(), entry)) {
+        close(entry, errors);
+      }
+    }
+  }
+
+  /** Returns the number of injectors currently cached */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Returns the number of times a cached injector was reused */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of injectors which had to be created by the test which needed them */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of injectors which were created ahead of time by {@link #prefetch} */
+  public long getPrefetchCount() {
+    return prefetchCount.get();
+  }
+
+  /** Returns the number of injectors which have been evicted to keep within the cache's limits */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public int getMaxInjectors() {
+    return maxInjectors;
+  }
+
+  public void setMaxInjectors(int maxInjectors) {
+    this.maxInjectors = maxInjectors;
+  }
+
+  public int getMaxHeapPercent() {
+    return maxHeapPercent;
+  }
+
+  public void setMaxHeapPercent(int maxHeapPercent) {
+    this.maxHeapPercent = maxHeapPercent;
+  }
+
+  @Override
+  public String toString() {
+    return "InjectorCache[size: " + size() + " created: " + getMissCount() + " prefetched: "
+        + getPrefetchCount() + " reused: " + getHitCount() + " evicted: " + getEvictionCount()
+        + "]";
+  }
+
+  protected CacheEntry getEntry(Object moduleKey, Callable<Injector> factory) {
+    CacheEntry entry = entries.get(moduleKey);
+    if (entry == null) {
+      CacheEntry newEntry = new CacheEntry(new FutureTask<Injector>(factory));
+      entry = entries.putIfAbsent(moduleKey, newEntry);
+      if (entry == null) {
+        entry = newEntry;
+      }
+    }
+    return entry;
+  }
+
+  /** Returns the injector of the given entry or null if it has not been created */
+  protected Injector getInjector(CacheEntry entry) {
+    if (!entry.future.isDone()) {
+      return null;
+    }
+    try {
+      return entry.future.get();
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Evicts the least recently used injectors while the cache is over its limits, never evicting
+   * the given entry which has just been created. Entries are only acquired while holding the same
+   * lock so an entry which is found to be evictable cannot be acquired before it is removed.
+   */
+  protected synchronized void evictIfNecessary(CacheEntry current) {
+    if (maxInjectors > 0) {
+      while (countCreated() > maxInjectors) {
+        if (!evictOne(current)) {
+          break;
+        }
+      }
+    }
+    if (maxHeapPercent > 0 && isOverHeapBudget()) {
+      // the used heap includes garbage so lets only evict a single injector at a time
+      evictOne(current);
+    }
+  }
+
+  protected boolean isOverHeapBudget() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    return used * 100 > runtime.maxMemory() * maxHeapPercent;
+  }
+
+  protected boolean evictOne(CacheEntry current) {
+    Object victimKey = null;
+    CacheEntry victim = null;
+    for (Map.Entry<Object, CacheEntry> mapEntry : entries.entrySet()) {
+      CacheEntry entry = mapEntry.getValue();
+      if (entry == current || !entry.isEvictable()) {
+        continue;
+      }
+      if (victim == null || entry.isPreferredVictimTo(victim)) {
+        victimKey = mapEntry.getKey();
+        victim = entry;
+      }
+    }
+    if (victim == null || !entries.remove(victimKey, victim)) {
+      return false;
+    }
+    evictionCount.incrementAndGet();
+    CloseErrors errors = new CloseErrorsImpl(this);
+    close(victim, errors);
+    try {
+      errors.throwIfNecessary();
+    }
+    catch (CloseFailedException e) {
+      System.out.println("Failed to close evicted injector for " + victimKey + ": " + e);
+    }
+    return true;
+  }
+
+  protected void close(CacheEntry entry, CloseErrors errors) {
+    if (entry.future.isDone()) {
+      try {
+        Injectors.close(entry.future.get(), errors);
+      }
+      catch (InterruptedException e) {
+        // the injector was already created
+      }
+      catch (ExecutionException e) {
+        // there is no injector to close
+      }
+      catch (CloseFailedException e) {
+        // the failures have already been added to the errors
+      }
+    }
+  }
+
+  private int countCreated() {
+    int answer = 0;
+    for (CacheEntry entry : entries.values()) {
+      if (entry.future.isDone()) {
+        answer++;
+      }
+    }
+    return answer;
+  }
+
+  /** The injector of a module type along with how it is being used */
+  protected static class CacheEntry {
+    final FutureTask<Injector> future;
+    final AtomicBoolean started = new AtomicBoolean();
+    final AtomicInteger activeCount = new AtomicInteger();
+    final ConcurrentMap<Class<?>, Boolean> runningClasses
+        = new ConcurrentHashMap<Class<?>, Boolean>();
+    final ConcurrentMap<Class<?>, Boolean> expectedClasses
+        = new ConcurrentHashMap<Class<?>, Boolean>();
+    volatile long lastUsed;
+
+    CacheEntry(FutureTask<Injector> future) {
+      this.future = future;
+    }
+
+    /**
+     * Only created injectors which are not in use, not used by running test classes and not needed
+     * by upcoming tests are evicted
+     */
+    boolean isEvictable() {
+      return future.isDone() && activeCount.get() <= 0 && runningClasses.isEmpty()
+          && expectedClasses.isEmpty();
+    }
+
+    /** The least recently used injector is evicted first */
+    boolean isPreferredVictimTo(CacheEntry that) {
+      return lastUsed < that.lastUsed;
+    }
+  }
+}
@@ -19,17 +19,36 @@
 package org.guiceyfruit.testing;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Binding;
+import com.google.inject.CreationException;
 import com.google.inject.Guice;
+import com.google.inject.ImplementedBy;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.ProvidedBy;
+import com.google.inject.internal.Lists;
 import com.google.inject.internal.Preconditions;
+import com.google.inject.internal.Sets;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.util.Modules;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Modifier;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jndi.internal.Classes;
 import org.guiceyfruit.support.CloseErrors;
 import org.guiceyfruit.support.CloseFailedException;
 import org.guiceyfruit.support.internal.CloseErrorsImpl;
@@ -37,20 +56,50 @@ import org.guiceyfruit.util.CloseableScope;
 
 /**
  * Used to manage the injectors for the various injection points
+ * <p/>
+ * An injector is shared by all of the test classes using the same module type. The manager is safe
+ * to use from test classes and test methods which are run concurrently; each test gets its own
+ * {@link TestScoped} objects and each test class its own {@link ClassScoped} objects.
+ * <p/>
+ * Test classes which use {@link OverrideModule} have their overriding modules installed in a child
+ * injector of the shared injector which is created for each test and discarded afterwards where
+ * possible so that small variations of a module do not need a whole new injector.
  *
  * @version $Revision: 1.1 $
  */
 public class InjectorManager {
+  private static final Object DEFAULT_MODULE_KEY = new Object();
 
-  private Map<Object, Injector> injectors = new ConcurrentHashMap<Object, Injector>();
+  /**
+   * The system property used to enable the {@link InjectionReport} by configuring the directory
+   * it is written to, such as the surefire reports directory
+   */
+  public static final String REPORT_DIR = "org.guiceyfruit.testing.reportDir";
+
+  /**
+   * The system property used to enable the creation of injectors ahead of time by setting it to
+   * <tt>true</tt>
+   */
+  public static final String PREFETCH_ENABLED = "org.guiceyfruit.testing.prefetch";
+
+  /** The system property used to configure the number of threads used to prefetch injectors */
+  public static final String PREFETCH_THREADS = "org.guiceyfruit.testing.prefetchThreads";
+
+  private InjectorCache injectorCache = new InjectorCache();
+  private InjectionReport report = new InjectionReport();
+  private ConcurrentMap<Class<?>, Boolean> prefetchedTypes
+      = new ConcurrentHashMap<Class<?>, Boolean>();
+  private ExecutorService prefetchExecutor;
+  private ConcurrentMap<Class<?>, Object> moduleKeys = new ConcurrentHashMap<Class<?>, Object>();
+  private ConcurrentMap<Class<?>, List<Class<? extends Module>>> childModuleTypes
+      = new ConcurrentHashMap<Class<?>, List<Class<? extends Module>>>();
   private AtomicInteger initializeCounter = new AtomicInteger(0);
   private CloseableScope testScope = new CloseableScope(TestScoped.class);
   private CloseableScope classScope = new CloseableScope(ClassScoped.class);
   private static final String NESTED_MODULE_CLASS = "TestModule";
+  private static final String NESTED_OVERRIDE_MODULE_CLASS = "OverrideModule";
   private boolean closeSingletonsAfterClasses = false;
   private boolean runFinalizer = true;
-  private Injector lastClassInjector;
-  private Class<? extends Module> moduleType;
 
   public void beforeClasses() {
     int counter = initializeCounter.incrementAndGet();
@@ -63,6 +112,10 @@ public class InjectorManager {
           @Override
           public void run() {
             try {
+              if (injectorCache.getEvictionCount() > 0) {
+                System.out.println("Guice injectors used by tests: " + injectorCache);
+              }
+              writeReport();
               closeSingletons();
             }
             catch (Throwable e) {
@@ -76,52 +129,97 @@ public class InjectorManager {
 
   }
 
-  /** Lets close all of the injectors we have created so far */
+  /**
+   * Closes the class scope of every test class which has been run so far. When test classes are
+   * run concurrently use {@link #afterClasses(Class)} so that only the class scope of the completed
+   * test class is closed.
+   */
   public void afterClasses() throws CloseFailedException {
-    Injector injector = injectors.get(moduleType);
-    if (injector != null) {
-      classScope.close(injector);
-    }
-    else {
-      System.out.println("Could not close Class scope as there is no Injector for module type " + injector);
+    for (Class<?> testType : moduleKeys.keySet()) {
+      closeClassScope(testType);
+      injectorCache.complete(moduleKeys.get(testType), testType);
     }
+    afterAllClasses();
+  }
 
-    // NOTE that we don't have any good hooks yet to call complete()
-    // when the JVM is completed to ensure real singletons shut down correctly
-    //
-    if (isCloseSingletonsAfterClasses()) {
-      closeInjectors();
+  /** Closes the class scope of the given test class */
+  public void afterClasses(Class<?> testType) throws CloseFailedException {
+    closeClassScope(testType);
+    Object moduleKey = moduleKeys.get(testType);
+    if (moduleKey != null) {
+      injectorCache.complete(moduleKey, testType);
     }
+    afterAllClasses();
   }
 
   public void beforeTest(Object test) throws Exception {
     Preconditions.checkNotNull(test, "test");
 
     Class<? extends Object> testType = test.getClass();
-    moduleType = getModuleForTestClass(testType);
+    long start = System.nanoTime();
+    Object moduleKey = getModuleKey(testType);
+    Injector classInjector = getInjector(moduleKey, testType);
+    long injectorCreated = System.nanoTime();
 
-    Injector classInjector;
-    synchronized (injectors) {
-      classInjector = injectors.get(moduleType);
-      if (classInjector == null) {
-        classInjector = createInjector(moduleType);
-        Preconditions.checkNotNull(classInjector, "classInjector");
-        injectors.put(moduleType, classInjector);
+    // entering the test scope marks that afterTest() needs to release the injector, which is
+    // released using the key it was acquired with as the test class may switch to another key
+    TestContext context = new TestContext(test);
+    context.moduleKey = moduleKey;
+    context.classInjector = classInjector;
+    classScope.enter(testType);
+    testScope.enter(context);
+    Injector injector = classInjector;
+    List<Class<? extends Module>> overrideTypes = moduleKey instanceof OverrideKey ? null
+        : childModuleTypes.get(testType);
+    if (overrideTypes != null) {
+      try {
+        context.childInjector = createChildInjector(classInjector, overrideTypes);
+      }
+      catch (CreationException e) {
+        // the overrides clash with bindings of the shared injector so lets use an injector
+        // created from the module overridden by them instead
+        testScope.exit();
+        classScope.exit();
+        injectorCache.release(moduleKey, classInjector);
+        useOverriddenInjector(testType, overrideTypes);
+        beforeTest(test);
+        return;
       }
+      injector = context.childInjector;
     }
-    injectors.put(testType, classInjector);
+    injector.injectMembers(test);
 
-    classInjector.injectMembers(test);
+    String moduleName = getModuleName(moduleKey);
+    report.getModule(moduleName).injectorAcquired();
+    report.getTestClass(testType, moduleName)
+        .testInjected(injectorCreated - start, System.nanoTime() - injectorCreated);
   }
 
   public void afterTest(Object test) throws Exception {
-    Injector injector = injectors.get(test.getClass());
-    if (injector == null) {
-      System.out.println("Warning - no injector available for: " + test);
+    Class<? extends Object> testType = test.getClass();
+    try {
+      TestContext context = (TestContext) testScope.getCurrentContext();
+      if (context == null) {
+        System.out.println("Warning - no injector available for: " + test);
+      }
+      else {
+        long start = System.nanoTime();
+        if (context.childInjector == null) {
+          testScope.close(context.classInjector);
+        }
+        else {
+          closeChildInjector(context.childInjector);
+        }
+        report.getTestClass(testType, getModuleName(context.moduleKey))
+            .testScopeClosed(System.nanoTime() - start);
+      }
     }
-    else {
-      lastClassInjector = injector;
-      testScope.close(injector);
+    finally {
+      TestContext context = (TestContext) testScope.exit();
+      if (context != null) {
+        injectorCache.release(context.moduleKey, context.classInjector);
+      }
+      classScope.exit();
     }
   }
 
@@ -129,6 +227,12 @@ public class InjectorManager {
    * Closes down any JVM level singletons used in this testing JVM
    */
   public void closeSingletons() throws CloseFailedException {
+    synchronized (this) {
+      if (prefetchExecutor != null) {
+        prefetchExecutor.shutdownNow();
+        prefetchExecutor = null;
+      }
+    }
     closeInjectors();
   }
 
@@ -148,18 +252,342 @@ public class InjectorManager {
     }
   }
 
-  protected void closeInjectors() throws CloseFailedException {
+  /**
+   * Returns the injector for the given module key of a test class, creating it if this is the
+   * first test class to use its module type or if it has been evicted from the
+   * {@link InjectorCache}. Test classes using different modules can create their injectors
+   * concurrently. The injector is in use until {@link #afterTest(Object)} is called.
+   */
+  protected Injector getInjector(Object moduleKey, Class<?> testType) throws Exception {
+    return injectorCache.acquire(moduleKey, testType, createInjectorFactory(moduleKey));
+  }
+
+  /** Returns the injector for the given test class or null if it has not been created */
+  protected Injector getInjectorIfPresent(Class<?> testType) {
+    Object moduleKey = moduleKeys.get(testType);
+    if (moduleKey == null) {
+      return null;
+    }
+    return injectorCache.getIfPresent(moduleKey);
+  }
+
+  /**
+   * Registers that the given test class will be run so that the injector for its module type is
+   * not evicted from the cache before it is used
+   */
+  public void expectTestClass(Class<?> testType) throws Exception {
+    Object moduleKey = getModuleKey(testType);
+    injectorCache.expect(moduleKey, testType, createInjectorFactory(moduleKey));
+  }
+
+  protected Callable<Injector> createInjectorFactory(Object moduleKey) {
+    Object baseKey = moduleKey;
+    final List<Class<? extends Module>> overrideTypes;
+    if (moduleKey instanceof OverrideKey) {
+      OverrideKey overrideKey = (OverrideKey) moduleKey;
+      baseKey = overrideKey.moduleKey;
+      overrideTypes = overrideKey.overrideTypes;
+    }
+    else {
+      overrideTypes = Collections.emptyList();
+    }
+    final Class<? extends Module> moduleType = baseKey == DEFAULT_MODULE_KEY ? null
+        : (Class<? extends Module>) baseKey;
+    final String moduleName = getModuleName(moduleKey);
+    return new Callable<Injector>() {
+      public Injector call() throws Exception {
+        long start = System.nanoTime();
+        Injector injector = overrideTypes.isEmpty() ? createInjector(moduleType)
+            : createInjector(moduleType, overrideTypes);
+        Preconditions.checkNotNull(injector, "classInjector");
+        report.getModule(moduleName).injectorCreated(System.nanoTime() - start);
+        return injector;
+      }
+    };
+  }
+
+  /** Returns the name of the module type used in the {@link InjectionReport} */
+  protected String getModuleName(Object moduleKey) {
+    if (moduleKey == null || moduleKey == DEFAULT_MODULE_KEY) {
+      return Injectors.MODULE_CLASS_NAMES + "=" + System.getProperty(Injectors.MODULE_CLASS_NAMES);
+    }
+    if (moduleKey instanceof OverrideKey) {
+      OverrideKey overrideKey = (OverrideKey) moduleKey;
+      StringBuilder buffer = new StringBuilder(getModuleName(overrideKey.moduleKey));
+      for (Class<? extends Module> overrideType : overrideKey.overrideTypes) {
+        buffer.append(" overridden by ").append(overrideType.getName());
+      }
+      return buffer.toString();
+    }
+    return ((Class<?>) moduleKey).getName();
+  }
+
+  /** Returns the timings of the injection performed for the tests */
+  public InjectionReport getReport() {
+    return report;
+  }
+
+  /**
+   * Writes the {@link InjectionReport} to the directory given by the {@link #REPORT_DIR} system
+   * property; no report is written unless the property is set
+   */
+  public void writeReport() throws IOException {
+    if (report.isEmpty()) {
+      return;
+    }
+    String dirName = System.getProperty(REPORT_DIR);
+    if (dirName == null || dirName.trim().length() == 0) {
+      return;
+    }
+    report.write(new File(dirName.trim()));
+  }
+
+  /**
+   * Creates the injectors needed by the given test classes ahead of time on a pool of background
+   * threads so that creating the injectors overlaps with running the tests. The injectors are kept
+   * in the cache until the test classes have been run unless the cache is bounded, in which case
+   * prefetched injectors may be evicted like any other so that prefetching cannot defeat the bound.
+   * <p/>
+   * Test runners only prefetch the injectors of upcoming test classes automatically if
+   * {@link #isPrefetchEnabled()} is true.
+   */
+  public void prefetch(Class<?>... testTypes) {
+    for (Class<?> testType : testTypes) {
+      if (prefetchedTypes.putIfAbsent(testType, Boolean.TRUE) != null) {
+        continue;
+      }
+      final Object moduleKey;
+      try {
+        moduleKey = getModuleKey(testType);
+        if (injectorCache.isBounded()) {
+          injectorCache.register(moduleKey, createInjectorFactory(moduleKey));
+        }
+        else {
+          injectorCache.expect(moduleKey, testType, createInjectorFactory(moduleKey));
+        }
+      }
+      catch (Exception e) {
+        // lets report the failure when the test class is run
+        continue;
+      }
+      getPrefetchExecutor().execute(new Runnable() {
+        public void run() {
+          injectorCache.prefetch(moduleKey);
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns true if prefetching has been enabled by setting the {@link #PREFETCH_ENABLED} system
+   * property to <tt>true</tt>
+   */
+  public boolean isPrefetchEnabled() {
+    String value = System.getProperty(PREFETCH_ENABLED);
+    return value != null && "true".equalsIgnoreCase(value.trim());
+  }
+
+  protected synchronized ExecutorService getPrefetchExecutor() {
+    if (prefetchExecutor == null) {
+      int threads = Integer.getInteger(PREFETCH_THREADS,
+          Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+      prefetchExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable,
+              "GuiceyFruit injector prefetch " + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return prefetchExecutor;
+  }
+
+  public InjectorCache getInjectorCache() {
+    return injectorCache;
+  }
+
+  /**
+   * Returns the key of the module type used by the given test class which is cached so that the
+   * module type is only looked up once for each test class.
+   * <p/>
+   * If the test class has overriding modules which do not replace any of the explicit bindings of
+   * its module, nor bind keys which could be bound just in time, the key of its module is used and
+   * the overriding modules are installed in a child injector for each test; otherwise, or if the
+   * child injector cannot be created, the key is the combination of the module and its overriding
+   * modules.
+   */
+  protected Object getModuleKey(Class<?> testType) throws Exception {
+    Object answer = moduleKeys.get(testType);
+    if (answer == null) {
+      Class<? extends Module> moduleType = getModuleForTestClass(testType);
+      answer = moduleType == null ? DEFAULT_MODULE_KEY : moduleType;
+      List<Class<? extends Module>> overrideTypes = getOverrideModulesForTestClass(testType);
+      if (!overrideTypes.isEmpty()) {
+        if (moduleType != null && !isOverridingBindings(moduleType, overrideTypes)) {
+          childModuleTypes.put(testType, overrideTypes);
+        }
+        else {
+          answer = new OverrideKey(answer, overrideTypes);
+        }
+      }
+      moduleKeys.put(testType, answer);
+    }
+    return answer;
+  }
+
+  /**
+   * Returns true if any of the overriding modules bind a key which the given module binds
+   * explicitly or which the injector could bind just in time, as a child injector cannot replace
+   * the bindings of its parent and stops its parent from creating just in time bindings for the
+   * keys it binds
+   */
+  protected boolean isOverridingBindings(Class<? extends Module> moduleType,
+      List<Class<? extends Module>> overrideTypes)
+      throws InstantiationException, IllegalAccessException {
+    Set<Key<?>> keys = getBindingKeys(overrideTypes);
+    for (Key<?> key : keys) {
+      if (isJustInTimeBindable(key)) {
+        return true;
+      }
+    }
+    keys.retainAll(getBindingKeys(Collections.singletonList(moduleType)));
+    return !keys.isEmpty();
+  }
+
+  /**
+   * Returns true if an injector can create a binding for the given key when it is first used
+   * without the key being bound explicitly
+   */
+  protected boolean isJustInTimeBindable(Key<?> key) {
+    if (key.getAnnotationType() != null) {
+      return false;
+    }
+    Class<?> type = key.getTypeLiteral().getRawType();
+    if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      return type.isAnnotationPresent(ImplementedBy.class)
+          || type.isAnnotationPresent(ProvidedBy.class);
+    }
+    return true;
+  }
+
+  /**
+   * Uses an injector created from the module of the given test class overridden by the given
+   * module types rather than a child injector of the shared injector
+   */
+  private void useOverriddenInjector(Class<?> testType,
+      List<Class<? extends Module>> overrideTypes) {
+    Object moduleKey = moduleKeys.get(testType);
+    if (!(moduleKey instanceof OverrideKey)) {
+      moduleKeys.put(testType, new OverrideKey(moduleKey, overrideTypes));
+      injectorCache.complete(moduleKey, testType);
+    }
+  }
+
+  /**
+   * Creates the child injector of the shared injector which installs the overriding modules of a
+   * test class
+   *
+   * @throws CreationException if the overriding modules clash with the shared injector
+   */
+  protected Injector createChildInjector(Injector classInjector,
+      List<Class<? extends Module>> overrideTypes)
+      throws InstantiationException, IllegalAccessException {
+    return classInjector.createChildInjector(newModules(overrideTypes));
+  }
+
+  private Set<Key<?>> getBindingKeys(List<Class<? extends Module>> moduleTypes)
+      throws InstantiationException, IllegalAccessException {
+    Set<Key<?>> answer = Sets.newHashSet();
+    for (Element element : Elements.getElements(newModules(moduleTypes))) {
+      if (element instanceof Binding) {
+        answer.add(((Binding<?>) element).getKey());
+      }
+    }
+    return answer;
+  }
+
+  private List<Module> newModules(List<Class<? extends Module>> moduleTypes)
+      throws InstantiationException, IllegalAccessException {
+    List<Module> answer = Lists.newArrayList();
+    for (Class<? extends Module> moduleType : moduleTypes) {
+      answer.add(moduleType.newInstance());
+    }
+    return answer;
+  }
+
+  /** Closes the test scoped and singleton objects of a child injector created for a test */
+  protected void closeChildInjector(Injector childInjector) throws CloseFailedException {
     CloseErrors errors = new CloseErrorsImpl(this);
-    Set<Entry<Object, Injector>> entries = injectors.entrySet();
-    for (Entry<Object, Injector> entry : entries) {
-      // Object key = entry.getKey();
-      Injector injector = entry.getValue();
-      Injectors.close(injector, errors);
+    try {
+      testScope.close(childInjector);
+    }
+    catch (CloseFailedException e) {
+      errors.closeError(TestScoped.class, childInjector, e);
+    }
+    try {
+      Injectors.close(childInjector, errors);
+    }
+    catch (CloseFailedException e) {
+      // the failures have already been added to the errors
     }
-    injectors.clear();
+    errors.throwIfNecessary();
+  }
+
+  protected void closeClassScope(Class<?> testType) throws CloseFailedException {
+    if (!classScope.getContexts().contains(testType)) {
+      return;
+    }
+    Injector injector = getInjectorIfPresent(testType);
+    if (injector != null) {
+      long start = System.nanoTime();
+      classScope.close(injector, testType);
+      report.getTestClass(testType, getModuleName(moduleKeys.get(testType)))
+          .classScopeClosed(System.nanoTime() - start);
+    }
+    else {
+      System.out.println("Could not close Class scope as there is no Injector for test type "
+          + testType.getName());
+    }
+  }
+
+  protected void afterAllClasses() throws CloseFailedException {
+    // NOTE that we don't have any good hooks yet to call complete()
+    // when the JVM is completed to ensure real singletons shut down correctly
+    //
+    if (isCloseSingletonsAfterClasses()) {
+      closeInjectors();
+    }
+  }
+
+  protected void closeInjectors() throws CloseFailedException {
+    CloseErrors errors = new CloseErrorsImpl(this);
+    injectorCache.closeAll(errors);
     errors.throwIfNecessary();
   }
 
+  /**
+   * The test scope context of a test instance; a new context is used for each test method as some
+   * frameworks reuse the test instance for each method
+   */
+  private static final class TestContext {
+    private final Object test;
+    private Object moduleKey;
+    private Injector classInjector;
+    private Injector childInjector;
+
+    TestContext(Object test) {
+      this.test = test;
+    }
+
+    @Override
+    public String toString() {
+      return "TestContext[" + test + "]";
+    }
+  }
+
   /**
    * Factory method to return the module type that will be used to create an injector.
    *
@@ -188,22 +616,12 @@ public class InjectorManager {
       moduleType = config.value();
     }
     else {
-      String name = objectType.getName() + "$" + NESTED_MODULE_CLASS;
-      Class<?> type;
-      try {
-        type = objectType.getClassLoader().loadClass(name);
-      }
-      catch (ClassNotFoundException e) {
-        try {
-          type = Thread.currentThread().getContextClassLoader().loadClass(name);
-        }
-        catch (ClassNotFoundException e2) {
-          throw new ClassNotFoundException("Class " + objectType.getName()
-              + " does not have a @UseModule annotation nor does it have a nested class called "
-              + NESTED_MODULE_CLASS
-              + " available on the classpath. Please see: http://code.google.com/p/guiceyfruit/wiki/Testing"
-              + e, e);
-        }
+      Class<?> type = findNestedClass(objectType, NESTED_MODULE_CLASS);
+      if (type == null) {
+        throw new ClassNotFoundException("Class " + objectType.getName()
+            + " does not have a @UseModule annotation nor does it have a nested class called "
+            + NESTED_MODULE_CLASS
+            + " available on the classpath. Please see: http://code.google.com/p/guiceyfruit/wiki/Testing");
       }
       try {
         moduleType = (Class<? extends Module>) type;
@@ -213,6 +631,62 @@ public class InjectorManager {
             e);
       }
     }
+    checkModuleType(moduleType);
+    return moduleType;
+  }
+
+  /**
+   * Factory method to return the module types whose bindings override the bindings of the module
+   * type used by the given test class, which are defined by the {@link OverrideModule} annotation
+   * or the inner public static class "OverrideModule". Returns an empty list if there are no
+   * overriding modules.
+   *
+   * @see org.guiceyfruit.testing.OverrideModule
+   * @see #NESTED_OVERRIDE_MODULE_CLASS
+   */
+  protected List<Class<? extends Module>> getOverrideModulesForTestClass(Class<?> objectType) {
+    List<Class<? extends Module>> answer;
+    OverrideModule config = objectType.getAnnotation(OverrideModule.class);
+    if (config != null) {
+      answer = Arrays.asList(config.value());
+    }
+    else {
+      Class<?> type = findNestedClass(objectType, NESTED_OVERRIDE_MODULE_CLASS);
+      if (type == null) {
+        return Collections.emptyList();
+      }
+      if (!Module.class.isAssignableFrom(type)) {
+        throw new IllegalArgumentException("Class " + type.getName() + " is not a Guice Module!");
+      }
+      answer = Collections.<Class<? extends Module>>singletonList(type.asSubclass(Module.class));
+    }
+    for (Class<? extends Module> moduleType : answer) {
+      checkModuleType(moduleType);
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the nested class of the given test class with the given name or null if there is no
+   * such class
+   */
+  protected Class<?> findNestedClass(Class<?> objectType, String nestedName) {
+    String name = objectType.getName() + "$" + nestedName;
+    Class<?> type = null;
+    ClassLoader classLoader = objectType.getClassLoader();
+    if (classLoader != null) {
+      type = Classes.findClassInLoader(name, classLoader);
+    }
+    if (type == null) {
+      ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      if (contextClassLoader != null) {
+        type = Classes.findClassInLoader(name, contextClassLoader);
+      }
+    }
+    return type;
+  }
+
+  private void checkModuleType(Class<? extends Module> moduleType) {
     int modifiers = moduleType.getModifiers();
     if (Modifier.isAbstract(modifiers) || !Modifier.isPublic(modifiers)) {
       throw new IllegalArgumentException(
@@ -225,7 +699,6 @@ public class InjectorManager {
       throw new IllegalArgumentException(
           "Class " + moduleType.getName() + " must have a zero argument constructor", e);
     }
-    return moduleType;
   }
 
   /**
@@ -240,4 +713,53 @@ public class InjectorManager {
     Module module = moduleType.newInstance();
     return Guice.createInjector(module, new TestModule());
   }
+
+  /**
+   * Creates the injector for the given key whose bindings are overridden by the given module types
+   */
+  protected Injector createInjector(Class<? extends Module> moduleType,
+      List<Class<? extends Module>> overrideTypes)
+      throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+    List<Module> overrides = newModules(overrideTypes);
+    if (moduleType == null) {
+      overrides.add(new TestModule());
+      return Injectors.createInjector(System.getProperties(),
+          overrides.toArray(new Module[overrides.size()]));
+    }
+    Module module = Modules.override(moduleType.newInstance()).with(overrides);
+    return Guice.createInjector(module, new TestModule());
+  }
+
+  /**
+   * The key of the injector shared by the test classes using the same module type and overriding
+   * module types when the overriding modules cannot be installed in a child injector
+   */
+  private static final class OverrideKey {
+    private final Object moduleKey;
+    private final List<Class<? extends Module>> overrideTypes;
+
+    OverrideKey(Object moduleKey, List<Class<? extends Module>> overrideTypes) {
+      this.moduleKey = moduleKey;
+      this.overrideTypes = overrideTypes;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (object instanceof OverrideKey) {
+        OverrideKey that = (OverrideKey) object;
+        return moduleKey.equals(that.moduleKey) && overrideTypes.equals(that.overrideTypes);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return moduleKey.hashCode() * 31 + overrideTypes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "OverrideKey[" + moduleKey + " overridden by " + overrideTypes + "]";
+    }
+  }
 }
@@ -0,0 +1,48 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.Module;
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.TYPE;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies the Guice Modules whose bindings replace or add to the bindings of the test case's
+ * module when using <a href="http://code.google.com/p/guiceyfruit/wiki/Testing">Guicey
+ * Testing</a>. Alternatively a test case can define a nested public static class called
+ * "OverrideModule".
+ * <p/>
+ * If the overriding modules only add bindings or replace bindings which the test case's module
+ * does not bind explicitly, they are installed in a child injector of the shared injector for the
+ * module which is created for each test and discarded afterwards, so that the singletons of the
+ * shared injector are reused. Otherwise a separate injector is created using {@link
+ * com.google.inject.util.Modules#override(Module[])} which is shared by all the test cases using
+ * the same combination of modules.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Target({ TYPE })
+@Retention(RUNTIME)
+@Documented
+public @interface OverrideModule {
+  Class<? extends Module>[] value();
+}
@@ -23,13 +23,24 @@ import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provider;
 import com.google.inject.Scope;
+import com.google.inject.internal.Lists;
 import com.google.inject.internal.Maps;
 import com.google.inject.internal.Preconditions;
 import com.google.inject.spi.CachingProvider;
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.guiceyfruit.Injectors;
 import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.Closers;
+import org.guiceyfruit.support.CompositeCloser;
 import org.guiceyfruit.support.HasScopeAnnotation;
 import org.guiceyfruit.support.internal.CloseErrorsImpl;
 
@@ -39,12 +50,23 @@ import org.guiceyfruit.support.internal.CloseErrorsImpl;
  * The scope can be closed as many times as required - there is no need to recreate the scope
  * instance each time a scope goes out of scope.
  *
+ * A thread can {@link #enter(Object)} a context so that the objects it creates in this scope are
+ * isolated from those of other contexts; this allows each concurrently running test to have its
+ * own scoped objects. The context is not inherited by threads the test creates, such as pooled
+ * executor threads which outlive it; they must enter the context themselves to share its objects.
+ * Threads which have not entered a context share a default context.
+ *
  * @version $Revision: 1.1 $
  */
 public class CloseableScope implements Scope, HasScopeAnnotation {
 
   private Class<? extends Annotation> scopeAnnotation;
-  private final Map<Key<?>, Object> map = Maps.newHashMap();
+  private final Map<Key<?>, Object> map = Maps.newLinkedHashMap();
+  private final ConcurrentMap<Object, Map<Key<?>, Object>> contexts
+      = new ConcurrentHashMap<Object, Map<Key<?>, Object>>();
+  private final ThreadLocal<Object> currentContext = new ThreadLocal<Object>();
+  private final Map<Injector, Reference<Closer[]>> closers
+      = new WeakHashMap<Injector, Reference<Closer[]>>();
 
   @Inject
   private Injector injector;
@@ -57,25 +79,53 @@ public class CloseableScope implements Scope, HasScopeAnnotation {
   public <T> Provider<T> scope(final Key<T> key, final Provider<T> creator) {
     return new CachingProvider<T>() {
       public T get() {
+        Map<Key<?>, Object> values = getValues();
         Object o;
-        synchronized (map) {
-          o = map.get(key);
+        synchronized (values) {
+          o = values.get(key);
           if (o == null) {
             o = creator.get();
-            map.put(key, o);
+            values.put(key, o);
           }
         }
         return (T) o;
       }
 
       public T getCachedValue() {
-        synchronized (map) {
-          return (T) map.get(key);
+        Map<Key<?>, Object> values = getValues();
+        synchronized (values) {
+          return (T) values.get(key);
         }
       }
     };
   }
 
+  /**
+   * Associates the current thread with the given context so that objects created in this scope
+   * are only shared with other threads using the same context until {@link #exit()} is called
+   *
+   * @param context the context such as a test class or test instance
+   */
+  public void enter(Object context) {
+    Preconditions.checkNotNull(context, "context");
+    currentContext.set(context);
+  }
+
+  /**
+   * Removes the association of the current thread with its context so that it uses the default
+   * context, returning the previous context or null if there was none
+   */
+  public Object exit() {
+    Object answer = currentContext.get();
+    currentContext.remove();
+    return answer;
+  }
+
+  /** Returns the context the current thread is associated with or null for the default context */
+  public Object getCurrentContext() {
+    return currentContext.get();
+  }
+
   /**
    * Closes all of the objects within this scope using the given injector and scope annotation
    * and clears the scope
@@ -85,22 +135,104 @@ public class CloseableScope implements Scope, HasScopeAnnotation {
   }
 
   /**
-   * Closes all of the objects within the given injector of the specified scope
-   * and clears the scope
+   * Closes all of the objects created in this scope, in the reverse order of their creation, using
+   * the {@link Closer} implementations registered in the given injector and clears the scope.
+   * Only the objects created by this scope are visited so closing a scope which created no objects
+   * costs almost nothing.
    */
   public void close(Injector injector) throws
       CloseFailedException {
     Preconditions.checkNotNull(injector, "injector");
-    CloseErrorsImpl errors = new CloseErrorsImpl(this);
-    Injectors.close(injector, scopeAnnotation, errors);
+    Map<Key<?>, Object> values = getValues();
+    List<Map.Entry<Key<?>, Object>> created;
+    synchronized (values) {
+      created = values.isEmpty() ? null : Lists.newArrayList(values.entrySet());
+      values.clear();
+    }
+    Object context = currentContext.get();
+    if (context != null) {
+      contexts.remove(context);
+    }
+    if (created == null) {
+      return;
+    }
 
-    synchronized (map) {
-      map.clear();
+    Closer closer = getCloser(injector);
+    if (closer == null) {
+      return;
+    }
+    CloseErrorsImpl errors = new CloseErrorsImpl(this);
+    for (int i = created.size() - 1; i >= 0; i--) {
+      Map.Entry<Key<?>, Object> entry = created.get(i);
+      Closers.close(entry.getKey(), entry.getValue(), closer, errors);
     }
     errors.throwIfNecessary();
   }
 
+  /**
+   * Closes all of the objects created in the given context using the given injector and discards
+   * the context
+   */
+  public void close(Injector injector, Object context) throws CloseFailedException {
+    Preconditions.checkNotNull(context, "context");
+    Object previous = currentContext.get();
+    currentContext.set(context);
+    try {
+      close(injector);
+    }
+    finally {
+      if (previous == null) {
+        currentContext.remove();
+      }
+      else {
+        currentContext.set(previous);
+      }
+    }
+  }
+
+  /** Returns the contexts which currently have objects in this scope */
+  public Set<Object> getContexts() {
+    return contexts.keySet();
+  }
+
   public Class<? extends Annotation> getScopeAnnotation() {
     return scopeAnnotation;
   }
+
+  /**
+   * Returns the closer made up of all of the {@link Closer} implementations bound in the given
+   * injector or null if there are none, which is only looked up once for each injector
+   */
+  protected Closer getCloser(Injector injector) {
+    synchronized (closers) {
+      Reference<Closer[]> reference = closers.get(injector);
+      Closer[] cached = reference == null ? null : reference.get();
+      if (cached != null) {
+        return cached[0];
+      }
+    }
+    Set<Closer> set = Injectors.getClosers(injector);
+    Closer answer = CompositeCloser.newInstance(set);
+    synchronized (closers) {
+      // the closers may refer to the injector so lets softly reference them to avoid a leak
+      closers.put(injector, new SoftReference<Closer[]>(new Closer[]{answer}));
+    }
+    return answer;
+  }
+
+  protected Map<Key<?>, Object> getValues() {
+    Object context = currentContext.get();
+    if (context == null) {
+      return map;
+    }
+    Map<Key<?>, Object> answer = contexts.get(context);
+    if (answer == null) {
+      Map<Key<?>, Object> newValues = Maps.newLinkedHashMap();
+      answer = contexts.putIfAbsent(context, newValues);
+      if (answer == null) {
+        answer = newValues;
+      }
+    }
+    return answer;
+  }
 }
@@ -0,0 +1,401 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.internal.cglib.proxy.MethodInterceptor;
+import com.google.inject.internal.cglib.proxy.MethodProxy;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.Closers;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+import org.guiceyfruit.support.internal.ProxyFactory;
+
+/**
+ * A bounded pool of the instances of a binding in the {@link PooledScope} along with a thread safe
+ * proxy which borrows an instance for each method call and returns it afterwards.
+ * <p/>
+ * The number of borrowed instances is bounded by a semaphore so that only the short updates of the
+ * idle instances take a lock unless the pool is exhausted. The most recently returned idle instance
+ * is borrowed first so that when the pool is used less than it was the instances which are no
+ * longer needed stay idle. Idle instances above the minimum are closed using the {@link
+ * org.guiceyfruit.support.Closer} implementations of the injector once they have been idle for
+ * longer than the idle timeout, either when an instance is returned or when the {@link PooledScope}
+ * periodically evicts them.
+ * <p/>
+ * An instance borrowed while the same thread already has an instance of the pool borrowed, such as
+ * when a pooled object calls its own proxy, does not wait for the bound on the number of borrowed
+ * instances, as the thread could otherwise wait forever for an instance which only it can return.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class InstancePool<T> {
+  private static final ProxyFactory proxyFactory = new ProxyFactory("pooled");
+
+  private final Key<T> key;
+  private final Provider<T> creator;
+  private final PooledScope scope;
+  private final int min;
+  private final int max;
+  private final long idleTimeout;
+  private final Semaphore permits;
+  // the most recently returned instance is last and the one idle for the longest is first
+  private final LinkedList<IdleInstance<T>> idleInstances = new LinkedList<IdleInstance<T>>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger activeCount = new AtomicInteger();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong borrowedCount = new AtomicLong();
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong closedCount = new AtomicLong();
+  private final AtomicBoolean filled = new AtomicBoolean();
+  private final ThreadLocal<int[]> borrowDepth = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+  private volatile boolean closed;
+  private volatile T proxy;
+
+  public InstancePool(Key<T> key, Provider<T> creator, PooledScope scope, int min, int max,
+      long idleTimeout) {
+    Preconditions.checkNotNull(key, "key");
+    Preconditions.checkNotNull(creator, "creator");
+    Preconditions.checkNotNull(scope, "scope");
+    Preconditions.checkArgument(max > 0, "max must be positive");
+    Preconditions.checkArgument(min >= 0 && min <= max, "min must be between 0 and max");
+    this.key = key;
+    this.creator = creator;
+    this.scope = scope;
+    this.min = min;
+    this.max = max;
+    this.idleTimeout = idleTimeout;
+    this.permits = new Semaphore(max);
+  }
+
+  /**
+   * Returns the thread safe proxy which borrows an instance from this pool for each method call
+   */
+  public T getProxy() {
+    T answer = proxy;
+    if (answer == null) {
+      synchronized (this) {
+        answer = proxy;
+        if (answer == null) {
+          answer = (T) proxyFactory.newProxy(key.getTypeLiteral().getRawType(),
+              new PoolInterceptor(this));
+          proxy = answer;
+        }
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Borrows an idle instance or creates a new one, waiting for an instance to be returned if the
+   * maximum number of instances are already borrowed, unless the current thread already has an
+   * instance borrowed. The instance must be returned to the pool by the same thread using {@link
+   * #release(Object)}.
+   */
+  public T borrow() {
+    if (closed) {
+      throw new ProvisionException("The pool of " + key + " has been closed");
+    }
+    int[] depth = borrowDepth.get();
+    boolean reentrant = depth[0] > 0;
+    if (!reentrant && !permits.tryAcquire()) {
+      waitCount.incrementAndGet();
+      permits.acquireUninterruptibly();
+    }
+    depth[0]++;
+    try {
+      if (min > 0 && filled.compareAndSet(false, true)) {
+        fill();
+      }
+      T answer;
+      IdleInstance<T> idle = null;
+      synchronized (idleInstances) {
+        if (!idleInstances.isEmpty()) {
+          idle = idleInstances.removeLast();
+          idleCount.decrementAndGet();
+        }
+      }
+      if (idle != null) {
+        answer = idle.instance;
+      }
+      else {
+        answer = create();
+      }
+      activeCount.incrementAndGet();
+      borrowedCount.incrementAndGet();
+      return answer;
+    }
+    catch (RuntimeException e) {
+      releaseBorrowDepth();
+      throw e;
+    }
+  }
+
+  /** Returns an instance borrowed by the current thread to the pool */
+  public void release(T instance) {
+    activeCount.decrementAndGet();
+    try {
+      if (closed) {
+        closeQuietly(Lists.newArrayList(instance));
+      }
+      else {
+        addIdle(instance);
+      }
+    }
+    finally {
+      releaseBorrowDepth();
+    }
+    if (idleCount.get() > min) {
+      List<T> expired = removeExpired(System.currentTimeMillis());
+      if (expired != null) {
+        // the method call which returned the instance should not fail if another can't be closed
+        closeQuietly(expired);
+      }
+    }
+  }
+
+  /**
+   * Closes the instances above the minimum which have been idle for longer than the idle timeout
+   *
+   * @return the number of instances which were closed
+   */
+  public int evictIdle() throws CloseFailedException {
+    List<T> expired = removeExpired(System.currentTimeMillis());
+    if (expired == null) {
+      return 0;
+    }
+    closeInstances(expired);
+    return expired.size();
+  }
+
+  /**
+   * Closes all of the idle instances; instances which are currently borrowed are closed when they
+   * are returned
+   */
+  public void close() throws CloseFailedException {
+    closed = true;
+    List<T> instances = Lists.newArrayList();
+    synchronized (idleInstances) {
+      for (IdleInstance<T> idle : idleInstances) {
+        instances.add(idle.instance);
+      }
+      idleInstances.clear();
+      idleCount.set(0);
+    }
+    closeInstances(instances);
+  }
+
+  public Key<T> getKey() {
+    return key;
+  }
+
+  public int getMin() {
+    return min;
+  }
+
+  public int getMax() {
+    return max;
+  }
+
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /** Returns the number of instances which are currently borrowed */
+  public int getActiveCount() {
+    return activeCount.get();
+  }
+
+  /** Returns the number of idle instances in the pool */
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+  /** Returns the number of instances which have been created */
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /** Returns the number of times an instance has been borrowed */
+  public long getBorrowedCount() {
+    return borrowedCount.get();
+  }
+
+  /** Returns the number of times a caller had to wait for an instance to be returned */
+  public long getWaitCount() {
+    return waitCount.get();
+  }
+
+  /** Returns the number of instances which have been closed */
+  public long getClosedCount() {
+    return closedCount.get();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public String toString() {
+    return "InstancePool[" + key + " active: " + getActiveCount() + " idle: " + getIdleCount()
+        + " created: " + getCreatedCount() + " borrowed: " + getBorrowedCount() + " waits: "
+        + getWaitCount() + " closed: " + getClosedCount() + "]";
+  }
+
+  protected T create() {
+    T answer = creator.get();
+    if (answer == null) {
+      throw new ProvisionException("The provider of pooled " + key + " returned null");
+    }
+    createdCount.incrementAndGet();
+    return answer;
+  }
+
+  /**
+   * Decrements the number of instances borrowed by the current thread, releasing the permit taken
+   * by its outermost borrow
+   */
+  private void releaseBorrowDepth() {
+    int[] depth = borrowDepth.get();
+    if (depth[0] > 1) {
+      depth[0]--;
+      return;
+    }
+    borrowDepth.remove();
+    permits.release();
+  }
+
+  /** Creates the minimum number of idle instances when the pool is first used */
+  protected void fill() {
+    for (int i = idleCount.get(); i < min; i++) {
+      addIdle(create());
+    }
+  }
+
+  private void addIdle(T instance) {
+    synchronized (idleInstances) {
+      idleInstances.addLast(new IdleInstance<T>(instance, System.currentTimeMillis()));
+      idleCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes the instances above the minimum which have expired from the front of the idle
+   * instances, which holds the instances which have been idle the longest, returning null if there
+   * are none
+   */
+  private List<T> removeExpired(long now) {
+    List<T> answer = null;
+    synchronized (idleInstances) {
+      while (idleInstances.size() > min) {
+        IdleInstance<T> idle = idleInstances.getFirst();
+        if (now - idle.idleSince < idleTimeout) {
+          break;
+        }
+        idleInstances.removeFirst();
+        idleCount.decrementAndGet();
+        if (answer == null) {
+          answer = Lists.newArrayList();
+        }
+        answer.add(idle.instance);
+      }
+    }
+    return answer;
+  }
+
+  /** Closes the instances using the {@link Closer} implementations of the injector */
+  protected void closeInstances(List<T> instances) throws CloseFailedException {
+    Closer closer = scope.getCloser();
+    CloseErrorsImpl errors = new CloseErrorsImpl(this);
+    for (T instance : instances) {
+      if (closer != null) {
+        Closers.close(key, instance, closer, errors);
+      }
+      closedCount.incrementAndGet();
+    }
+    errors.throwIfNecessary();
+  }
+
+  private void closeQuietly(List<T> instances) {
+    try {
+      closeInstances(instances);
+    }
+    catch (CloseFailedException e) {
+      // ignore
+    }
+  }
+
+  /** An idle instance and the time it was returned to the pool */
+  private static class IdleInstance<T> {
+    private final T instance;
+    private final long idleSince;
+
+    IdleInstance(T instance, long idleSince) {
+      this.instance = instance;
+      this.idleSince = idleSince;
+    }
+  }
+
+  /**
+   * Invokes each method of the proxy on an instance borrowed from the pool; the identity of the
+   * proxy is used for equals and hashCode as each call may use a different instance
+   */
+  private static class PoolInterceptor implements MethodInterceptor {
+    private final InstancePool pool;
+
+    PoolInterceptor(InstancePool pool) {
+      this.pool = pool;
+    }
+
+    public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy)
+        throws Throwable {
+      String name = method.getName();
+      int parameterCount = method.getParameterTypes().length;
+      if (name.equals("equals") && parameterCount == 1) {
+        return proxy == args[0];
+      }
+      if (name.equals("hashCode") && parameterCount == 0) {
+        return System.identityHashCode(proxy);
+      }
+      Object instance = pool.borrow();
+      try {
+        return methodProxy.invoke(instance, args);
+      }
+      finally {
+        pool.release(instance);
+      }
+    }
+  }
+}
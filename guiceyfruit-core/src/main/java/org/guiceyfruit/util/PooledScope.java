@@ -0,0 +1,222 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+import java.lang.annotation.Annotation;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.Pooled;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.CompositeCloser;
+import org.guiceyfruit.support.HasScopeAnnotation;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+/**
+ * The scope of the {@link Pooled} annotation which injects a thread safe proxy for each binding
+ * which borrows an instance from the binding's {@link InstancePool} for each method call.
+ * <p/>
+ * The minimum and maximum size of each pool and the idle timeout are taken from the {@link Pooled}
+ * annotation of the bound type, or its defaults. Idle instances are closed using the {@link
+ * Closer} implementations of the injector when they expire or when the scope is closed. Each pool
+ * whose instances can expire is checked for expired idle instances every idle timeout by a daemon
+ * thread of the scope, which is stopped when the scope is closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class PooledScope implements Scope, HasScopeAnnotation {
+  private static final Logger log = Logger.getLogger(PooledScope.class.getName());
+  private static final Pooled DEFAULT_POOLED = DefaultPooled.class.getAnnotation(Pooled.class);
+
+  private final ConcurrentMap<Key<?>, InstancePool<?>> pools
+      = new ConcurrentHashMap<Key<?>, InstancePool<?>>();
+  private volatile Closer[] closer;
+  private ScheduledExecutorService evictor;
+  private boolean closed;
+
+  @Inject
+  private Injector injector;
+
+  public <T> Provider<T> scope(Key<T> key, Provider<T> creator) {
+    return scope(key, creator, key.getTypeLiteral().getRawType());
+  }
+
+  /**
+   * Scopes the binding using a pool configured by the {@link Pooled} annotation of the given type,
+   * such as the implementation class of the binding, or using the default pool configuration
+   */
+  public <T> Provider<T> scope(Key<T> key, Provider<T> creator, Class<?> annotatedType) {
+    Pooled pooled = annotatedType.getAnnotation(Pooled.class);
+    if (pooled == null) {
+      pooled = DEFAULT_POOLED;
+    }
+    InstancePool<T> newPool = new InstancePool<T>(key, creator, this, pooled.min(), pooled.max(),
+        pooled.idleTimeout());
+    InstancePool<T> pool = (InstancePool<T>) pools.putIfAbsent(key, newPool);
+    if (pool == null) {
+      pool = newPool;
+      scheduleEviction(pool);
+    }
+    final InstancePool<T> answer = pool;
+    return new Provider<T>() {
+      public T get() {
+        return answer.getProxy();
+      }
+
+      @Override
+      public String toString() {
+        return answer.toString();
+      }
+    };
+  }
+
+  /** Returns the pool of the given key or null if the key is not in this scope */
+  public <T> InstancePool<T> getPool(Key<T> key) {
+    return (InstancePool<T>) pools.get(key);
+  }
+
+  /** Returns the pools of all of the bindings in this scope */
+  public Collection<InstancePool<?>> getPools() {
+    return pools.values();
+  }
+
+  /**
+   * Closes the expired idle instances of all of the pools
+   *
+   * @return the number of instances which were closed
+   */
+  public int evictIdle() throws CloseFailedException {
+    int answer = 0;
+    CloseErrors errors = new CloseErrorsImpl(this);
+    for (InstancePool<?> pool : pools.values()) {
+      try {
+        answer += pool.evictIdle();
+      }
+      catch (CloseFailedException e) {
+        errors.closeError(pool.getKey(), pool, e);
+      }
+    }
+    errors.throwIfNecessary();
+    return answer;
+  }
+
+  /**
+   * Closes the idle instances of all of the pools and stops the eviction thread; instances which
+   * are borrowed are closed when they are returned
+   */
+  @PreDestroy
+  public void close() throws CloseFailedException {
+    synchronized (this) {
+      closed = true;
+      if (evictor != null) {
+        evictor.shutdownNow();
+        evictor = null;
+      }
+    }
+    CloseErrors errors = new CloseErrorsImpl(this);
+    for (InstancePool<?> pool : pools.values()) {
+      try {
+        pool.close();
+      }
+      catch (CloseFailedException e) {
+        errors.closeError(pool.getKey(), pool, e);
+      }
+    }
+    errors.throwIfNecessary();
+  }
+
+  /**
+   * Schedules the eviction of the expired idle instances of the pool every idle timeout, starting
+   * the daemon eviction thread if required, unless the instances of the pool cannot expire
+   */
+  protected synchronized void scheduleEviction(final InstancePool<?> pool) {
+    long period = pool.getIdleTimeout();
+    if (closed || period <= 0 || pool.getMin() >= pool.getMax()) {
+      return;
+    }
+    if (evictor == null) {
+      evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "GuiceyFruit PooledScope Evictor");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        // lets keep evicting even if an instance could not be closed
+        try {
+          pool.evictIdle();
+        }
+        catch (CloseFailedException e) {
+          log.log(Level.WARNING, "Failed to close idle instances of " + pool.getKey(), e);
+        }
+        catch (RuntimeException e) {
+          log.log(Level.WARNING, "Failed to evict idle instances of " + pool.getKey(), e);
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  public Class<? extends Annotation> getScopeAnnotation() {
+    return Pooled.class;
+  }
+
+  /**
+   * Returns the closer made up of all of the {@link Closer} implementations bound in the injector
+   * or null if there are none, which is only looked up once
+   */
+  protected Closer getCloser() {
+    Closer[] cached = closer;
+    if (cached == null) {
+      if (injector == null) {
+        return null;
+      }
+      cached = new Closer[] { CompositeCloser.newInstance(Injectors.getClosers(injector)) };
+      closer = cached;
+    }
+    return cached[0];
+  }
+
+  @Override
+  public String toString() {
+    return "PooledScope" + pools.values();
+  }
+
+  /** Holds the default configuration of the pools */
+  @Pooled
+  private static class DefaultPooled {
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.Cleanable;
+import org.guiceyfruit.support.CleanupTracker;
+import org.guiceyfruit.support.CloseTask;
+import org.guiceyfruit.support.GuiceyFruitModule;
+
+/** @version $Revision: 1.1 $ */
+public class CleanupTrackingTest extends TestCase {
+  protected static final AtomicInteger released = new AtomicInteger();
+
+  protected Injector injector;
+  protected CleanupTracker tracker;
+
+  public void testUnreachableInstancesAreCleanedUp() throws Exception {
+    createUnscopedResources(10);
+    assertEquals("tracked", 10, tracker.getTrackedCount());
+    assertCleanedUp(10);
+  }
+
+  public void testScopedInstancesAreOnlyClosedOnce() throws Exception {
+    SingletonResource resource = injector.getInstance(SingletonResource.class);
+    assertEquals("tracked", 1, tracker.getTrackedCount());
+
+    Injectors.close(injector);
+    assertEquals("closed", 1, tracker.getClosedCount());
+    assertEquals("pending", 0, tracker.getPendingCount());
+    assertEquals("released", 1, released.get());
+
+    resource = null;
+    System.gc();
+    Thread.sleep(100);
+    assertEquals("released", 1, released.get());
+    assertEquals("cleaned", 0, tracker.getCleanedCount());
+  }
+
+  public void testCleanupContinuesAfterATaskThrowsAnError() throws Exception {
+    tracker.track(new Object(), new CloseTask() {
+      public Object getSource() {
+        return "broken";
+      }
+
+      public void perform() throws Exception {
+        throw new AssertionError("expected failure");
+      }
+    });
+    createUnscopedResources(10);
+    assertCleanedUp(10);
+  }
+
+  public void testCleanupThreadIsRestartedAfterBeingStopped() throws Exception {
+    CleanupTracker.stopCleanupThread();
+    createUnscopedResources(10);
+    assertCleanedUp(10);
+  }
+
+  protected void assertCleanedUp(int count) throws InterruptedException {
+    for (int i = 0; i < 100 && tracker.getPendingCount() > 0; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals("cleaned", count, tracker.getCleanedCount());
+    assertEquals("pending", 0, tracker.getPendingCount());
+    assertEquals("released", count, released.get());
+  }
+
+  protected void createUnscopedResources(int count) {
+    for (int i = 0; i < count; i++) {
+      UnscopedResource resource = injector.getInstance(UnscopedResource.class);
+      assertNotNull(resource);
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    released.set(0);
+    injector = Guice.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        super.configure();
+        bindCleanupTracking();
+      }
+    });
+    tracker = injector.getInstance(CleanupTracker.class);
+  }
+
+  protected static class ReleaseTask implements CloseTask {
+    public Object getSource() {
+      return "resource";
+    }
+
+    public void perform() throws Exception {
+      released.incrementAndGet();
+    }
+  }
+
+  public static class UnscopedResource implements Cleanable {
+    private final CloseTask task = new ReleaseTask();
+
+    public CloseTask getCleanupTask() {
+      return task;
+    }
+  }
+
+  @Singleton
+  public static class SingletonResource extends UnscopedResource {
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.GuiceyFruitModule;
+import org.guiceyfruit.support.LazyProxies;
+
+/** @version $Revision: 1.1 $ */
+public class LazyInjectionTest extends TestCase {
+  protected static final AtomicInteger created = new AtomicInteger();
+
+  protected Injector injector;
+
+  public void testLazyProxyCreatesObjectOnFirstUse() throws Exception {
+    Client client = injector.getInstance(Client.class);
+    assertNotNull(client.model);
+    assertNotNull(client.service);
+    assertEquals("created before use", 0, created.get());
+    assertFalse(LazyProxies.isInitialized(client.model));
+
+    assertEquals("predicted", client.model.predict("x"));
+    assertEquals("created on first use", 1, created.get());
+    assertTrue(LazyProxies.isInitialized(client.model));
+
+    assertEquals("predicted", client.model.predict("y"));
+    assertEquals("service", client.service.name());
+    assertEquals("created once", 2, created.get());
+
+    Client another = injector.getInstance(Client.class);
+    assertNotSame(client.model, another.model);
+    assertEquals("predicted", another.model.predict("z"));
+    assertEquals("singleton should be shared", 2, created.get());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    created.set(0);
+    injector = Guice.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        super.configure();
+        bindLazyInjection();
+
+        bind(Model.class).to(ExpensiveModel.class);
+        bind(NamedService.class, "slow").to(SlowService.class);
+      }
+    });
+  }
+
+  public static class Client {
+    @Lazy
+    Model model;
+
+    NamedService service;
+
+    @Lazy
+    public void setService(@Named("slow") NamedService service) {
+      this.service = service;
+    }
+  }
+
+  public interface Model {
+    String predict(String input);
+  }
+
+  @Singleton
+  public static class ExpensiveModel implements Model {
+    public ExpensiveModel() {
+      created.incrementAndGet();
+    }
+
+    public String predict(String input) {
+      return "predicted";
+    }
+  }
+
+  public static class NamedService {
+    public String name() {
+      return "named";
+    }
+  }
+
+  public static class SlowService extends NamedService {
+    public SlowService() {
+      created.incrementAndGet();
+    }
+
+    @Override
+    public String name() {
+      return "service";
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.example;
+
+import com.google.inject.Injector;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Properties;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import junit.framework.TestCase;
+import org.guiceyfruit.jndi.GuiceInitialContextFactory;
+
+/** @version $Revision: 1.1 $ */
+public class ContextCachingTest extends TestCase {
+  protected static final boolean verbose = false;
+  protected Hashtable environment;
+
+  public void testInjectorIsReusedForTheSameEnvironment() throws Exception {
+    InitialContext context1 = new InitialContext(environment);
+    InitialContext context2 = new InitialContext(new Hashtable(environment));
+
+    assertSame("Should reuse the injector", lookupInjector(context1), lookupInjector(context2));
+    assertEquals("cached environments", 1,
+        GuiceInitialContextFactory.getCachedEnvironmentCount());
+  }
+
+  public void testEvictCreatesNewInjector() throws Exception {
+    Injector injector = lookupInjector(new InitialContext(environment));
+
+    assertTrue("Should have evicted the environment",
+        GuiceInitialContextFactory.evict(environment));
+    assertEquals("cached environments", 0,
+        GuiceInitialContextFactory.getCachedEnvironmentCount());
+
+    Injector newInjector = lookupInjector(new InitialContext(environment));
+    assertNotSame("Should have created a new injector", injector, newInjector);
+  }
+
+  public void testCachingCanBeDisabled() throws Exception {
+    environment.put(GuiceInitialContextFactory.CACHE_ENABLED, "false");
+
+    Injector injector1 = lookupInjector(new InitialContext(environment));
+    Injector injector2 = lookupInjector(new InitialContext(environment));
+    assertNotSame("Should not reuse the injector", injector1, injector2);
+    assertEquals("cached environments", 0,
+        GuiceInitialContextFactory.getCachedEnvironmentCount());
+  }
+
+  public void testBindingsArePrivateToEachContext() throws Exception {
+    InitialContext context1 = new InitialContext(environment);
+    InitialContext context2 = new InitialContext(environment);
+
+    context1.bind("something", "value");
+    context1.rebind("nested/thing", "nestedValue");
+    assertEquals("something", "value", context1.lookup("something"));
+    assertEquals("nested/thing", "nestedValue", context1.lookup("nested/thing"));
+    assertNotNull("foo", context1.lookup("foo"));
+
+    try {
+      context2.lookup("something");
+      fail("Should not see bindings made through another context");
+    }
+    catch (NameNotFoundException e) {
+      // expected
+    }
+    assertEquals("cached environments", 1,
+        GuiceInitialContextFactory.getCachedEnvironmentCount());
+  }
+
+  public void testRepeatedInitialContextCreation() throws Exception {
+    int count = 1000;
+
+    // warm up the cache
+    lookupInjector(new InitialContext(environment));
+
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      MyBean foo = (MyBean) new InitialContext(environment).lookup("foo");
+      assertNotNull("foo", foo);
+    }
+    long elapsed = System.nanoTime() - start;
+    if (verbose) {
+      System.out.println("Created " + count + " InitialContexts in " + (elapsed / 1000000)
+          + " ms which is " + (elapsed / count / 1000) + " us per context");
+    }
+    assertEquals("cached environments", 1,
+        GuiceInitialContextFactory.getCachedEnvironmentCount());
+  }
+
+  protected Injector lookupInjector(Context context) throws Exception {
+    Injector injector = (Injector) context.lookup(Injector.class.getName());
+    assertNotNull("Should have an injector", injector);
+    return injector;
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    GuiceInitialContextFactory.evictAll();
+
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    assertNotNull("Cannot find jndi-example.properties on the classpath!", in);
+
+    Properties properties = new Properties();
+    properties.load(in);
+    environment = new Hashtable(properties);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    GuiceInitialContextFactory.evictAll();
+    super.tearDown();
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.example;
+
+import com.google.inject.Injector;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Properties;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import junit.framework.TestCase;
+import org.guiceyfruit.jndi.GuiceInitialContextFactory;
+
+/** @version $Revision: 1.1 $ */
+public class LazyJndiNamesTest extends TestCase {
+  protected InitialContext context;
+
+  public void testJndiBindNamesAreResolved() throws Exception {
+    MyBean foo = assertLookup("foo", MyBean.class);
+    assertEquals("foo.name", "Foo", foo.getName());
+
+    MyBean blah = assertLookup("blah", MyBean.class);
+    assertEquals("blah.name", "Blah", blah.getName());
+  }
+
+  public void testClassNamesAreResolved() throws Exception {
+    SomeBean someBean = assertLookup("org.guiceyfruit.jndi.example.SomeBean", SomeBean.class);
+    assertEquals("someBean.name", "James", someBean.getName());
+
+    assertLookup("com.google.inject.Injector", Injector.class);
+  }
+
+  public void testNamedBindingsAreResolved() throws Exception {
+    String value = assertLookup("class java.lang.String/someBean.name", String.class);
+    assertEquals("someBean.name", "James", value);
+  }
+
+  public void testExpressionsAreResolved() throws Exception {
+    assertLookup("myInjector", Injector.class);
+  }
+
+  public void testUnknownNamesAreNotFound() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      try {
+        context.lookup("doesNotExist");
+        fail("Should have failed to find doesNotExist");
+      }
+      catch (NameNotFoundException e) {
+        // expected
+      }
+    }
+  }
+
+  protected <T> T assertLookup(String name, Class<T> type) throws NamingException {
+    Object value = context.lookup(name);
+    assertNotNull("Should have an entry for '" + name + "' in JNDI", value);
+    assertTrue("Should be an instanceof " + type.getName(), type.isInstance(value));
+    return type.cast(value);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    assertNotNull("Cannot find jndi-example.properties on the classpath!", in);
+
+    Properties properties = new Properties();
+    properties.load(in);
+    properties.put(GuiceInitialContextFactory.LAZY_NAMES, "true");
+    context = new InitialContext(new Hashtable(properties));
+  }
+}
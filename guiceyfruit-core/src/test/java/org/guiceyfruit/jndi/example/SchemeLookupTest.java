@@ -0,0 +1,118 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.example;
+
+import com.google.inject.Injector;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Properties;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import junit.framework.TestCase;
+import org.guiceyfruit.jndi.example.counting.countingURLContextFactory;
+import org.guiceyfruit.jndi.internal.JndiContext;
+
+/** @version $Revision: 1.1 $ */
+public class SchemeLookupTest extends TestCase {
+  protected InitialContext context;
+
+  public void testGuiceSchemeClassNames() throws Exception {
+    SomeBean someBean = assertLookup("guice:org.guiceyfruit.jndi.example.SomeBean",
+        SomeBean.class);
+    assertEquals("someBean.name", "James", someBean.getName());
+
+    assertLookup("guice:com.google.inject.Injector", Injector.class);
+  }
+
+  public void testGuiceSchemeNamedBindings() throws Exception {
+    String value = assertLookup("guice:java.lang.String/someBean.name", String.class);
+    assertEquals("someBean.name", "James", value);
+  }
+
+  public void testGuiceSchemeUnknownKey() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      try {
+        context.lookup("guice:java.lang.String/doesNotExist");
+        fail("Should have failed to find an unbound key");
+      }
+      catch (NameNotFoundException e) {
+        // expected
+      }
+    }
+  }
+
+  public void testURLContextsAreCachedForEachContext() throws Exception {
+    Hashtable environment = new Hashtable();
+    environment.put(Context.URL_PKG_PREFIXES, "org.guiceyfruit.jndi.example");
+    JndiContext shared = new JndiContext(environment);
+    shared.freeze();
+
+    environment.put(countingURLContextFactory.NAME, "first");
+    JndiContext view1 = new JndiContext(shared, environment);
+    environment.put(countingURLContextFactory.NAME, "second");
+    JndiContext view2 = new JndiContext(shared, environment);
+
+    countingURLContextFactory.reset();
+    for (int i = 0; i < 2; i++) {
+      assertEquals("view1 name", "first", view1.lookup("counting:name"));
+      assertUnknownScheme(view1, "doesNotExist:foo");
+    }
+    assertEquals("URL contexts created", 1, countingURLContextFactory.getCreatedCount());
+
+    // each view has its own URL contexts created from its own environment
+    assertEquals("view2 name", "second", view2.lookup("counting:name"));
+    assertEquals("URL contexts created", 2, countingURLContextFactory.getCreatedCount());
+
+    // changing the environment discards the cached URL contexts
+    view1.addToEnvironment(countingURLContextFactory.NAME, "changed");
+    assertEquals("view1 name", "changed", view1.lookup("counting:name"));
+    assertEquals("URL contexts created", 3, countingURLContextFactory.getCreatedCount());
+  }
+
+  protected void assertUnknownScheme(Context context, String name) {
+    try {
+      context.lookup(name);
+      fail("Should have failed to find the scheme of " + name);
+    }
+    catch (NamingException e) {
+      assertTrue("Should not be a NameNotFoundException", !(e instanceof NameNotFoundException));
+    }
+  }
+
+  protected <T> T assertLookup(String name, Class<T> type) throws NamingException {
+    Object value = context.lookup(name);
+    assertNotNull("Should have an entry for '" + name + "' in JNDI", value);
+    assertTrue("Should be an instanceof " + type.getName(), type.isInstance(value));
+    return type.cast(value);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    assertNotNull("Cannot find jndi-example.properties on the classpath!", in);
+
+    Properties properties = new Properties();
+    properties.load(in);
+    context = new InitialContext(new Hashtable(properties));
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.example.counting;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.spi.ObjectFactory;
+import org.guiceyfruit.jndi.internal.JndiContext;
+
+/**
+ * A URL context factory for the <code>counting:</code> scheme which counts how many URL contexts
+ * it creates; the <code>counting:name</code> entry of each context is bound to the value of the
+ * {@link #NAME} environment property
+ *
+ * @version $Revision: 1.1 $
+ */
+public class countingURLContextFactory implements ObjectFactory {
+  public static final String NAME = "org.guiceyfruit.jndi.example.counting.name";
+
+  private static final AtomicInteger createdCount = new AtomicInteger();
+
+  public static int getCreatedCount() {
+    return createdCount.get();
+  }
+
+  public static void reset() {
+    createdCount.set(0);
+  }
+
+  public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> env)
+      throws Exception {
+    createdCount.incrementAndGet();
+    JndiContext context = new JndiContext(env);
+    context.bind("counting:name", env.get(NAME));
+    return context;
+  }
+}
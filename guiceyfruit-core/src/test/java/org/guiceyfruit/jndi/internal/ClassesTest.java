@@ -0,0 +1,87 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.internal;
+
+import junit.framework.TestCase;
+
+/** @version $Revision: 1.1 $ */
+public class ClassesTest extends TestCase {
+  protected CountingClassLoader loader = new CountingClassLoader();
+
+  public void testFoundClassesAreCached() throws Exception {
+    assertSame(String.class, Classes.findClassInLoader("java.lang.String", loader));
+    assertSame(String.class, Classes.findClassInLoader("java.lang.String", loader));
+    assertEquals("loadClass invocations", 1, loader.count);
+  }
+
+  public void testMissingClassesAreCached() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertNull(Classes.findClassInLoader("org.acme.DoesNotExist", loader));
+    }
+    assertEquals("loadClass invocations", 1, loader.count);
+  }
+
+  public void testMissingClassesCacheIsBounded() throws Exception {
+    for (int i = 0; i <= Classes.MAX_MISSES; i++) {
+      assertNull(Classes.findClassInLoader("org.acme.DoesNotExist" + i, loader));
+    }
+    assertNull(Classes.findClassInLoader("org.acme.DoesNotExist0", loader));
+    assertEquals("the eldest miss should have been evicted", Classes.MAX_MISSES + 2,
+        loader.count);
+  }
+
+  public void testLoadClassThrowsForMissingClasses() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      try {
+        Classes.loadClass("org.acme.DoesNotExist", loader);
+        fail("Should have thrown ClassNotFoundException");
+      }
+      catch (ClassNotFoundException e) {
+        assertEquals("org.acme.DoesNotExist", e.getMessage());
+      }
+    }
+  }
+
+  public void testClearCache() throws Exception {
+    Classes.findClassInLoader("java.lang.String", loader);
+    Classes.clearCache();
+    Classes.findClassInLoader("java.lang.String", loader);
+    assertEquals("loadClass invocations", 2, loader.count);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Classes.clearCache();
+  }
+
+  protected static class CountingClassLoader extends ClassLoader {
+    int count;
+
+    public CountingClassLoader() {
+      super(ClassesTest.class.getClassLoader());
+    }
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+      count++;
+      return super.loadClass(name);
+    }
+  }
+}
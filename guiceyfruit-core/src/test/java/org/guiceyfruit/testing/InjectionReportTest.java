@@ -0,0 +1,81 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import junit.framework.TestCase;
+import org.guiceyfruit.testing.InjectionReport.ModuleStatistics;
+
+/** @version $Revision: 1.1 $ */
+public class InjectionReportTest extends TestCase {
+  protected InjectionReport report = new InjectionReport();
+
+  public void testSlowestModulesAreFirst() throws Exception {
+    List<ModuleStatistics> modules = report.getSlowestModules();
+    assertEquals("modules", 2, modules.size());
+    assertEquals("com.acme.SlowModule", modules.get(0).getName());
+    assertEquals("created", 2, modules.get(0).getCreationCount());
+    assertEquals("reused", 1, modules.get(0).getReuseCount());
+  }
+
+  public void testJsonReport() throws Exception {
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    report.writeJson(writer);
+    writer.flush();
+    String json = buffer.toString();
+
+    assertTrue(json, json.contains(
+        "\"slowestModules\": [\"com.acme.SlowModule\", \"com.acme.FastModule\"]"));
+    assertTrue(json, json.contains("\"name\": \"" + getClass().getName() + "\""));
+    assertTrue(json, json.contains("\"injectMembersMillis\": 2.000"));
+  }
+
+  public void testSurefireReport() throws Exception {
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    report.writeSurefireXml(writer);
+    writer.flush();
+    String xml = buffer.toString();
+
+    assertTrue(xml, xml.contains(
+        "<testsuite name=\"org.guiceyfruit.testing.InjectionReport\" tests=\"3\""));
+    assertTrue(xml, xml.contains(
+        "<testcase classname=\"com.acme.SlowModule\" name=\"createInjector\" time=\"3.000\"/>"));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    ModuleStatistics slow = report.getModule("com.acme.SlowModule");
+    slow.injectorCreated(1000000000L);
+    slow.injectorCreated(2000000000L);
+    slow.injectorAcquired();
+    slow.injectorAcquired();
+    slow.injectorAcquired();
+
+    ModuleStatistics fast = report.getModule("com.acme.FastModule");
+    fast.injectorCreated(1000000L);
+    fast.injectorAcquired();
+
+    report.getTestClass(getClass(), "com.acme.SlowModule").testInjected(1000000L, 2000000L);
+  }
+}
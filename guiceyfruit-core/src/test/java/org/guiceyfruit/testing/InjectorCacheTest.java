@@ -0,0 +1,159 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+/** @version $Revision: 1.1 $ */
+public class InjectorCacheTest extends TestCase {
+  protected InjectorCache cache = new InjectorCache(2, 0);
+
+  public void testInjectorsAreReused() throws Exception {
+    Injector injector = useInjector("a", FirstTest.class);
+    assertSame(injector, useInjector("a", FirstTest.class));
+    assertEquals("created", 1, cache.getMissCount());
+    assertEquals("reused", 1, cache.getHitCount());
+  }
+
+  public void testLeastRecentlyUsedInjectorIsEvictedAndClosed() throws Exception {
+    Injector a = useInjector("a", FirstTest.class);
+    useInjector("b", SecondTest.class);
+    useInjector("a", FirstTest.class);
+    cache.complete("a", FirstTest.class);
+    cache.complete("b", SecondTest.class);
+
+    useInjector("c", ThirdTest.class);
+    assertEquals("evicted", 1, cache.getEvictionCount());
+    assertEquals("size", 2, cache.size());
+    assertNull("b should have been evicted", cache.getIfPresent("b"));
+    assertSame(a, cache.getIfPresent("a"));
+  }
+
+  public void testCompletedClassesAreEvictedFirst() throws Exception {
+    useInjector("a", FirstTest.class);
+    Injector b = useInjector("b", SecondTest.class);
+    cache.complete("a", FirstTest.class);
+
+    useInjector("c", ThirdTest.class);
+    assertNull("a should have been evicted", cache.getIfPresent("a"));
+    assertSame(b, cache.getIfPresent("b"));
+  }
+
+  public void testInjectorsInUseOrExpectedAreNotEvicted() throws Exception {
+    Injector a = cache.acquire("a", FirstTest.class, new ModuleFactory());
+    cache.expect("b", SecondTest.class, new ModuleFactory());
+    Injector b = useInjector("b", SecondTest.class);
+    cache.expect("b", ThirdTest.class, new ModuleFactory());
+
+    useInjector("c", ThirdTest.class);
+    assertEquals("evicted", 0, cache.getEvictionCount());
+    assertSame(a, cache.getIfPresent("a"));
+    assertSame(b, cache.getIfPresent("b"));
+  }
+
+  public void testRunningClassesAreNotEvicted() throws Exception {
+    Injector a = useInjector("a", FirstTest.class);
+    useInjector("b", SecondTest.class);
+    cache.complete("b", SecondTest.class);
+
+    useInjector("c", ThirdTest.class);
+    assertSame(a, cache.getIfPresent("a"));
+    assertNull("b should have been evicted", cache.getIfPresent("b"));
+  }
+
+  public void testReleasingADiscardedInjectorDoesNotReleaseItsReplacement() throws Exception {
+    Injector old = cache.acquire("a", FirstTest.class, new ModuleFactory());
+    CloseErrors errors = new CloseErrorsImpl(this);
+    cache.closeAll(errors);
+    Injector current = cache.acquire("a", FirstTest.class, new ModuleFactory());
+    assertNotSame(old, current);
+
+    cache.release("a", old);
+    cache.complete("a", FirstTest.class);
+    useInjector("b", SecondTest.class);
+    cache.complete("b", SecondTest.class);
+
+    useInjector("c", ThirdTest.class);
+    assertSame("a is still in use", current, cache.getIfPresent("a"));
+    assertNull("b should have been evicted", cache.getIfPresent("b"));
+  }
+
+  public void testEvictedSingletonsAreClosed() throws Exception {
+    Injector injector = useInjector("a", FirstTest.class);
+    Resource resource = injector.getInstance(Resource.class);
+    cache.complete("a", FirstTest.class);
+    useInjector("b", SecondTest.class);
+    useInjector("c", ThirdTest.class);
+    assertTrue("the singleton should be closed", resource.closed);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    CloseErrors errors = new CloseErrorsImpl(this);
+    cache.closeAll(errors);
+    errors.throwIfNecessary();
+    super.tearDown();
+  }
+
+  protected Injector useInjector(String moduleKey, Class<?> testType) throws Exception {
+    Injector answer = cache.acquire(moduleKey, testType, new ModuleFactory());
+    cache.release(moduleKey, answer);
+    return answer;
+  }
+
+  protected static class ModuleFactory implements Callable<Injector> {
+    public Injector call() throws Exception {
+      return Guice.createInjector(new AbstractModule() {
+        protected void configure() {
+          bind(ResourceCloser.class);
+          bind(Resource.class).in(Singleton.class);
+        }
+      });
+    }
+  }
+
+  public static class Resource {
+    boolean closed;
+  }
+
+  public static class ResourceCloser implements Closer {
+    public void close(Object object) throws Throwable {
+      if (object instanceof Resource) {
+        ((Resource) object).closed = true;
+      }
+    }
+  }
+
+  static class FirstTest {
+  }
+
+  static class SecondTest {
+  }
+
+  static class ThirdTest {
+  }
+}
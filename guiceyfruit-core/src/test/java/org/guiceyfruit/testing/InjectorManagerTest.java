@@ -0,0 +1,190 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.internal.Lists;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.util.CloseableScope;
+
+/** @version $Revision: 1.1 $ */
+public class InjectorManagerTest extends TestCase {
+  protected static final int THREAD_COUNT = 8;
+
+  protected InjectorManager manager = new InjectorManager();
+
+  public void testConcurrentTestsHaveTheirOwnTestScope() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<Future<ExampleTest>> futures = Lists.newArrayList();
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        futures.add(executor.submit(new Callable<ExampleTest>() {
+          public ExampleTest call() throws Exception {
+            ExampleTest test = new ExampleTest();
+            manager.beforeTest(test);
+            try {
+              // lets make sure all the tests are running at the same time
+              latch.countDown();
+              latch.await(10, TimeUnit.SECONDS);
+              assertSame("testScoped", test.testScoped, test.testScoped2);
+              assertFalse("closed before the test completed", test.testScoped.closed);
+            }
+            finally {
+              manager.afterTest(test);
+            }
+            return test;
+          }
+        }));
+      }
+
+      Injector injector = null;
+      List<TestScopedBean> beans = Lists.newArrayList();
+      for (Future<ExampleTest> future : futures) {
+        ExampleTest test = future.get(30, TimeUnit.SECONDS);
+        if (injector == null) {
+          injector = test.injector;
+        }
+        assertSame("injector should be shared", injector, test.injector);
+        assertSame("classScoped should be shared", futures.get(0).get().classScoped,
+            test.classScoped);
+        assertFalse("testScoped should not be shared", beans.contains(test.testScoped));
+        beans.add(test.testScoped);
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testScopeContextIsNotInheritedByNewThreads() throws Exception {
+    final CloseableScope scope = new CloseableScope(TestScoped.class);
+    scope.enter("test");
+    try {
+      final Object[] childContext = {"notSet"};
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          childContext[0] = scope.getCurrentContext();
+        }
+      };
+      thread.start();
+      thread.join();
+      assertEquals("context", "test", scope.getCurrentContext());
+      assertNull("child thread context", childContext[0]);
+    }
+    finally {
+      scope.exit();
+    }
+  }
+
+  public void testDifferentTestClassesHaveTheirOwnClassScope() throws Exception {
+    ExampleTest test = new ExampleTest();
+    manager.beforeTest(test);
+    manager.afterTest(test);
+
+    AnotherExampleTest another = new AnotherExampleTest();
+    manager.beforeTest(another);
+    manager.afterTest(another);
+
+    assertNotSame(test.classScoped, another.classScoped);
+    assertSame(test.injector, another.injector);
+
+    manager.afterClasses(ExampleTest.class);
+    assertTrue("ExampleTest classScoped should be closed", test.classScoped.closed);
+    assertFalse("AnotherExampleTest classScoped should not be closed", another.classScoped.closed);
+  }
+
+  public void testPrefetchIsDisabledByDefault() throws Exception {
+    assertFalse("prefetch enabled", manager.isPrefetchEnabled());
+  }
+
+  public void testPrefetchCreatesInjectorsAheadOfTime() throws Exception {
+    manager.prefetch(ExampleTest.class, AnotherExampleTest.class);
+
+    InjectorCache cache = manager.getInjectorCache();
+    for (int i = 0; i < 100 && cache.getPrefetchCount() == 0; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals("prefetched", 1, cache.getPrefetchCount());
+
+    ExampleTest test = new ExampleTest();
+    manager.beforeTest(test);
+    manager.afterTest(test);
+    assertNotNull(test.injector);
+    assertEquals("created by tests", 0, cache.getMissCount());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    manager.closeSingletons();
+    super.tearDown();
+  }
+
+  public static class ExampleTest {
+    @Inject
+    Injector injector;
+    @Inject
+    TestScopedBean testScoped;
+    @Inject
+    TestScopedBean testScoped2;
+    @Inject
+    ClassScopedBean classScoped;
+
+    public static class TestModule extends AbstractModule {
+      protected void configure() {
+        bind(Closeables.class);
+      }
+    }
+  }
+
+  @UseModule(ExampleTest.TestModule.class)
+  public static class AnotherExampleTest extends ExampleTest {
+  }
+
+  @TestScoped
+  public static class TestScopedBean extends CloseableBean {
+  }
+
+  @ClassScoped
+  public static class ClassScopedBean extends CloseableBean {
+  }
+
+  public static class CloseableBean {
+    volatile boolean closed;
+  }
+
+  public static class Closeables implements Closer {
+    public void close(Object object) throws Throwable {
+      if (object instanceof CloseableBean) {
+        ((CloseableBean) object).closed = true;
+      }
+    }
+  }
+}
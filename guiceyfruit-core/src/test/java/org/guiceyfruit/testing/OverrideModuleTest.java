@@ -0,0 +1,257 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.spi.Message;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.Closer;
+
+/** @version $Revision: 1.1 $ */
+public class OverrideModuleTest extends TestCase {
+  protected InjectorManager manager = new InjectorManager();
+
+  public void testOverridesAreInstalledInChildInjector() throws Exception {
+    BaseTest base = new BaseTest();
+    manager.beforeTest(base);
+    manager.afterTest(base);
+
+    ChildOverrideTest test = new ChildOverrideTest();
+    manager.beforeTest(test);
+    try {
+      assertSame("parent injector", base.injector, test.injector.getParent());
+      assertSame("singletons should be reused", base.shared, test.shared);
+      assertTrue("helper should be overridden", test.helper instanceof MockHelper);
+      assertFalse("closed before the test completed", ((MockHelper) test.helper).closed);
+    }
+    finally {
+      manager.afterTest(test);
+    }
+    assertTrue("child singletons should be closed", ((MockHelper) test.helper).closed);
+    assertFalse("base singletons should not be closed", base.shared.closed);
+
+    ChildOverrideTest another = new ChildOverrideTest();
+    manager.beforeTest(another);
+    manager.afterTest(another);
+    assertNotSame("child injector should be discarded", test.injector, another.injector);
+    assertNotSame(test.helper, another.helper);
+    assertEquals("injectors created", 1, manager.getInjectorCache().getMissCount());
+  }
+
+  public void testConflictingOverridesUseSharedOverriddenInjector() throws Exception {
+    BaseTest base = new BaseTest();
+    manager.beforeTest(base);
+    manager.afterTest(base);
+
+    ConflictingOverrideTest test = new ConflictingOverrideTest();
+    manager.beforeTest(test);
+    manager.afterTest(test);
+    assertTrue("service should be overridden", test.service instanceof MockService);
+    assertNull(test.injector.getParent());
+    assertNotSame(base.injector, test.injector);
+
+    ConflictingOverrideTest another = new ConflictingOverrideTest();
+    manager.beforeTest(another);
+    manager.afterTest(another);
+    assertSame("overridden injector should be shared", test.injector, another.injector);
+    assertEquals("injectors created", 2, manager.getInjectorCache().getMissCount());
+  }
+
+  public void testOverridesOfJustInTimeBindingsUseSharedOverriddenInjector() throws Exception {
+    BaseTest base = new BaseTest();
+    manager.beforeTest(base);
+    manager.afterTest(base);
+    // lets make the shared injector create a just in time binding for the overridden key
+    Clock clock = base.injector.getInstance(Clock.class);
+
+    ClockOverrideTest test = new ClockOverrideTest();
+    manager.beforeTest(test);
+    manager.afterTest(test);
+    assertTrue("clock should be overridden", test.clock instanceof MockClock);
+    assertNull(test.injector.getParent());
+
+    assertFalse("clock should not be overridden in the shared injector",
+        base.injector.getInstance(Clock.class) instanceof MockClock);
+    assertFalse(clock instanceof MockClock);
+  }
+
+  public void testFallbackReleasesTheInjectorOfRunningTests() throws Exception {
+    final RejectingInjectorManager rejectingManager = new RejectingInjectorManager();
+    manager = rejectingManager;
+    manager.getInjectorCache().setMaxInjectors(1);
+
+    ChildOverrideTest running = new ChildOverrideTest();
+    manager.beforeTest(running);
+    assertNotNull("should use a child injector", running.injector.getParent());
+
+    // lets make another test of the same class fall back to the overridden injector while the
+    // first test is still using the shared injector
+    rejectingManager.rejectChildInjectors = true;
+    final ChildOverrideTest fallback = new ChildOverrideTest();
+    final Exception[] failure = new Exception[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          rejectingManager.beforeTest(fallback);
+          rejectingManager.afterTest(fallback);
+        }
+        catch (Exception e) {
+          failure[0] = e;
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    assertNull("fallback should not use a child injector", fallback.injector.getParent());
+    assertNotSame(running.shared, fallback.shared);
+
+    manager.afterTest(running);
+    manager.afterClasses(ChildOverrideTest.class);
+    assertFalse(running.shared.closed);
+
+    // creating another injector evicts the unused ones which includes the shared injector
+    ConflictingOverrideTest other = new ConflictingOverrideTest();
+    manager.beforeTest(other);
+    manager.afterTest(other);
+    assertTrue("shared injector should be released and evicted", running.shared.closed);
+    assertTrue(fallback.shared.closed);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    manager.closeSingletons();
+    super.tearDown();
+  }
+
+  /** Fails to create child injectors once asked to as if the overrides clashed */
+  protected static class RejectingInjectorManager extends InjectorManager {
+    volatile boolean rejectChildInjectors;
+
+    @Override
+    protected Injector createChildInjector(Injector classInjector,
+        List<Class<? extends Module>> overrideTypes)
+        throws InstantiationException, IllegalAccessException {
+      if (rejectChildInjectors) {
+        throw new CreationException(
+            Collections.singletonList(new Message("Child injectors are rejected")));
+      }
+      return super.createChildInjector(classInjector, overrideTypes);
+    }
+  }
+
+  public static class BaseTest {
+    @Inject
+    Injector injector;
+    @Inject
+    SharedBean shared;
+    @Inject
+    Service service;
+
+    public static class TestModule extends AbstractModule {
+      protected void configure() {
+        bind(Closeables.class);
+        bind(SharedBean.class).in(Singleton.class);
+        bind(Service.class).to(RealService.class);
+      }
+    }
+  }
+
+  @UseModule(BaseTest.TestModule.class)
+  @OverrideModule(HelperModule.class)
+  public static class ChildOverrideTest extends BaseTest {
+    @Inject
+    Helper helper;
+  }
+
+  @UseModule(BaseTest.TestModule.class)
+  public static class ConflictingOverrideTest extends BaseTest {
+
+    public static class OverrideModule extends AbstractModule {
+      protected void configure() {
+        bind(Service.class).to(MockService.class);
+      }
+    }
+  }
+
+  @UseModule(BaseTest.TestModule.class)
+  @OverrideModule(ClockModule.class)
+  public static class ClockOverrideTest extends BaseTest {
+    @Inject
+    Clock clock;
+  }
+
+  public static class ClockModule extends AbstractModule {
+    protected void configure() {
+      bind(Clock.class).to(MockClock.class);
+    }
+  }
+
+  public static class Clock {
+  }
+
+  public static class MockClock extends Clock {
+  }
+
+  public static class HelperModule extends AbstractModule {
+    protected void configure() {
+      bind(Helper.class).to(MockHelper.class).in(Singleton.class);
+    }
+  }
+
+  public interface Service {
+  }
+
+  public static class RealService implements Service {
+  }
+
+  public static class MockService implements Service {
+  }
+
+  public interface Helper {
+  }
+
+  public static class MockHelper extends CloseableBean implements Helper {
+  }
+
+  public static class SharedBean extends CloseableBean {
+  }
+
+  public static class CloseableBean {
+    volatile boolean closed;
+  }
+
+  public static class Closeables implements Closer {
+    public void close(Object object) throws Throwable {
+      if (object instanceof CloseableBean) {
+        ((CloseableBean) object).closed = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.internal.Lists;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.testing.TestScoped;
+
+/** @version $Revision: 1.1 $ */
+public class CloseableScopeTest extends TestCase {
+  protected static final List<Object> closed = Lists.newArrayList();
+  protected static final AtomicInteger closerCount = new AtomicInteger();
+
+  protected CloseableScope scope = new CloseableScope(TestScoped.class);
+  protected Injector injector;
+
+  public void testClosesCreatedObjectsInReverseOrder() throws Exception {
+    Outer outer = injector.getInstance(Outer.class);
+    assertSame(outer, injector.getInstance(Outer.class));
+
+    scope.close(injector);
+    assertEquals("closed", 2, closed.size());
+    assertSame(outer, closed.get(0));
+    assertSame(outer.inner, closed.get(1));
+
+    assertNotSame("a new object should be created after closing", outer,
+        injector.getInstance(Outer.class));
+  }
+
+  public void testClosingAnEmptyScopeDoesNotLookUpClosers() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      scope.close(injector);
+    }
+    assertEquals("closers created", 0, closerCount.get());
+    assertTrue("nothing closed", closed.isEmpty());
+  }
+
+  public void testClosersAreOnlyLookedUpOnce() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      injector.getInstance(Inner.class);
+      scope.close(injector);
+    }
+    assertEquals("closers created", 1, closerCount.get());
+    assertEquals("closed", 10, closed.size());
+  }
+
+  public void testContextsAreClosedIndependently() throws Exception {
+    scope.enter("a");
+    Inner a = injector.getInstance(Inner.class);
+    scope.enter("b");
+    Inner b = injector.getInstance(Inner.class);
+    assertNotSame(a, b);
+
+    scope.close(injector, "a");
+    assertEquals("closed", 1, closed.size());
+    assertSame(a, closed.get(0));
+    assertSame(b, injector.getInstance(Inner.class));
+    scope.exit();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    closed.clear();
+    closerCount.set(0);
+    injector = Guice.createInjector(new AbstractModule() {
+      protected void configure() {
+        bindScope(TestScoped.class, scope);
+        bind(RecordingCloser.class);
+      }
+    });
+  }
+
+  @TestScoped
+  public static class Inner {
+  }
+
+  @TestScoped
+  public static class Outer {
+    @Inject
+    Inner inner;
+  }
+
+  public static class RecordingCloser implements Closer {
+    public RecordingCloser() {
+      closerCount.incrementAndGet();
+    }
+
+    public void close(Object object) throws Throwable {
+      closed.add(object);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Sets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.Pooled;
+import org.guiceyfruit.jsr250.Jsr250Module;
+
+/** @version $Revision: 1.1 $ */
+public class PooledScopeTest extends TestCase {
+  protected static final Set<Object> used = Collections.synchronizedSet(Sets.newHashSet());
+  protected static final List<Object> closed = Collections.synchronizedList(Lists.newArrayList());
+  protected static final AtomicInteger concurrent = new AtomicInteger();
+  protected static final AtomicInteger maxConcurrent = new AtomicInteger();
+  protected static volatile CountDownLatch burst;
+
+  protected Injector injector;
+  protected PooledScope scope;
+
+  public void testMethodCallsUsePooledInstances() throws Exception {
+    Holder holder = injector.getInstance(Holder.class);
+    assertSame("the proxy should be shared", holder.parser,
+        injector.getInstance(Holder.class).parser);
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i, holder.parser.parse(Integer.toString(i)));
+    }
+    assertEquals("the idle instance should be reused", 1, used.size());
+    assertFalse("the proxy should not be used directly", used.contains(holder.parser));
+
+    InstancePool<Parser> pool = scope.getPool(Key.get(Parser.class));
+    assertEquals(5, pool.getBorrowedCount());
+    assertEquals(1, pool.getCreatedCount());
+    assertEquals(0, pool.getActiveCount());
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(4, pool.getMax());
+  }
+
+  public void testBorrowedInstancesAreBounded() throws Exception {
+    final SlowParser parser = injector.getInstance(SlowParser.class);
+    final CountDownLatch latch = new CountDownLatch(8);
+    for (int i = 0; i < 8; i++) {
+      new Thread() {
+        public void run() {
+          try {
+            parser.parse("1");
+          }
+          finally {
+            latch.countDown();
+          }
+        }
+      }.start();
+    }
+    latch.await();
+
+    InstancePool<SlowParser> pool = scope.getPool(Key.get(SlowParser.class));
+    assertTrue("at most 2 instances should be used at once", maxConcurrent.get() <= 2);
+    assertTrue("at most 2 instances should be created", pool.getCreatedCount() <= 2);
+    assertTrue("callers should have waited", pool.getWaitCount() > 0);
+    assertEquals(8, pool.getBorrowedCount());
+  }
+
+  public void testIdleInstancesAreClosed() throws Exception {
+    Parser parser = injector.getInstance(Parser.class);
+    parser.parse("1");
+    assertEquals("instances which are not idle for long should be kept", 0, scope.evictIdle());
+
+    // lets use two instances at once
+    final SlowParser slowParser = injector.getInstance(SlowParser.class);
+    Thread thread = new Thread() {
+      public void run() {
+        slowParser.parse("1");
+      }
+    };
+    thread.start();
+    slowParser.parse("1");
+    thread.join();
+    InstancePool<SlowParser> pool = scope.getPool(Key.get(SlowParser.class));
+    assertEquals(2, pool.getCreatedCount());
+    assertEquals(2, pool.getIdleCount());
+
+    // the instance which is not used again should expire
+    Thread.sleep(300);
+    slowParser.parse("1");
+    assertEquals("the minimum number of instances should be kept", 1, pool.getIdleCount());
+    assertEquals(1, pool.getClosedCount());
+    assertEquals(1, closed.size());
+
+    Injectors.close(injector);
+    assertEquals("idle instances should be closed by the closers", 3, closed.size());
+    assertTrue(closed.containsAll(used));
+    assertTrue(pool.isClosed());
+  }
+
+  public void testIdleInstancesAreEvictedWithoutBeingUsed() throws Exception {
+    final SlowParser slowParser = injector.getInstance(SlowParser.class);
+    Thread thread = new Thread() {
+      public void run() {
+        slowParser.parse("1");
+      }
+    };
+    thread.start();
+    slowParser.parse("1");
+    thread.join();
+    InstancePool<SlowParser> pool = scope.getPool(Key.get(SlowParser.class));
+    assertEquals(2, pool.getIdleCount());
+
+    // the pool is not used again so only the eviction thread can close the expired instance
+    long end = System.currentTimeMillis() + 5000;
+    while (pool.getClosedCount() == 0 && System.currentTimeMillis() < end) {
+      Thread.sleep(50);
+    }
+    assertEquals(1, pool.getClosedCount());
+    assertEquals("the minimum number of instances should be kept", 1, pool.getIdleCount());
+  }
+
+  public void testPoolShrinksWhileItIsStillUsed() throws Exception {
+    final BurstParser parser = injector.getInstance(BurstParser.class);
+    burst = new CountDownLatch(4);
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread() {
+        public void run() {
+          parser.parse("1");
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    burst = null;
+    InstancePool<BurstParser> pool = scope.getPool(Key.get(BurstParser.class));
+    assertEquals(4, pool.getIdleCount());
+
+    // lets keep using one instance at a time more often than the idle timeout
+    for (int i = 0; i < 15; i++) {
+      Thread.sleep(100);
+      parser.parse("1");
+    }
+    assertEquals("the pool should shrink to the instances in use", 1, pool.getIdleCount());
+    assertEquals(3, pool.getClosedCount());
+    assertEquals(4, pool.getCreatedCount());
+  }
+
+  public void testReentrantCallsDoNotWaitForTheirOwnInstances() throws Exception {
+    final RecursiveParser parser = injector.getInstance(RecursiveParser.class);
+    final AtomicInteger result = new AtomicInteger(-1);
+    Thread thread = new Thread() {
+      public void run() {
+        result.set(parser.depth(3));
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    thread.join(5000);
+    assertFalse("a re-entrant call should not deadlock", thread.isAlive());
+    assertEquals(3, result.get());
+
+    InstancePool<RecursiveParser> pool = scope.getPool(Key.get(RecursiveParser.class));
+    assertEquals(0, pool.getActiveCount());
+    assertEquals(4, pool.getBorrowedCount());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    used.clear();
+    closed.clear();
+    concurrent.set(0);
+    maxConcurrent.set(0);
+    injector = Guice.createInjector(new Jsr250Module() {
+      protected void configure() {
+        super.configure();
+        bindPooledScope();
+      }
+    });
+    scope = injector.getInstance(PooledScope.class);
+  }
+
+  public static class Holder {
+    @Inject
+    Parser parser;
+  }
+
+  @Pooled(max = 4)
+  public static class Parser {
+    public int parse(String text) {
+      used.add(this);
+      return Integer.parseInt(text);
+    }
+
+    @PreDestroy
+    public void close() {
+      closed.add(this);
+    }
+  }
+
+  @Pooled(max = 4, idleTimeout = 500)
+  public static class BurstParser extends Parser {
+    @Override
+    public int parse(String text) {
+      CountDownLatch latch = burst;
+      if (latch != null) {
+        // lets wait for all of the callers so that they each use their own instance
+        latch.countDown();
+        try {
+          latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          // ignore
+        }
+      }
+      return super.parse(text);
+    }
+  }
+
+  @Pooled(max = 1)
+  public static class RecursiveParser {
+    @Inject
+    RecursiveParser self;
+
+    public int depth(int count) {
+      return count == 0 ? 0 : 1 + self.depth(count - 1);
+    }
+  }
+
+  @Pooled(min = 1, max = 2, idleTimeout = 200)
+  public static class SlowParser extends Parser {
+    @Override
+    public int parse(String text) {
+      int count = concurrent.incrementAndGet();
+      synchronized (maxConcurrent) {
+        maxConcurrent.set(Math.max(count, maxConcurrent.get()));
+      }
+      try {
+        Thread.sleep(50);
+      }
+      catch (InterruptedException e) {
+        // ignore
+      }
+      finally {
+        concurrent.decrementAndGet();
+      }
+      return super.parse(text);
+    }
+  }
+}
@@ -18,12 +18,18 @@
 package org.guiceyfruit.ejb;
 
 import org.guiceyfruit.jsr250.Jsr250Module;
+import org.guiceyfruit.ejb.support.EJBBindingIndex;
 import org.guiceyfruit.ejb.support.EJBMemberProvider;
 
 import javax.ejb.EJB;
 
 /**
  * Allows objects to be injected using the {@link EJB} annotation
+ * <p/>
+ * References to beans which are bound in the injector are resolved using the {@link
+ * EJBBindingIndex} which is built when the injector is created; other references are looked up in
+ * JNDI. Local {@link javax.ejb.Stateless} session beans are pooled using the {@link
+ * org.guiceyfruit.Pooled} scope.
  *
  * @version $Revision: 1.1 $
  */
@@ -33,5 +39,10 @@ public class EjbModule  extends Jsr250Module {
     super.configure();
 
     bindAnnotationInjector(EJB.class, EJBMemberProvider.class);
+
+    // lets index the local beans when the injector is created
+    bind(EJBBindingIndex.class).asEagerSingleton();
+
+    bindPooledScope();
   }
 }
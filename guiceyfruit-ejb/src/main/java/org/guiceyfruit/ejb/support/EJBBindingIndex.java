@@ -0,0 +1,235 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.ejb.support;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Maps;
+import com.google.inject.internal.Sets;
+import com.google.inject.name.Named;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import javax.ejb.Local;
+import javax.ejb.Stateful;
+import javax.ejb.Stateless;
+
+/**
+ * An index of the bindings of an injector and its parents which can satisfy an {@link
+ * javax.ejb.EJB} reference so that beans which are bound locally in Guice are resolved without
+ * using JNDI.
+ * <p/>
+ * Each binding is indexed by its type, and for session beans annotated with {@link Stateless} or
+ * {@link Stateful} also by their business interfaces, together with the optional bean name and
+ * mapped name. The bean name is the name of a {@link Named} binding or the name of the session
+ * bean, which defaults to the simple name of the bean class, and the mapped name is the mapped
+ * name of the session bean. References which match more than one binding are ambiguous and are
+ * not resolved by the index.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class EJBBindingIndex {
+  private final Map<IndexKey, Binding<?>> bindings = Maps.newHashMap();
+  private final Set<IndexKey> ambiguousKeys = Sets.newHashSet();
+  private final Map<Key<?>, Class<?>> statelessBeanClasses = Maps.newHashMap();
+
+  @Inject
+  public EJBBindingIndex(Injector injector) {
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      for (Binding<?> binding : current.getBindings().values()) {
+        index(binding);
+      }
+    }
+  }
+
+  /**
+   * Returns the binding which satisfies the given bean reference or null if there is no binding or
+   * more than one binding which matches
+   *
+   * @param type the bean interface or type of the injected member
+   * @param beanName the bean name or an empty string if any bean name matches
+   * @param mappedName the mapped name or an empty string if any mapped name matches
+   */
+  public Binding<?> getBinding(Type type, String beanName, String mappedName) {
+    return bindings.get(new IndexKey(type, beanName, mappedName));
+  }
+
+  /** Returns true if more than one binding satisfies the given bean reference */
+  public boolean isAmbiguous(Type type, String beanName, String mappedName) {
+    return ambiguousKeys.contains(new IndexKey(type, beanName, mappedName));
+  }
+
+  /**
+   * Returns the {@link Stateless} session bean class created by the binding or null if the binding
+   * does not create new stateless session beans
+   */
+  public Class<?> getStatelessBeanClass(Binding<?> binding) {
+    return statelessBeanClasses.get(binding.getKey());
+  }
+
+  /** Returns the number of distinct bean references which can be resolved by the index */
+  public int size() {
+    return bindings.size();
+  }
+
+  protected void index(Binding<?> binding) {
+    Key<?> key = binding.getKey();
+    Set<String> beanNames = Sets.newHashSet("");
+    if (key.getAnnotation() instanceof Named) {
+      beanNames.add(((Named) key.getAnnotation()).value());
+    }
+    else if (key.getAnnotationType() != null) {
+      // other binding annotations do not correspond to bean names
+      return;
+    }
+
+    Set<Type> types = Sets.newHashSet();
+    types.add(key.getTypeLiteral().getType());
+
+    Set<String> mappedNames = Sets.newHashSet("");
+    Class<?> beanClass = getBeanClass(binding);
+    if (beanClass != null) {
+      String beanName = null;
+      Stateless stateless = beanClass.getAnnotation(Stateless.class);
+      Stateful stateful = beanClass.getAnnotation(Stateful.class);
+      if (stateless != null) {
+        beanName = stateless.name();
+        mappedNames.add(stateless.mappedName());
+        if (!(binding instanceof InstanceBinding)) {
+          statelessBeanClasses.put(key, beanClass);
+        }
+      }
+      else if (stateful != null) {
+        beanName = stateful.name();
+        mappedNames.add(stateful.mappedName());
+      }
+      if (beanName != null) {
+        beanNames.add(beanName.length() > 0 ? beanName : beanClass.getSimpleName());
+        addBusinessInterfaces(types, beanClass);
+      }
+    }
+
+    for (Type type : types) {
+      for (String beanName : beanNames) {
+        for (String mappedName : mappedNames) {
+          put(new IndexKey(type, beanName, mappedName), binding);
+        }
+      }
+    }
+  }
+
+  private void put(IndexKey indexKey, Binding<?> binding) {
+    if (ambiguousKeys.contains(indexKey)) {
+      return;
+    }
+    Binding<?> existing = bindings.get(indexKey);
+    if (existing == null) {
+      bindings.put(indexKey, binding);
+    }
+    else if (!getTargetKey(existing).equals(getTargetKey(binding))) {
+      bindings.remove(indexKey);
+      ambiguousKeys.add(indexKey);
+    }
+  }
+
+  /**
+   * Returns the key of the binding which creates the bean so that an interface which is linked to
+   * a bean class is not ambiguous with the binding of the bean class
+   */
+  protected Key<?> getTargetKey(Binding<?> binding) {
+    if (binding instanceof LinkedKeyBinding) {
+      return ((LinkedKeyBinding<?>) binding).getLinkedKey();
+    }
+    return binding.getKey();
+  }
+
+  /** Returns the class of the bean created by the binding or null if it is not known */
+  protected Class<?> getBeanClass(Binding<?> binding) {
+    if (binding instanceof InstanceBinding) {
+      Object instance = ((InstanceBinding<?>) binding).getInstance();
+      return instance != null ? instance.getClass() : null;
+    }
+    Type type = getTargetKey(binding).getTypeLiteral().getType();
+    return type instanceof Class ? (Class<?>) type : null;
+  }
+
+  /**
+   * Adds the business interfaces of the session bean which are listed by {@link Local} or are
+   * otherwise implemented by the bean class
+   */
+  protected void addBusinessInterfaces(Set<Type> types, Class<?> beanClass) {
+    Local local = beanClass.getAnnotation(Local.class);
+    if (local != null && local.value().length > 0) {
+      types.addAll(Arrays.<Type>asList(local.value()));
+      return;
+    }
+    for (Class<?> type = beanClass; type != null && type != Object.class;
+        type = type.getSuperclass()) {
+      types.add(type);
+      for (Class<?> anInterface : type.getInterfaces()) {
+        if (anInterface != Serializable.class && anInterface != Externalizable.class
+            && !anInterface.getName().startsWith("javax.ejb.")) {
+          types.add(anInterface);
+        }
+      }
+    }
+  }
+
+  /** The type, bean name and mapped name of a bean reference */
+  private static final class IndexKey {
+    private final Type type;
+    private final String beanName;
+    private final String mappedName;
+
+    IndexKey(Type type, String beanName, String mappedName) {
+      this.type = type;
+      this.beanName = beanName != null ? beanName : "";
+      this.mappedName = mappedName != null ? mappedName : "";
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof IndexKey)) {
+        return false;
+      }
+      IndexKey that = (IndexKey) object;
+      return type.equals(that.type) && beanName.equals(that.beanName)
+          && mappedName.equals(that.mappedName);
+    }
+
+    @Override
+    public int hashCode() {
+      return (type.hashCode() * 31 + beanName.hashCode()) * 31 + mappedName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return type + "[" + beanName + "," + mappedName + "]";
+    }
+  }
+}
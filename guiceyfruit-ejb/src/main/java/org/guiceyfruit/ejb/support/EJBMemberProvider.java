@@ -17,24 +17,184 @@
  */
 package org.guiceyfruit.ejb.support;
 
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
+import com.google.inject.internal.Sets;
+import com.google.inject.name.Named;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.Pooled;
 import org.guiceyfruit.jsr250.NamedProviderSupport;
+import org.guiceyfruit.util.PooledScope;
 
 import javax.ejb.EJB;
+import javax.ejb.Stateful;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Injects {@link EJB} references using the local bindings found by the {@link EJBBindingIndex}
+ * from the bean interface or member type, bean name and mapped name of the reference. References
+ * which are not bound locally are assumed to be remote and are looked up in JNDI using their
+ * mapped name or bean name, defaulting to the member name. The results of these lookups are
+ * cached, as remote business interfaces and homes do not show whether the bean is stateless, except
+ * for the names configured using the {@link #STATEFUL_NAMES} named constant and references whose
+ * bean type or class is a {@link Stateful} session bean, as each lookup of a stateful session bean
+ * creates a new session.
+ * <p/>
+ * Local {@link javax.ejb.Stateless} session beans which are not explicitly scoped are injected
+ * with a proxy from the {@link PooledScope} so that each method call uses a pooled instance.
+ *
  * @version $Revision: 1.1 $
  */
+@Singleton
 public class EJBMemberProvider extends NamedProviderSupport<EJB> {
+    /**
+     * The name of the constant of the whitespace or comma separated JNDI names of remote stateful
+     * session beans which are looked up for every reference rather than cached
+     */
+    public static final String STATEFUL_NAMES = "org.guiceyfruit.ejb.statefulNames";
+
+    private final ConcurrentMap<String, Object> remoteBeans
+        = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<Key<?>, Provider<?>> pooledProviders
+        = new ConcurrentHashMap<Key<?>, Provider<?>>();
+    private EJBBindingIndex bindingIndex;
+    private PooledScope pooledScope;
+    private Set<String> statefulNames = Collections.emptySet();
+
     public boolean isNullParameterAllowed(EJB annotation, Method method, Class<?> parameterType, int parameterIndex) {
         return false;
     }
 
     protected Object provide(EJB annotation, Member member, TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
-        String name = getValueName(annotation.beanName(), member);
-        return provideObjectFromNamedBindingOrJndi(requiredType, name);
+        Binding<?> binding = findLocalBinding(annotation, member, requiredType);
+        if (binding != null) {
+            return getLocalProvider(binding).get();
+        }
+        String name = annotation.mappedName();
+        if (name.length() == 0) {
+            name = getValueName(annotation.beanName(), member);
+        }
+        Class<?> beanType = annotation.beanInterface();
+        if (beanType == null || beanType == Object.class) {
+            beanType = memberType;
+        }
+        return lookupRemoteBean(name, beanType);
+    }
+
+    /**
+     * Returns the local binding of the bean reference or null if the bean is not bound locally
+     */
+    protected Binding<?> findLocalBinding(EJB annotation, Member member,
+        TypeLiteral<?> requiredType) {
+        Type type = requiredType.getType();
+        Class beanInterface = annotation.beanInterface();
+        if (beanInterface != null && beanInterface != Object.class) {
+            type = beanInterface;
+        }
+        String beanName = annotation.beanName();
+        String mappedName = annotation.mappedName();
+        Binding<?> binding = bindingIndex.getBinding(type, beanName, mappedName);
+        if (binding == null && beanName.length() == 0) {
+            // lets try the member name like a named binding
+            binding = bindingIndex.getBinding(type, member.getName(), mappedName);
+        }
+        return binding;
+    }
+
+    /**
+     * Returns the provider of the local binding which pools the instances of stateless session
+     * beans unless they are already scoped
+     */
+    protected Provider<?> getLocalProvider(Binding<?> binding) {
+        Class<?> beanClass = bindingIndex.getStatelessBeanClass(binding);
+        if (beanClass == null || pooledScope == null || beanClass.isAnnotationPresent(Pooled.class)
+            || Injectors.getScopeAnnotation(binding) != null) {
+            return binding.getProvider();
+        }
+        Key key = binding.getKey();
+        Provider<?> answer = pooledProviders.get(key);
+        if (answer == null) {
+            answer = pooledScope.scope(key, binding.getProvider(), beanClass);
+            pooledProviders.putIfAbsent(key, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Looks up the remote bean in JNDI, caching the reference unless it is a stateful session bean
+     */
+    protected Object lookupRemoteBean(String name, Class<?> beanType) {
+        Object answer = remoteBeans.get(name);
+        if (answer == null) {
+            answer = lookupInJndi(name);
+            if (answer != null && isCacheable(name, beanType, answer)) {
+                Object existing = remoteBeans.putIfAbsent(name, answer);
+                if (existing != null) {
+                    answer = existing;
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns true if the remote reference looked up with the given name can be reused, which is
+     * the case unless the name is one of the {@link #STATEFUL_NAMES} or the bean type or the class
+     * of the reference is a {@link Stateful} session bean
+     */
+    protected boolean isCacheable(String name, Class<?> beanType, Object reference) {
+        return !statefulNames.contains(name) && !beanType.isAnnotationPresent(Stateful.class)
+            && !reference.getClass().isAnnotationPresent(Stateful.class);
+    }
+
+    /**
+     * Returns the number of remote beans whose references have been cached
+     */
+    public int getRemoteBeanCount() {
+        return remoteBeans.size();
+    }
+
+    public Set<String> getStatefulNames() {
+        return statefulNames;
+    }
+
+    @Inject(optional = true)
+    public void setStatefulNames(@Named(STATEFUL_NAMES) String names) {
+        Set<String> set = Sets.newHashSet();
+        StringTokenizer iter = new StringTokenizer(names, ", \t\n\r\f");
+        while (iter.hasMoreTokens()) {
+            set.add(iter.nextToken());
+        }
+        this.statefulNames = Collections.unmodifiableSet(set);
+    }
+
+    public EJBBindingIndex getBindingIndex() {
+        return bindingIndex;
+    }
+
+    @Inject
+    public void setBindingIndex(EJBBindingIndex bindingIndex) {
+        this.bindingIndex = bindingIndex;
+    }
+
+    public PooledScope getPooledScope() {
+        return pooledScope;
+    }
+
+    @Inject(optional = true)
+    public void setPooledScope(PooledScope pooledScope) {
+        this.pooledScope = pooledScope;
     }
 }
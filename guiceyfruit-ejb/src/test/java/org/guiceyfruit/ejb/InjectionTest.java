@@ -20,10 +20,23 @@ package org.guiceyfruit.ejb;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.guiceyfruit.ejb.support.EJBMemberProvider;
+import org.guiceyfruit.jndi.internal.JndiContext;
+import org.guiceyfruit.util.InstancePool;
+import org.guiceyfruit.util.PooledScope;
 
 import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
 
 /**
  * @version $Revision: 1.1 $
@@ -51,6 +64,126 @@ public class InjectionTest extends TestCase {
         Assert.assertSame("service", service, testDTO.getService());
     }
 
+    public void testInjectionByTypeWithoutName() throws Exception {
+        final SomeInterface service = new SomeInterface() {
+            public String hello() {
+                return "Hey!";
+            }
+        };
+
+        Injector injector = Guice.createInjector(new EjbModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+
+                bind(SomeInterface.class).toInstance(service);
+            }
+        });
+
+        TestDTO testDTO = injector.getInstance(TestDTO.class);
+        Assert.assertSame("service", service, testDTO.getService());
+    }
+
+    public void testInjectionOfSessionBeans() throws Exception {
+        final SomeInterface service = new SomeInterface() {
+            public String hello() {
+                return "Hey!";
+            }
+        };
+
+        Injector injector = Guice.createInjector(new EjbModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+
+                bind(GreeterBean.class);
+                bind(SomeInterface.class, "service").toInstance(service);
+            }
+        });
+
+        SessionBeanDTO testDTO = injector.getInstance(SessionBeanDTO.class);
+        Assert.assertTrue("byBeanName", testDTO.byBeanName instanceof GreeterBean);
+        Assert.assertTrue("byMappedName", testDTO.byMappedName instanceof GreeterBean);
+        Assert.assertTrue("byBeanInterface", testDTO.byBeanInterface instanceof GreeterBean);
+        Assert.assertSame("byMemberName", service, testDTO.service);
+    }
+
+    public void testStatelessBeansArePooled() throws Exception {
+        Injector injector = Guice.createInjector(new EjbModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+
+                bind(GreeterBean.class);
+            }
+        });
+
+        StatelessDTO testDTO = injector.getInstance(StatelessDTO.class);
+        Assert.assertSame("the pooled proxy should be shared", testDTO.greeter,
+            injector.getInstance(StatelessDTO.class).greeter);
+        Assert.assertEquals("Hello!", testDTO.greeter.hello());
+        Assert.assertEquals("Hello!", testDTO.greeter.hello());
+
+        PooledScope scope = injector.getInstance(PooledScope.class);
+        InstancePool<GreeterBean> pool = scope.getPool(Key.get(GreeterBean.class));
+        Assert.assertNotNull("pool", pool);
+        Assert.assertEquals(2, pool.getBorrowedCount());
+        Assert.assertEquals(1, pool.getCreatedCount());
+    }
+
+    public void testRemoteBeansAreLookedUpOnce() throws Exception {
+        final SomeInterface remote = newRemoteProxy();
+        final CountingContext context = new CountingContext();
+        context.bind("remoteGreeter", remote);
+
+        Injector injector = Guice.createInjector(new EjbModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+
+                bind(Context.class).toInstance(context);
+            }
+        });
+
+        Assert.assertSame(remote, injector.getInstance(RemoteDTO.class).remote);
+        Assert.assertSame(remote, injector.getInstance(RemoteDTO.class).remote);
+        Assert.assertEquals("lookups", 1, context.lookups);
+        Assert.assertEquals(1, injector.getInstance(EJBMemberProvider.class).getRemoteBeanCount());
+    }
+
+    public void testRemoteStatefulBeansAreLookedUpEachTime() throws Exception {
+        final CountingContext context = new CountingContext();
+        context.bind("remoteGreeter", newRemoteProxy());
+
+        Injector injector = Guice.createInjector(new EjbModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+
+                bind(Context.class).toInstance(context);
+                bindConstant().annotatedWith(Names.named(EJBMemberProvider.STATEFUL_NAMES))
+                    .to("remoteCart, remoteGreeter");
+            }
+        });
+
+        injector.getInstance(RemoteDTO.class);
+        injector.getInstance(RemoteDTO.class);
+        Assert.assertEquals("lookups", 2, context.lookups);
+        Assert.assertEquals(0, injector.getInstance(EJBMemberProvider.class).getRemoteBeanCount());
+    }
+
+    /**
+     * Creates a proxy of the business interface like the client stub of a remote bean
+     */
+    protected SomeInterface newRemoteProxy() {
+        return (SomeInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { SomeInterface.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "Remote!";
+                }
+            });
+    }
+
     public static class TestDTO {
         @EJB
         SomeInterface service;
@@ -60,4 +193,49 @@ public class InjectionTest extends TestCase {
         }
     }
 
-}
\ No newline at end of file
+    public static class SessionBeanDTO {
+        @EJB(beanName = "greeter")
+        SomeInterface byBeanName;
+
+        @EJB(mappedName = "ejb/Greeter")
+        SomeInterface byMappedName;
+
+        @EJB(beanInterface = GreeterBean.class)
+        Object byBeanInterface;
+
+        @EJB
+        SomeInterface service;
+    }
+
+    public static class StatelessDTO {
+        @EJB(beanName = "greeter")
+        SomeInterface greeter;
+    }
+
+    public static class RemoteDTO {
+        @EJB(mappedName = "remoteGreeter")
+        SomeInterface remote;
+    }
+
+    @Stateless(name = "greeter", mappedName = "ejb/Greeter")
+    public static class GreeterBean implements SomeInterface {
+        public String hello() {
+            return "Hello!";
+        }
+    }
+
+    public static class CountingContext extends JndiContext {
+        int lookups;
+
+        public CountingContext() {
+            super(new Hashtable());
+        }
+
+        @Override
+        public Object lookup(String name) throws NamingException {
+            lookups++;
+            return super.lookup(name);
+        }
+    }
+
+}
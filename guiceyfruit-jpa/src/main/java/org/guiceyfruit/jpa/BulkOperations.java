@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.name.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.guiceyfruit.jpa.support.BulkWriter;
+import org.guiceyfruit.jpa.support.PersistenceMemberProvider;
+import org.guiceyfruit.jpa.support.QueryStream;
+import org.guiceyfruit.jpa.support.SharedEntityManager;
+
+/**
+ * Creates streams and writers for bulk reads and writes of large numbers of entities using a
+ * bounded amount of memory by periodically clearing the persistence context of the entity manager.
+ * <p/>
+ * Reads use a forward only {@link QueryStream} which clears the persistence context every {@link
+ * #FETCH_SIZE} results. Writes use a {@link BulkWriter} in the current transaction which flushes
+ * and clears the persistence context every {@link PersistenceUnits#BATCH_SIZE} entities.
+ * Bulk operations are typically used in a {@link Transactional} method, and the methods which do
+ * not take an entity manager use the shared entity manager of the default persistence unit.
+ * <p/>
+ * Bulk operations on a shared entity manager require an active {@link UnitOfWork}, as outside of
+ * one each call uses a new entity manager so the results could not be read a batch at a time nor
+ * the entities written. Streams flush the persistence context before clearing it unless the unit
+ * of work is read only so that earlier changes in the transaction are not discarded.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class BulkOperations {
+  /** The name of the constant used to configure the number of results read between clears */
+  public static final String FETCH_SIZE = "org.guiceyfruit.jpa.fetchSize";
+
+  private final PersistenceMemberProvider persistenceProvider;
+  private int fetchSize = 1000;
+  private int batchSize = 100;
+
+  @Inject
+  public BulkOperations(PersistenceMemberProvider persistenceProvider) {
+    Preconditions.checkNotNull(persistenceProvider, "persistenceProvider");
+    this.persistenceProvider = persistenceProvider;
+  }
+
+  /**
+   * Returns a forward only stream over the results of the given query string of the default
+   * persistence unit, binding the parameters to the positional parameters starting at 1
+   */
+  public <T> QueryStream<T> stream(String queryString, Object... parameters) {
+    EntityManager entityManager = getEntityManager();
+    checkUnitOfWork(entityManager);
+    Query query = entityManager.createQuery(queryString);
+    for (int i = 0; i < parameters.length; i++) {
+      query.setParameter(i + 1, parameters[i]);
+    }
+    return stream(entityManager, query);
+  }
+
+  /** Returns a forward only stream over the results of the query of the given entity manager */
+  public <T> QueryStream<T> stream(EntityManager entityManager, Query query) {
+    checkUnitOfWork(entityManager);
+    SharedEntityManager shared = SharedEntityManager.getSharedEntityManager(entityManager);
+    boolean readOnly = shared != null && shared.getUnitOfWork().isReadOnly();
+    return new QueryStream<T>(entityManager, query, fetchSize, !readOnly);
+  }
+
+  /** Returns a writer in the current transaction of the default persistence unit */
+  public BulkWriter writer() {
+    return writer(getEntityManager());
+  }
+
+  /** Returns a writer in the current transaction of the given entity manager */
+  public BulkWriter writer(EntityManager entityManager) {
+    checkUnitOfWork(entityManager);
+    return new BulkWriter(entityManager, batchSize);
+  }
+
+  /** Returns the shared entity manager of the default persistence unit */
+  public EntityManager getEntityManager() {
+    return persistenceProvider.getSharedEntityManager("");
+  }
+
+  /**
+   * Checks that a shared entity manager is used in an active unit of work
+   *
+   * @throws IllegalStateException if there is no active unit of work
+   */
+  protected void checkUnitOfWork(EntityManager entityManager) {
+    SharedEntityManager shared = SharedEntityManager.getSharedEntityManager(entityManager);
+    if (shared != null && !shared.getUnitOfWork().isActive()) {
+      throw new IllegalStateException("Bulk operations on a shared EntityManager require an "
+          + "active unit of work such as a @Transactional method");
+    }
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  @Inject(optional = true)
+  public void setFetchSize(@Named(FETCH_SIZE) int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  @Inject(optional = true)
+  public void setBatchSize(@Named(PersistenceUnits.BATCH_SIZE) int batchSize) {
+    this.batchSize = batchSize;
+  }
+}
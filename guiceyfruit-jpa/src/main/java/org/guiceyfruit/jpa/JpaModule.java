@@ -18,12 +18,37 @@
 
 package org.guiceyfruit.jpa;
 
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.name.Named;
+import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
 import org.guiceyfruit.jpa.support.PersistenceMemberProvider;
+import org.guiceyfruit.jpa.support.PersistenceUnitMemberProvider;
+import org.guiceyfruit.jpa.support.ReadOnlyInterceptor;
+import org.guiceyfruit.jpa.support.TransactionInterceptor;
+import org.guiceyfruit.jpa.support.TransactionalMatcher;
 import org.guiceyfruit.jsr250.Jsr250Module;
 
 /**
  * Allows the JPA persistence context to be injected via {@link javax.persistence.PersistenceContext}
+ * <p/>
+ * Persistence contexts are injected as thread safe shared entity managers whose underlying entity
+ * managers are bound to the {@link UnitOfWork} of the current thread. Methods annotated with
+ * {@link Transactional} are invoked in a resource local transaction by the {@link
+ * TransactionInterceptor}.
+ * <p/>
+ * The persistence units declared in <code>META-INF/persistence.xml</code> are managed by {@link
+ * PersistenceUnits} which bootstraps them in parallel when the injector is created, or lazily, and
+ * closes them when the injector is closed. The units are not started when the injector is created
+ * if an {@link EntityManager} is bound unless the {@link PersistenceUnits#START_UNITS} constant is
+ * true. Their factories can be injected via {@link
+ * PersistenceUnit}. Read only units of work can be routed to replica units using {@link
+ * ReadWriteRouting}. Large numbers of entities can be streamed and written using a bounded amount
+ * of memory with {@link BulkOperations}.
  *
  * @version $Revision: 1.1 $
  */
@@ -33,5 +58,60 @@ public class JpaModule extends Jsr250Module {
     super.configure();
 
     bindAnnotationInjector(PersistenceContext.class, PersistenceMemberProvider.class);
+    bindAnnotationInjector(PersistenceUnit.class, PersistenceUnitMemberProvider.class);
+    bindTransactionInterceptor();
+    bindPersistenceUnits();
+  }
+
+  /**
+   * Binds the {@link PersistenceUnits} and starts them when the injector is created unless an
+   * {@link EntityManager} is bound and the {@link PersistenceUnits#START_UNITS} constant is not
+   * true
+   */
+  protected void bindPersistenceUnits() {
+    bind(PersistenceUnits.class);
+    requestInjection(new PersistenceUnitsStarter());
+  }
+
+  /**
+   * Binds the {@link TransactionInterceptor} to the methods annotated with {@link Transactional}
+   * or Spring's or JTA's <code>@Transactional</code> annotations and the {@link
+   * ReadOnlyInterceptor} to the other methods annotated with {@link ReadOnly}
+   */
+  protected void bindTransactionInterceptor() {
+    TransactionInterceptor interceptor = new TransactionInterceptor();
+    requestInjection(interceptor);
+    bindInterceptor(Matchers.any(), new TransactionalMatcher(), interceptor);
+
+    ReadOnlyInterceptor readOnlyInterceptor = new ReadOnlyInterceptor();
+    requestInjection(readOnlyInterceptor);
+    bindInterceptor(Matchers.any(), ReadOnlyInterceptor.readOnlyMethods(), readOnlyInterceptor);
+  }
+
+  /**
+   * Starts the persistence units when it is injected. Fields are injected before methods so the
+   * constant is available when the units are started.
+   */
+  static class PersistenceUnitsStarter {
+    @Inject(optional = true)
+    @Named(PersistenceUnits.START_UNITS)
+    boolean startUnits;
+
+    @Inject
+    void start(Injector injector) {
+      if (startUnits || !isBound(injector, Key.get(EntityManager.class))) {
+        injector.getInstance(PersistenceUnits.class).start();
+      }
+    }
+
+    /** Returns true if the key is explicitly bound in the injector or one of its parents */
+    private static boolean isBound(Injector injector, Key<?> key) {
+      for (Injector current = injector; current != null; current = current.getParent()) {
+        if (current.getBindings().containsKey(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
   }
 }
@@ -0,0 +1,378 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Maps;
+import com.google.inject.internal.Sets;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Manages the {@link EntityManagerFactory} of each of the persistence units declared in the
+ * <code>META-INF/persistence.xml</code> files on the classpath, or of the units listed in the
+ * {@link #UNIT_NAMES} named constant, which are used to inject {@link
+ * javax.persistence.PersistenceUnit} and {@link javax.persistence.PersistenceContext} members.
+ * <p/>
+ * By default the factories of all the units are created in parallel on background threads when the
+ * injector is created so that the slow scanning and enhancement of each unit does not delay
+ * startup; a unit which is used before it has been created waits for it. The units are only
+ * started when the injector is created if no {@link EntityManager} is bound, as an application
+ * which binds its own entity managers creates its own factories, or if the {@link #START_UNITS}
+ * named constant is true. If the {@link #BOOTSTRAP_MODE} named constant is {@link
+ * BootstrapMode#LAZY} then each factory is only created when it is first used. The factories are
+ * closed when the injector is closed.
+ * <p/>
+ * The JDBC batch size used when flushing can be configured using the {@link #BATCH_SIZE} named
+ * constant, which is passed to Hibernate and EclipseLink, enabling JDBC batch writing for
+ * EclipseLink, when each factory is created. Other providers, such as OpenJPA whose batch limit is
+ * part of its <code>DBDictionary</code> configuration, should configure it in their
+ * persistence.xml file.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class PersistenceUnits {
+  /** The name of the constant used to configure the {@link BootstrapMode} */
+  public static final String BOOTSTRAP_MODE = "org.guiceyfruit.jpa.bootstrap";
+
+  /**
+   * The name of the constant used to list the whitespace separated names of the persistence units
+   * rather than finding them in the <code>META-INF/persistence.xml</code> files
+   */
+  public static final String UNIT_NAMES = "org.guiceyfruit.jpa.units";
+
+  /** The name of the constant used to configure the JDBC batch size of the persistence units */
+  public static final String BATCH_SIZE = "org.guiceyfruit.jpa.batchSize";
+
+  /**
+   * The name of the boolean constant used to start the persistence units when the injector is
+   * created even though an {@link EntityManager} is bound
+   */
+  public static final String START_UNITS = "org.guiceyfruit.jpa.startUnits";
+
+  /** The location of the persistence unit descriptors on the classpath */
+  public static final String PERSISTENCE_XML = "META-INF/persistence.xml";
+
+  /** When the entity manager factories of the persistence units are created */
+  public enum BootstrapMode {
+    /** The factories are created in parallel on background threads when the injector starts */
+    PARALLEL,
+
+    /** Each factory is created by the first thread to use it */
+    LAZY
+  }
+
+  private final ConcurrentMap<String, FutureTask<EntityManagerFactory>> factories
+      = new ConcurrentHashMap<String, FutureTask<EntityManagerFactory>>();
+  private BootstrapMode bootstrapMode = BootstrapMode.PARALLEL;
+  private volatile List<String> unitNames;
+  private int batchSize;
+
+  /**
+   * Finds the persistence units and, unless the units are bootstrapped lazily, starts creating
+   * their factories in parallel. This is called by the {@link JpaModule} when the injector is
+   * created if the units are used.
+   */
+  public void start() {
+    List<String> names = getUnitNames();
+    if (bootstrapMode != BootstrapMode.PARALLEL || names.isEmpty()) {
+      return;
+    }
+
+    int threads = Math.min(names.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable,
+            "GuiceyFruit PersistenceUnit Bootstrap " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      for (String name : names) {
+        FutureTask<EntityManagerFactory> task = getTask(name);
+        if (task != null) {
+          executor.execute(task);
+        }
+      }
+    }
+    finally {
+      // the threads exit once all of the units have been created
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Closes the factories of the persistence units, waiting for any which are still being created
+   *
+   * @throws PersistenceException if any of the factories could not be closed
+   */
+  @PreDestroy
+  public void close() {
+    RuntimeException failure = null;
+    Collection<FutureTask<EntityManagerFactory>> tasks = factories.values();
+    for (FutureTask<EntityManagerFactory> task : tasks) {
+      try {
+        // lets wait for any factories which are still being created so they are not leaked
+        EntityManagerFactory factory = task.get();
+        if (factory.isOpen()) {
+          factory.close();
+        }
+      }
+      catch (ExecutionException e) {
+        // the unit failed to start so there is nothing to close
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    factories.clear();
+    if (failure != null) {
+      throw new PersistenceException("Failed to close the EntityManagerFactories: " + failure,
+          failure);
+    }
+  }
+
+  /**
+   * Returns the factory of the given persistence unit, or of the default persistence unit if the
+   * name is empty, waiting for it to be created if required
+   *
+   * @throws PersistenceException if there is no such unit or its factory could not be created
+   */
+  public EntityManagerFactory getEntityManagerFactory(String unitName) {
+    String name = getUnitName(unitName);
+    FutureTask<EntityManagerFactory> task = getTask(name);
+    if (task == null) {
+      throw new PersistenceException("No persistence unit named '" + name + "' is defined in "
+          + PERSISTENCE_XML + ". Known units are " + getUnitNames());
+    }
+    // when bootstrapping lazily the first caller creates the factory
+    task.run();
+    try {
+      return task.get();
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw new PersistenceException("Failed to create the EntityManagerFactory for persistence "
+          + "unit '" + name + "': " + cause, cause);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted waiting for persistence unit '" + name + "'", e);
+    }
+  }
+
+  /**
+   * Returns a provider of new entity managers for the given persistence unit, or for the default
+   * persistence unit if the name is empty
+   */
+  public Provider<EntityManager> getEntityManagerProvider(final String unitName) {
+    return new Provider<EntityManager>() {
+      public EntityManager get() {
+        return getEntityManagerFactory(unitName).createEntityManager();
+      }
+
+      @Override
+      public String toString() {
+        return "EntityManagerProvider[" + unitName + "]";
+      }
+    };
+  }
+
+  /** Returns true if the given persistence unit is defined */
+  public boolean hasUnit(String unitName) {
+    return unitName != null && getUnitNames().contains(unitName);
+  }
+
+  /** Returns true if the creation of the factory of the given persistence unit has completed */
+  public boolean isStarted(String unitName) {
+    FutureTask<EntityManagerFactory> task = factories.get(getUnitName(unitName));
+    return task != null && task.isDone();
+  }
+
+  /** Returns the names of the persistence units; the first unit is the default unit */
+  public List<String> getUnitNames() {
+    List<String> answer = unitNames;
+    if (answer == null) {
+      synchronized (this) {
+        if (unitNames == null) {
+          unitNames = Collections.unmodifiableList(findUnitNames(getClassLoader()));
+        }
+        answer = unitNames;
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the class loader used to find the <code>META-INF/persistence.xml</code> files, which is
+   * the thread context class loader used by {@link javax.persistence.Persistence} to find the units
+   * so that the units of an application are found in a container, falling back to the class loader
+   * of this class
+   */
+  protected ClassLoader getClassLoader() {
+    ClassLoader answer = Thread.currentThread().getContextClassLoader();
+    return answer != null ? answer : getClass().getClassLoader();
+  }
+
+  @Inject(optional = true)
+  public void setUnitNames(@Named(UNIT_NAMES) String names) {
+    List<String> list = Lists.newArrayList();
+    StringTokenizer iter = new StringTokenizer(names);
+    while (iter.hasMoreTokens()) {
+      list.add(iter.nextToken());
+    }
+    this.unitNames = Collections.unmodifiableList(list);
+  }
+
+  public BootstrapMode getBootstrapMode() {
+    return bootstrapMode;
+  }
+
+  @Inject(optional = true)
+  public void setBootstrapMode(@Named(BOOTSTRAP_MODE) BootstrapMode bootstrapMode) {
+    this.bootstrapMode = bootstrapMode;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  @Inject(optional = true)
+  public void setBatchSize(@Named(BATCH_SIZE) int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Creates the factory of the given persistence unit; by default using {@link
+   * Persistence#createEntityManagerFactory(String, Map)} with the {@link
+   * #getUnitProperties(String)}
+   */
+  protected EntityManagerFactory createEntityManagerFactory(String unitName) {
+    return Persistence.createEntityManagerFactory(unitName, getUnitProperties(unitName));
+  }
+
+  /**
+   * Returns the properties which override those of the persistence unit in its persistence.xml
+   * file, such as the JDBC batch size
+   */
+  protected Map<String, String> getUnitProperties(String unitName) {
+    Map<String, String> answer = Maps.newHashMap();
+    if (batchSize > 0) {
+      String size = Integer.toString(batchSize);
+      answer.put("hibernate.jdbc.batch_size", size);
+      answer.put("eclipselink.jdbc.batch-writing", "JDBC");
+      answer.put("eclipselink.jdbc.batch-writing.size", size);
+    }
+    return answer;
+  }
+
+  /** Returns the names of the persistence units declared in the persistence.xml files */
+  public static List<String> findUnitNames(ClassLoader classLoader) {
+    Set<String> answer = Sets.newLinkedHashSet();
+    try {
+      Enumeration<URL> resources = classLoader.getResources(PERSISTENCE_XML);
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      while (resources.hasMoreElements()) {
+        URL url = resources.nextElement();
+        InputStream in = url.openStream();
+        try {
+          NodeList units = factory.newDocumentBuilder().parse(in)
+              .getElementsByTagName("persistence-unit");
+          for (int i = 0; i < units.getLength(); i++) {
+            answer.add(((Element) units.item(i)).getAttribute("name"));
+          }
+        }
+        finally {
+          in.close();
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new PersistenceException("Failed to read " + PERSISTENCE_XML + ": " + e, e);
+    }
+    catch (Exception e) {
+      throw new PersistenceException("Failed to parse " + PERSISTENCE_XML + ": " + e, e);
+    }
+    return Lists.newArrayList(answer);
+  }
+
+  private String getUnitName(String unitName) {
+    if (unitName == null || unitName.length() == 0) {
+      List<String> names = getUnitNames();
+      return names.isEmpty() ? "" : names.get(0);
+    }
+    return unitName;
+  }
+
+  private FutureTask<EntityManagerFactory> getTask(final String name) {
+    FutureTask<EntityManagerFactory> answer = factories.get(name);
+    if (answer == null && getUnitNames().contains(name)) {
+      FutureTask<EntityManagerFactory> task = new FutureTask<EntityManagerFactory>(
+          new Callable<EntityManagerFactory>() {
+            public EntityManagerFactory call() throws Exception {
+              return createEntityManagerFactory(name);
+            }
+          });
+      answer = factories.putIfAbsent(name, task);
+      if (answer == null) {
+        answer = task;
+      }
+    }
+    return answer;
+  }
+}
@@ -0,0 +1,36 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+/**
+ * The propagation behaviour of a {@link Transactional} method when it is invoked while a
+ * transaction is already active
+ *
+ * @version $Revision: 1.1 $
+ */
+public enum Propagation {
+  /** Joins the active transaction or begins a new transaction if there is none */
+  REQUIRED,
+
+  /**
+   * Suspends the active unit of work and begins a new transaction using new entity managers which
+   * is completed before the suspended unit of work is resumed
+   */
+  REQUIRES_NEW
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.name.Named;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import javax.persistence.EntityManager;
+
+/**
+ * Routes the entity managers of the primary persistence unit to read only replica units. Once the
+ * {@link #REPLICA_UNITS} named constant lists the replica units then each unit of work which is
+ * begun by a read only {@link Transactional} method or a method annotated with {@link ReadOnly}
+ * uses a replica chosen by the {@link ReplicaSelector}; all other units of work use the primary
+ * unit. The routing decision is made when the unit of work first uses an entity manager.
+ * <p/>
+ * The primary unit is the {@link #PRIMARY_UNIT} named constant or the default persistence unit.
+ * Persistence contexts of the primary unit, or of no named unit, are injected with the routed
+ * entity manager so that DAOs do not need to change to use the replicas.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class ReadWriteRouting {
+  /** The name of the constant used to configure the name of the primary persistence unit */
+  public static final String PRIMARY_UNIT = "org.guiceyfruit.jpa.primary";
+
+  /**
+   * The name of the constant used to configure the whitespace separated names of the replica
+   * persistence units
+   */
+  public static final String REPLICA_UNITS = "org.guiceyfruit.jpa.replicas";
+
+  private final PersistenceUnits persistenceUnits;
+  private final UnitOfWork unitOfWork;
+  private final ReplicaSelector replicaSelector;
+  private String primaryUnit = "";
+  private List<String> replicaUnits = Collections.emptyList();
+
+  @Inject
+  public ReadWriteRouting(PersistenceUnits persistenceUnits, UnitOfWork unitOfWork,
+      ReplicaSelector replicaSelector) {
+    Preconditions.checkNotNull(persistenceUnits, "persistenceUnits");
+    Preconditions.checkNotNull(unitOfWork, "unitOfWork");
+    Preconditions.checkNotNull(replicaSelector, "replicaSelector");
+    this.persistenceUnits = persistenceUnits;
+    this.unitOfWork = unitOfWork;
+    this.replicaSelector = replicaSelector;
+  }
+
+  /** Returns true if there are replica units to route read only units of work to */
+  public boolean isEnabled() {
+    return !replicaUnits.isEmpty();
+  }
+
+  /**
+   * Returns true if persistence contexts of the given unit name are routed, which is the case for
+   * the primary unit and the default unit
+   */
+  public boolean isRouted(String unitName) {
+    return isEnabled()
+        && (unitName == null || unitName.length() == 0 || unitName.equals(getPrimaryUnit()));
+  }
+
+  /** Returns the name of the persistence unit which is used by the current unit of work */
+  public String getCurrentUnit() {
+    if (unitOfWork.isReadOnly() && isEnabled()) {
+      final String replica = replicaSelector.select(replicaUnits);
+      unitOfWork.afterEnd(new Runnable() {
+        public void run() {
+          replicaSelector.release(replica);
+        }
+      });
+      return replica;
+    }
+    return getPrimaryUnit();
+  }
+
+  /**
+   * Returns a provider of entity managers which creates the entity manager for each unit of work
+   * from the primary or a replica persistence unit
+   */
+  public Provider<EntityManager> getEntityManagerProvider() {
+    return new Provider<EntityManager>() {
+      public EntityManager get() {
+        return persistenceUnits.getEntityManagerFactory(getCurrentUnit()).createEntityManager();
+      }
+
+      @Override
+      public String toString() {
+        return "ReadWriteRoutingProvider[" + getPrimaryUnit() + " " + replicaUnits + "]";
+      }
+    };
+  }
+
+  public String getPrimaryUnit() {
+    if (primaryUnit.length() == 0) {
+      List<String> names = persistenceUnits.getUnitNames();
+      return names.isEmpty() ? "" : names.get(0);
+    }
+    return primaryUnit;
+  }
+
+  @Inject(optional = true)
+  public void setPrimaryUnit(@Named(PRIMARY_UNIT) String primaryUnit) {
+    this.primaryUnit = primaryUnit.trim();
+  }
+
+  public List<String> getReplicaUnits() {
+    return replicaUnits;
+  }
+
+  @Inject(optional = true)
+  public void setReplicaUnits(@Named(REPLICA_UNITS) String names) {
+    List<String> list = Lists.newArrayList();
+    StringTokenizer iter = new StringTokenizer(names);
+    while (iter.hasMoreTokens()) {
+      list.add(iter.nextToken());
+    }
+    this.replicaUnits = Collections.unmodifiableList(list);
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.ImplementedBy;
+import java.util.List;
+import org.guiceyfruit.jpa.support.RoundRobinReplicaSelector;
+
+/**
+ * Selects which of the read only replica persistence units is used by a read only unit of work
+ *
+ * @version $Revision: 1.1 $
+ * @see ReadWriteRouting
+ */
+@ImplementedBy(RoundRobinReplicaSelector.class)
+public interface ReplicaSelector {
+
+  /** Returns the name of the replica to use from the non empty list of replica unit names */
+  String select(List<String> replicas);
+
+  /** Invoked when the unit of work which used the selected replica has ended */
+  void release(String replica);
+}
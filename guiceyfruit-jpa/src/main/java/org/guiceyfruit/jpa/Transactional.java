@@ -0,0 +1,65 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Demarcates a resource local transaction around a method, or around every method of a type, of an
+ * object created by an injector using the {@link JpaModule}. The transaction uses the entity
+ * manager of the current {@link UnitOfWork} for the persistence unit.
+ * <p/>
+ * The transaction is rolled back if the method throws a {@link RuntimeException} or {@link Error}
+ * or any of the {@link #rollbackFor()} exceptions, otherwise it is committed. Spring's
+ * <code>@Transactional</code> annotation and <code>javax.transaction.Transactional</code> are
+ * also supported when they are available.
+ *
+ * @version $Revision: 1.1 $
+ * @see org.guiceyfruit.jpa.support.TransactionInterceptor
+ */
+@Documented
+@Inherited
+@Target({ TYPE, METHOD })
+@Retention(RUNTIME)
+public @interface Transactional {
+
+  /** The behaviour if a transaction is already active */
+  Propagation propagation() default Propagation.REQUIRED;
+
+  /**
+   * Whether the transaction only reads so that the entity manager does not need to flush or check
+   * entities for changes
+   */
+  boolean readOnly() default false;
+
+  /** The name of the persistence unit or empty for the default persistence unit */
+  String unitName() default "";
+
+  /** The checked exceptions which cause the transaction to be rolled back */
+  Class<? extends Throwable>[] rollbackFor() default {};
+
+  /** The runtime exceptions which do not cause the transaction to be rolled back */
+  Class<? extends Throwable>[] noRollbackFor() default {};
+}
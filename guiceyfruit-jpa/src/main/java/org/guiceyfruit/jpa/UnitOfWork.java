@@ -0,0 +1,217 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Maps;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+/**
+ * The unit of work of the current thread which owns the {@link EntityManager} instances used by the
+ * shared entity managers injected via {@link javax.persistence.PersistenceContext}.
+ * <p/>
+ * An entity manager is lazily created from its provider the first time a shared entity manager is
+ * used on a thread and is then reused by every shared entity manager of the same persistence
+ * unit on that thread until {@link #end()} is called, which closes the entity managers. A shared
+ * entity manager used on a thread with no active unit of work does not begin one; it uses a new
+ * entity manager for each call which is closed when the call completes. Calls to {@link #begin()}
+ * and {@link #end()} may be nested in which case only the outermost call to {@link #end()} closes
+ * the entity managers.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class UnitOfWork {
+  private final ThreadLocal<Work> currentWork = new ThreadLocal<Work>();
+
+  /** Begins a unit of work on the current thread or joins the unit of work already active */
+  public void begin() {
+    Work work = currentWork.get();
+    if (work == null) {
+      work = new Work();
+      currentWork.set(work);
+    }
+    work.depth++;
+  }
+
+  /**
+   * Ends the unit of work on the current thread closing any entity managers it created if this is
+   * the outermost unit of work
+   *
+   * @throws PersistenceException if any of the entity managers could not be closed
+   */
+  public void end() {
+    Work work = currentWork.get();
+    if (work == null) {
+      return;
+    }
+    if (work.depth > 1) {
+      work.depth--;
+      return;
+    }
+    currentWork.remove();
+    work.close();
+  }
+
+  /**
+   * Suspends the unit of work of the current thread so that a new unit of work can be begun,
+   * returning the suspended unit of work which must be passed to {@link #resume(Object)}
+   */
+  public Object suspend() {
+    Work work = currentWork.get();
+    currentWork.remove();
+    return work;
+  }
+
+  /**
+   * Closes any unit of work begun on the current thread since it was suspended and then resumes the
+   * suspended unit of work
+   *
+   * @param suspended the unit of work returned by {@link #suspend()}
+   * @throws PersistenceException if any of the entity managers could not be closed
+   */
+  public void resume(Object suspended) {
+    Work work = currentWork.get();
+    try {
+      if (work != null) {
+        currentWork.remove();
+        work.close();
+      }
+    }
+    finally {
+      if (suspended != null) {
+        currentWork.set((Work) suspended);
+      }
+    }
+  }
+
+  /** Returns true if there is a unit of work active on the current thread */
+  public boolean isActive() {
+    return currentWork.get() != null;
+  }
+
+  /**
+   * Returns the entity manager of the given persistence unit in the active unit of work of the
+   * current thread, creating it from the provider if required
+   *
+   * @param unitKey the key of the persistence unit whose entity manager is required
+   * @param provider the provider used to create a new entity manager for the unit
+   * @throws IllegalStateException if there is no active unit of work
+   */
+  public EntityManager getEntityManager(Object unitKey, Provider<EntityManager> provider) {
+    Work work = getActiveWork();
+    EntityManager answer = work.entityManagers.get(unitKey);
+    if (answer == null) {
+      answer = provider.get();
+      work.entityManagers.put(unitKey, answer);
+    }
+    return answer;
+  }
+
+  /**
+   * Marks the active unit of work of the current thread as only reading so that entity managers
+   * which are created in it afterwards can be routed to a read only replica
+   *
+   * @throws IllegalStateException if there is no active unit of work
+   */
+  public void setReadOnly(boolean readOnly) {
+    getActiveWork().readOnly = readOnly;
+  }
+
+  /** Returns true if the active unit of work of the current thread only reads */
+  public boolean isReadOnly() {
+    Work work = currentWork.get();
+    return work != null && work.readOnly;
+  }
+
+  /**
+   * Registers a task to be run when the active unit of work of the current thread ends, after its
+   * entity managers have been closed
+   *
+   * @throws IllegalStateException if there is no active unit of work
+   */
+  public void afterEnd(Runnable task) {
+    getActiveWork().tasks.add(task);
+  }
+
+  private Work getActiveWork() {
+    Work work = currentWork.get();
+    if (work == null) {
+      throw new IllegalStateException("There is no active unit of work");
+    }
+    return work;
+  }
+
+  /**
+   * Returns the entity manager of the given persistence unit in the current unit of work or null if
+   * it has not been created
+   */
+  public EntityManager getCurrentEntityManager(Object unitKey) {
+    Work work = currentWork.get();
+    return work != null ? work.entityManagers.get(unitKey) : null;
+  }
+
+  /** The state of a unit of work which is only ever accessed by its own thread */
+  private static class Work {
+    private final Map<Object, EntityManager> entityManagers = Maps.newLinkedHashMap();
+    private final List<Runnable> tasks = Lists.newArrayList();
+    private int depth;
+    private boolean readOnly;
+
+    public void close() {
+      RuntimeException failure = null;
+      Collection<EntityManager> values = entityManagers.values();
+      for (EntityManager entityManager : values) {
+        try {
+          if (entityManager.isOpen()) {
+            entityManager.close();
+          }
+        }
+        catch (RuntimeException e) {
+          // lets close the remaining entity managers before reporting the first failure
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      entityManagers.clear();
+      for (Runnable task : tasks) {
+        try {
+          task.run();
+        }
+        catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      tasks.clear();
+      if (failure != null) {
+        throw new PersistenceException("Failed to close the entity managers of the unit of work: "
+            + failure, failure);
+      }
+    }
+  }
+}
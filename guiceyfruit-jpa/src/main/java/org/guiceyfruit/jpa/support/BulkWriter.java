@@ -0,0 +1,103 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.internal.Preconditions;
+import javax.persistence.EntityManager;
+import javax.persistence.TransactionRequiredException;
+
+/**
+ * Writes large numbers of entities in the current transaction of an entity manager, flushing the
+ * changes to the database and clearing the persistence context after every batch of entities so
+ * that the memory used does not grow with the number of entities written. Entities which have
+ * been written are detached once their batch has been flushed.
+ * <p/>
+ * The writer should be closed at the end of the transaction to flush the last batch.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class BulkWriter {
+  private final EntityManager entityManager;
+  private final int batchSize;
+  private int pending;
+  private long count;
+  private int flushCount;
+
+  public BulkWriter(EntityManager entityManager, int batchSize) {
+    Preconditions.checkNotNull(entityManager, "entityManager");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+    if (!entityManager.getTransaction().isActive()) {
+      throw new TransactionRequiredException("A BulkWriter can only be used in a transaction");
+    }
+    this.entityManager = entityManager;
+    this.batchSize = batchSize;
+  }
+
+  /** Persists the given new entity */
+  public void persist(Object entity) {
+    entityManager.persist(entity);
+    written();
+  }
+
+  /**
+   * Merges the state of the given entity, returning the managed entity which will be detached
+   * when the current batch is flushed
+   */
+  public <T> T merge(T entity) {
+    T answer = entityManager.merge(entity);
+    written();
+    return answer;
+  }
+
+  /** Flushes the pending changes to the database and clears the persistence context */
+  public void flush() {
+    if (pending > 0) {
+      entityManager.flush();
+      entityManager.clear();
+      pending = 0;
+      flushCount++;
+    }
+  }
+
+  /** Flushes any remaining changes */
+  public void close() {
+    flush();
+  }
+
+  /** Returns the number of entities which have been written */
+  public long getCount() {
+    return count;
+  }
+
+  /** Returns the number of batches which have been flushed */
+  public int getFlushCount() {
+    return flushCount;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  protected void written() {
+    count++;
+    if (++pending >= batchSize) {
+      flush();
+    }
+  }
+}
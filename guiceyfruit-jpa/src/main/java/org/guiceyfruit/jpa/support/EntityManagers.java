@@ -0,0 +1,136 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceException;
+
+/**
+ * Helper methods for applying optimizations to an {@link EntityManager} which go beyond the JPA
+ * specification when they are supported by the persistence provider. The provider specific
+ * methods are looked up once for each type of {@link EntityManager#getDelegate()} and are silently
+ * skipped if the provider does not support them.
+ *
+ * @version $Revision: 1.1 $
+ */
+public final class EntityManagers {
+  private static final ConcurrentMap<Class<?>, ProviderMethods> providerMethods
+      = new ConcurrentHashMap<Class<?>, ProviderMethods>();
+
+  private EntityManagers() {
+  }
+
+  /**
+   * Makes the entity manager read only, or restores it afterwards, so that it only flushes on
+   * commit and, where the provider allows, does not flush at all or check its entities for changes
+   *
+   * @param entityManager the entity manager to configure
+   * @param readOnly whether the entity manager should be read only
+   * @param flushMode the flush mode to restore when the entity manager is no longer read only
+   */
+  public static void setReadOnly(EntityManager entityManager, boolean readOnly,
+      FlushModeType flushMode) {
+    entityManager.setFlushMode(readOnly ? FlushModeType.COMMIT : flushMode);
+
+    Object delegate = entityManager.getDelegate();
+    if (delegate != null) {
+      ProviderMethods methods = getProviderMethods(delegate.getClass());
+      if (readOnly && methods.setFlushMode != null) {
+        invoke(methods.setFlushMode, delegate, methods.manualFlushMode);
+      }
+      if (methods.setDefaultReadOnly != null) {
+        invoke(methods.setDefaultReadOnly, delegate, readOnly);
+      }
+    }
+  }
+
+  private static ProviderMethods getProviderMethods(Class<?> type) {
+    ProviderMethods answer = providerMethods.get(type);
+    if (answer == null) {
+      answer = new ProviderMethods(type);
+      providerMethods.put(type, answer);
+    }
+    return answer;
+  }
+
+  private static void invoke(Method method, Object target, Object argument) {
+    try {
+      method.invoke(target, argument);
+    }
+    catch (IllegalAccessException e) {
+      throw new PersistenceException("Failed to invoke " + method + ": " + e, e);
+    }
+    catch (InvocationTargetException e) {
+      throw new PersistenceException("Failed to invoke " + method + ": " + e.getTargetException(),
+          e.getTargetException());
+    }
+  }
+
+  /** The provider specific methods of a type of entity manager delegate */
+  private static class ProviderMethods {
+    private Method setDefaultReadOnly;
+    private Method setFlushMode;
+    private Object manualFlushMode;
+
+    ProviderMethods(Class<?> type) {
+      for (Method method : type.getMethods()) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length != 1) {
+          continue;
+        }
+        String name = method.getName();
+        Class<?> parameterType = parameterTypes[0];
+        if (name.equals("setDefaultReadOnly") && parameterType == boolean.class) {
+          setDefaultReadOnly = method;
+        }
+        else if (name.equals("setFlushMode") && parameterType != FlushModeType.class) {
+          // a provider flush mode which never flushes automatically such as Hibernate's
+          Object manual = getConstant(parameterType, "MANUAL");
+          if (manual != null) {
+            setFlushMode = method;
+            manualFlushMode = manual;
+          }
+        }
+      }
+    }
+
+    private static Object getConstant(Class<?> type, String name) {
+      try {
+        Field field = type.getField(name);
+        if (Modifier.isStatic(field.getModifiers()) && type.isAssignableFrom(field.getType())) {
+          return field.get(null);
+        }
+      }
+      catch (NoSuchFieldException e) {
+        // not supported
+      }
+      catch (IllegalAccessException e) {
+        // not supported
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.guiceyfruit.jpa.ReplicaSelector;
+
+/**
+ * Selects the replica which is being used by the fewest active units of work
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class LeastLoadedReplicaSelector implements ReplicaSelector {
+  private final ConcurrentMap<String, AtomicInteger> loads
+      = new ConcurrentHashMap<String, AtomicInteger>();
+
+  public String select(List<String> replicas) {
+    String answer = null;
+    AtomicInteger answerLoad = null;
+    int minimum = Integer.MAX_VALUE;
+    for (String replica : replicas) {
+      AtomicInteger load = getLoadCounter(replica);
+      int value = load.get();
+      if (value < minimum) {
+        minimum = value;
+        answer = replica;
+        answerLoad = load;
+      }
+    }
+    // concurrent selections may pick the same replica which evens out as units of work end
+    answerLoad.incrementAndGet();
+    return answer;
+  }
+
+  public void release(String replica) {
+    getLoadCounter(replica).decrementAndGet();
+  }
+
+  /** Returns the number of active units of work using the given replica */
+  public int getLoad(String replica) {
+    AtomicInteger load = loads.get(replica);
+    return load != null ? load.get() : 0;
+  }
+
+  private AtomicInteger getLoadCounter(String replica) {
+    AtomicInteger answer = loads.get(replica);
+    if (answer == null) {
+      AtomicInteger counter = new AtomicInteger();
+      answer = loads.putIfAbsent(replica, counter);
+      if (answer == null) {
+        answer = counter;
+      }
+    }
+    return answer;
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.internal.Preconditions;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.persistence.EntityManagerFactory;
+import org.guiceyfruit.jpa.PersistenceUnits;
+
+/**
+ * An {@link EntityManagerFactory} of a persistence unit managed by {@link PersistenceUnits} which
+ * delegates to the unit's factory, waiting for it to be created on first use if required, so that
+ * injecting the factory does not wait for the persistence unit to start.
+ * <p/>
+ * The factory cannot be closed by the application; it is closed when the injector is closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class ManagedEntityManagerFactory implements InvocationHandler {
+  private final PersistenceUnits persistenceUnits;
+  private final String unitName;
+
+  public ManagedEntityManagerFactory(PersistenceUnits persistenceUnits, String unitName) {
+    Preconditions.checkNotNull(persistenceUnits, "persistenceUnits");
+    this.persistenceUnits = persistenceUnits;
+    this.unitName = unitName;
+  }
+
+  /** Creates a new factory which delegates to the factory of the given persistence unit */
+  public static EntityManagerFactory newProxy(PersistenceUnits persistenceUnits, String unitName) {
+    return (EntityManagerFactory) Proxy.newProxyInstance(
+        EntityManagerFactory.class.getClassLoader(), new Class<?>[] { EntityManagerFactory.class },
+        new ManagedEntityManagerFactory(persistenceUnits, unitName));
+  }
+
+  public String getUnitName() {
+    return unitName;
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (method.getDeclaringClass() == Object.class) {
+      if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      else if (name.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      }
+      else if (name.equals("toString")) {
+        return "ManagedEntityManagerFactory[" + unitName + "]";
+      }
+    }
+    else if (name.equals("close")) {
+      throw new IllegalStateException("Cannot close a managed EntityManagerFactory; it is closed "
+          + "when the injector is closed");
+    }
+    else if (name.equals("isOpen") && !persistenceUnits.isStarted(unitName)) {
+      return true;
+    }
+
+    EntityManagerFactory target = persistenceUnits.getEntityManagerFactory(unitName);
+    try {
+      return method.invoke(target, args);
+    }
+    catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    }
+  }
+}
@@ -18,46 +18,135 @@
 
 package org.guiceyfruit.jpa.support;
 
+import com.google.inject.Binding;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import org.guiceyfruit.jpa.PersistenceUnits;
+import org.guiceyfruit.jpa.ReadWriteRouting;
+import org.guiceyfruit.jpa.UnitOfWork;
 import org.guiceyfruit.support.AnnotationMemberProviderSupport;
 
 /**
  * Allows the JPA persistence context to be injected via {@link javax.persistence.PersistenceContext}
+ * <p/>
+ * Transaction scoped persistence contexts are injected with a thread safe {@link
+ * SharedEntityManager} for the persistence unit which delegates to the entity manager of the
+ * current {@link UnitOfWork}, so they can be injected into singletons. Extended persistence
+ * contexts are injected with a new entity manager from the provider.
+ * <p/>
+ * Entity managers are created by the named or default {@link EntityManager} providers if they are
+ * bound, otherwise by the persistence units managed by {@link PersistenceUnits}. If replica units
+ * are configured then the entity managers of the primary unit are routed by the {@link
+ * ReadWriteRouting}.
  *
  * @version $Revision: 1.1 $
  */
+@Singleton
 public class PersistenceMemberProvider extends AnnotationMemberProviderSupport<PersistenceContext> {
 
   private final Provider<EntityManager> defaultEntityManager;
+  private final UnitOfWork unitOfWork;
+  private PersistenceUnits persistenceUnits;
+  private ReadWriteRouting readWriteRouting;
+  private final ConcurrentMap<String, EntityManager> sharedEntityManagers
+      = new ConcurrentHashMap<String, EntityManager>();
 
   private Map<String, Provider<EntityManager>> namedEntityManagers;
 
-  @Inject
   public PersistenceMemberProvider(Provider<EntityManager> defaultEntityManager) {
+    this(defaultEntityManager, new UnitOfWork());
+  }
+
+  public PersistenceMemberProvider(Provider<EntityManager> defaultEntityManager,
+      UnitOfWork unitOfWork) {
     this.defaultEntityManager = defaultEntityManager;
+    this.unitOfWork = unitOfWork;
+  }
+
+  @Inject
+  public PersistenceMemberProvider(Injector injector, UnitOfWork unitOfWork,
+      PersistenceUnits persistenceUnits, ReadWriteRouting readWriteRouting) {
+    this(findProvider(injector, Key.get(EntityManager.class)), unitOfWork);
+    this.persistenceUnits = persistenceUnits;
+    this.readWriteRouting = readWriteRouting;
   }
 
   protected Object provide(PersistenceContext annotation, Member member,
       TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
 
-    Provider<EntityManager> provider = null;
-
     String name = annotation.name();
+    if (name.length() == 0) {
+      name = annotation.unitName();
+    }
+    if (annotation.type() == PersistenceContextType.EXTENDED) {
+      return getEntityManagerProvider(name).get();
+    }
+    return getSharedEntityManager(name);
+  }
+
+  /**
+   * Returns the thread safe shared entity manager of the given persistence unit name, or of the
+   * default persistence unit if the name is empty or not known
+   */
+  public EntityManager getSharedEntityManager(String name) {
+    String unitName = getUnitName(name);
+    EntityManager answer = sharedEntityManagers.get(unitName);
+    if (answer == null) {
+      EntityManager proxy = SharedEntityManager.newProxy(unitName,
+          getEntityManagerProvider(unitName), unitOfWork);
+      answer = sharedEntityManagers.putIfAbsent(unitName, proxy);
+      if (answer == null) {
+        answer = proxy;
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the provider of new entity managers for the given persistence unit name, or of the
+   * default persistence unit if the name is empty or not known
+   */
+  public Provider<EntityManager> getEntityManagerProvider(String name) {
+    if (readWriteRouting != null && readWriteRouting.isRouted(name)) {
+      return readWriteRouting.getEntityManagerProvider();
+    }
+    Provider<EntityManager> provider = null;
     if (namedEntityManagers != null && name != null && name.length() > 0) {
       provider = namedEntityManagers.get(name);
     }
+    if (provider == null && persistenceUnits != null && persistenceUnits.hasUnit(name)) {
+      provider = persistenceUnits.getEntityManagerProvider(name);
+    }
     if (provider == null) {
       provider = defaultEntityManager;
     }
-    return provider.get();
+    if (provider == null && persistenceUnits != null
+        && !persistenceUnits.getUnitNames().isEmpty()) {
+      provider = persistenceUnits.getEntityManagerProvider("");
+    }
+    if (provider == null) {
+      throw new ProvisionException("No EntityManager is bound and no persistence units are "
+          + "defined in " + PersistenceUnits.PERSISTENCE_XML);
+    }
+    return provider;
+  }
+
+  public UnitOfWork getUnitOfWork() {
+    return unitOfWork;
   }
 
   public boolean isNullParameterAllowed(PersistenceContext annotation, Method method,
@@ -72,5 +161,31 @@ public class PersistenceMemberProvider extends AnnotationMemberProviderSupport<P
   @Inject(optional = true)
   public void setNamedEntityManagers(Map<String, Provider<EntityManager>> namedEntityManagers) {
     this.namedEntityManagers = namedEntityManagers;
+    sharedEntityManagers.clear();
+  }
+
+  /** Returns the name of the unit whose shared entity manager is used for the given name */
+  protected String getUnitName(String name) {
+    if (readWriteRouting != null && readWriteRouting.isRouted(name)) {
+      return "";
+    }
+    if (namedEntityManagers != null && name != null && namedEntityManagers.containsKey(name)) {
+      return name;
+    }
+    if (persistenceUnits != null && persistenceUnits.hasUnit(name)) {
+      return name;
+    }
+    return "";
+  }
+
+  /** Returns the provider of the explicit binding of the key in the injector or its parents */
+  private static <T> Provider<T> findProvider(Injector injector, Key<T> key) {
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      Binding<?> binding = current.getBindings().get(key);
+      if (binding != null) {
+        return (Provider<T>) binding.getProvider();
+      }
+    }
+    return null;
   }
 }
@@ -0,0 +1,90 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.Inject;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.internal.Preconditions;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import org.guiceyfruit.jpa.PersistenceUnits;
+import org.guiceyfruit.support.AnnotationMemberProviderSupport;
+
+/**
+ * Allows the {@link EntityManagerFactory} of a persistence unit managed by {@link PersistenceUnits}
+ * to be injected via {@link PersistenceUnit}
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class PersistenceUnitMemberProvider
+    extends AnnotationMemberProviderSupport<PersistenceUnit> {
+
+  private final PersistenceUnits persistenceUnits;
+  private final ConcurrentMap<String, EntityManagerFactory> factories
+      = new ConcurrentHashMap<String, EntityManagerFactory>();
+
+  @Inject
+  public PersistenceUnitMemberProvider(PersistenceUnits persistenceUnits) {
+    Preconditions.checkNotNull(persistenceUnits, "persistenceUnits");
+    this.persistenceUnits = persistenceUnits;
+  }
+
+  protected Object provide(PersistenceUnit annotation, Member member,
+      TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
+
+    String unitName = annotation.unitName();
+    if (unitName.length() == 0) {
+      unitName = annotation.name();
+    }
+    if (unitName.length() == 0) {
+      if (persistenceUnits.getUnitNames().isEmpty()) {
+        throw new ProvisionException("No persistence units are defined for " + member);
+      }
+      unitName = persistenceUnits.getUnitNames().get(0);
+    }
+    else if (!persistenceUnits.hasUnit(unitName)) {
+      throw new ProvisionException("No persistence unit named '" + unitName + "' for " + member
+          + ". Known units are " + persistenceUnits.getUnitNames());
+    }
+
+    EntityManagerFactory answer = factories.get(unitName);
+    if (answer == null) {
+      EntityManagerFactory proxy = ManagedEntityManagerFactory.newProxy(persistenceUnits,
+          unitName);
+      answer = factories.putIfAbsent(unitName, proxy);
+      if (answer == null) {
+        answer = proxy;
+      }
+    }
+    return answer;
+  }
+
+  public boolean isNullParameterAllowed(PersistenceUnit annotation, Method method,
+      Class<?> parameterType, int parameterIndex) {
+    return false;
+  }
+}
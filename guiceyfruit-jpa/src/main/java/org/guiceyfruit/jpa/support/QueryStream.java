@@ -0,0 +1,295 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.internal.Preconditions;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * A forward only stream over the results of a query which clears the persistence context of the
+ * entity manager after each batch of results so that the memory used does not grow with the size
+ * of the result set. Results must therefore not be kept and modified after the next batch has been
+ * read, as they are detached when the persistence context is cleared.
+ * <p/>
+ * Clearing the persistence context discards any changes which have not been flushed, including
+ * changes made before the stream was created, so unless the stream is created for a read only
+ * transaction the persistence context is flushed before it is cleared.
+ * <p/>
+ * If the persistence provider supports scrollable results, such as Hibernate, then the results
+ * are read using a forward only database cursor, otherwise they are read a page at a time using
+ * {@link Query#setFirstResult(int)} in which case the query should have a stable order.
+ * <p/>
+ * A stream can only be iterated once and should be closed when it is no longer required.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class QueryStream<T> implements Iterable<T>, Iterator<T> {
+  private final EntityManager entityManager;
+  private final Query query;
+  private final int batchSize;
+  private final boolean flushBeforeClear;
+  private final Cursor cursor;
+  private boolean fetched;
+  private boolean hasNext;
+  private Object next;
+  private long count;
+  private int clearCount;
+  private boolean closed;
+
+  public QueryStream(EntityManager entityManager, Query query, int batchSize) {
+    this(entityManager, query, batchSize, true);
+  }
+
+  /**
+   * @param flushBeforeClear false if the persistence context is only read so that it does not need
+   * to be flushed before it is cleared
+   */
+  public QueryStream(EntityManager entityManager, Query query, int batchSize,
+      boolean flushBeforeClear) {
+    Preconditions.checkNotNull(entityManager, "entityManager");
+    Preconditions.checkNotNull(query, "query");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+    this.entityManager = entityManager;
+    this.query = query;
+    this.batchSize = batchSize;
+    this.flushBeforeClear = flushBeforeClear;
+
+    Cursor scrollCursor = ScrollCursor.open(query, batchSize);
+    this.cursor = scrollCursor != null ? scrollCursor : new PagingCursor();
+  }
+
+  public Iterator<T> iterator() {
+    return this;
+  }
+
+  public boolean hasNext() {
+    if (!fetched) {
+      fetchNext();
+    }
+    return hasNext;
+  }
+
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    fetched = false;
+    count++;
+    T answer = (T) next;
+    next = null;
+    return answer;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("Query results cannot be removed from a stream");
+  }
+
+  /** Closes the underlying cursor; further calls to {@link #hasNext()} return false */
+  public void close() {
+    if (!closed) {
+      closed = true;
+      fetched = true;
+      hasNext = false;
+      next = null;
+      cursor.close();
+    }
+  }
+
+  /** Returns the number of results which have been read from the stream */
+  public long getCount() {
+    return count;
+  }
+
+  /** Returns the number of times the persistence context has been cleared by this stream */
+  public int getClearCount() {
+    return clearCount;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public boolean isFlushBeforeClear() {
+    return flushBeforeClear;
+  }
+
+  /** Returns true if the results are read using a forward only database cursor */
+  public boolean isScrollable() {
+    return cursor instanceof ScrollCursor;
+  }
+
+  protected void fetchNext() {
+    fetched = true;
+    if (closed) {
+      return;
+    }
+    if (count > 0 && count % batchSize == 0) {
+      // lets detach the previous batch of results before reading the next one
+      if (flushBeforeClear) {
+        entityManager.flush();
+      }
+      entityManager.clear();
+      clearCount++;
+    }
+    hasNext = cursor.next();
+    if (hasNext) {
+      next = cursor.get();
+    }
+    else {
+      close();
+    }
+  }
+
+  /** Reads the rows of the query */
+  private interface Cursor {
+    boolean next();
+
+    Object get();
+
+    void close();
+  }
+
+  /** Reads the rows of the query a page at a time */
+  private class PagingCursor implements Cursor {
+    private List<?> page;
+    private int index;
+    private int firstResult;
+
+    public boolean next() {
+      if (page != null && index + 1 < page.size()) {
+        index++;
+        return true;
+      }
+      if (page != null && page.size() < batchSize) {
+        return false;
+      }
+      query.setFirstResult(firstResult);
+      query.setMaxResults(batchSize);
+      page = query.getResultList();
+      firstResult += page.size();
+      index = 0;
+      return !page.isEmpty();
+    }
+
+    public Object get() {
+      return page.get(index);
+    }
+
+    public void close() {
+      page = null;
+    }
+  }
+
+  /** Reads the rows of the query using the forward only scrollable results of the provider */
+  private static class ScrollCursor implements Cursor {
+    private final Object results;
+    private final Method nextMethod;
+    private final Method getMethod;
+    private final Method closeMethod;
+
+    ScrollCursor(Object results) throws NoSuchMethodException {
+      Class<?> type = results.getClass();
+      this.results = results;
+      this.nextMethod = type.getMethod("next");
+      this.getMethod = type.getMethod("get");
+      this.closeMethod = type.getMethod("close");
+    }
+
+    /**
+     * Opens a forward only cursor over the query if the provider supports it, otherwise returns
+     * null
+     */
+    static Cursor open(Query query, int fetchSize) {
+      try {
+        Method method = query.getClass().getMethod("getHibernateQuery");
+        Object providerQuery = invoke(method, query);
+        Class<?> type = providerQuery.getClass();
+        for (Method scroll : type.getMethods()) {
+          Class<?>[] parameterTypes = scroll.getParameterTypes();
+          if (scroll.getName().equals("scroll") && parameterTypes.length == 1) {
+            Object forwardOnly = getConstant(parameterTypes[0], "FORWARD_ONLY");
+            if (forwardOnly != null) {
+              invoke(type.getMethod("setFetchSize", int.class), providerQuery, fetchSize);
+              return new ScrollCursor(invoke(scroll, providerQuery, forwardOnly));
+            }
+          }
+        }
+      }
+      catch (NoSuchMethodException e) {
+        // not supported
+      }
+      return null;
+    }
+
+    public boolean next() {
+      return Boolean.TRUE.equals(invoke(nextMethod, results));
+    }
+
+    public Object get() {
+      // single values are returned on their own like Query.getResultList()
+      Object[] row = (Object[]) invoke(getMethod, results);
+      return row.length == 1 ? row[0] : row;
+    }
+
+    public void close() {
+      invoke(closeMethod, results);
+    }
+
+    private static Object getConstant(Class<?> type, String name) {
+      try {
+        Field field = type.getField(name);
+        if (Modifier.isStatic(field.getModifiers()) && type.isAssignableFrom(field.getType())) {
+          return field.get(null);
+        }
+      }
+      catch (NoSuchFieldException e) {
+        // not supported
+      }
+      catch (IllegalAccessException e) {
+        // not supported
+      }
+      return null;
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) {
+      try {
+        return method.invoke(target, arguments);
+      }
+      catch (IllegalAccessException e) {
+        throw new PersistenceException("Failed to invoke " + method + ": " + e, e);
+      }
+      catch (InvocationTargetException e) {
+        Throwable cause = e.getTargetException();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new PersistenceException("Failed to invoke " + method + ": " + cause, cause);
+      }
+    }
+  }
+}
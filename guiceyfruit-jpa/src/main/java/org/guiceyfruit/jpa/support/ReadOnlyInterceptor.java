@@ -0,0 +1,80 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.Inject;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matcher;
+import java.lang.reflect.Method;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.guiceyfruit.jpa.UnitOfWork;
+
+/**
+ * Begins a read only {@link UnitOfWork} around methods annotated with {@link
+ * org.guiceyfruit.jpa.ReadOnly} which are not transactional so that their entity managers can be
+ * routed to a replica. Methods invoked while a unit of work is already active use that unit of
+ * work.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class ReadOnlyInterceptor implements MethodInterceptor {
+  private UnitOfWork unitOfWork;
+
+  /**
+   * Returns a matcher of the read only methods which are not transactional, as read only
+   * transactional methods are handled by the {@link TransactionInterceptor}
+   */
+  public static Matcher<Method> readOnlyMethods() {
+    return new AbstractMatcher<Method>() {
+      public boolean matches(Method method) {
+        return !method.isSynthetic() && TransactionAttributes.isReadOnly(method)
+            && TransactionAttributes.findTransactionalAnnotation(method) == null;
+      }
+
+      @Override
+      public String toString() {
+        return "readOnly()";
+      }
+    };
+  }
+
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    if (unitOfWork.isActive()) {
+      return invocation.proceed();
+    }
+    unitOfWork.begin();
+    try {
+      unitOfWork.setReadOnly(true);
+      return invocation.proceed();
+    }
+    finally {
+      unitOfWork.end();
+    }
+  }
+
+  public UnitOfWork getUnitOfWork() {
+    return unitOfWork;
+  }
+
+  @Inject
+  public void setUnitOfWork(UnitOfWork unitOfWork) {
+    this.unitOfWork = unitOfWork;
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.Provider;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.internal.Sets;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TransactionRequiredException;
+import org.guiceyfruit.jpa.UnitOfWork;
+
+/**
+ * A thread safe {@link EntityManager} which can be shared by many threads and injected into
+ * singletons; each call is delegated to the entity manager of the current {@link UnitOfWork} of the
+ * calling thread which is created from the provider on first use.
+ * <p/>
+ * The shared entity manager cannot be closed; the underlying entity managers are closed at the end
+ * of the unit of work. When there is no active unit of work each call uses a new entity manager
+ * which is closed when the call completes or, for a call which creates a {@link Query}, when the
+ * query is executed. The transaction of a shared entity manager can only be used in a unit of
+ * work, and calls which change the persistence context, such as <code>persist()</code> or
+ * <code>flush()</code>, or execute an update query fail with a
+ * {@link TransactionRequiredException} outside of a unit of work as their changes would be lost.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class SharedEntityManager implements InvocationHandler {
+  private static final Set<String> TRANSACTION_REQUIRING_METHODS = Collections.unmodifiableSet(
+      Sets.newHashSet("persist", "merge", "remove", "flush", "refresh", "lock"));
+
+  private final String unitName;
+  private final Provider<EntityManager> provider;
+  private final UnitOfWork unitOfWork;
+
+  public SharedEntityManager(String unitName, Provider<EntityManager> provider,
+      UnitOfWork unitOfWork) {
+    Preconditions.checkNotNull(provider, "provider");
+    Preconditions.checkNotNull(unitOfWork, "unitOfWork");
+    this.unitName = unitName;
+    this.provider = provider;
+    this.unitOfWork = unitOfWork;
+  }
+
+  /**
+   * Creates a new shared entity manager which delegates to the entity managers created by the
+   * provider for each unit of work
+   */
+  public static EntityManager newProxy(String unitName, Provider<EntityManager> provider,
+      UnitOfWork unitOfWork) {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(),
+        new Class<?>[] { EntityManager.class },
+        new SharedEntityManager(unitName, provider, unitOfWork));
+  }
+
+  /**
+   * Returns the shared entity manager handler of the given proxy or null if it is not a shared
+   * entity manager
+   */
+  public static SharedEntityManager getSharedEntityManager(Object proxy) {
+    if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+      if (handler instanceof SharedEntityManager) {
+        return (SharedEntityManager) handler;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the entity manager of the current unit of work, creating it if required
+   *
+   * @throws IllegalStateException if there is no active unit of work
+   */
+  public EntityManager getTargetEntityManager() {
+    return unitOfWork.getEntityManager(this, provider);
+  }
+
+  public String getUnitName() {
+    return unitName;
+  }
+
+  public UnitOfWork getUnitOfWork() {
+    return unitOfWork;
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (method.getDeclaringClass() == Object.class) {
+      if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      else if (name.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      }
+      else if (name.equals("toString")) {
+        return "SharedEntityManager[" + (unitName.length() > 0 ? unitName : "default") + "]";
+      }
+    }
+    else if (name.equals("isOpen")) {
+      return true;
+    }
+    else if (name.equals("close")) {
+      throw new IllegalStateException(
+          "Cannot close a shared EntityManager; it is closed at the end of the unit of work");
+    }
+
+    if (!unitOfWork.isActive()) {
+      if (name.equals("getTransaction") || name.equals("joinTransaction")) {
+        throw new IllegalStateException("Cannot use the transaction of a shared EntityManager "
+            + "outside of a unit of work");
+      }
+      if (TRANSACTION_REQUIRING_METHODS.contains(name)) {
+        throw new TransactionRequiredException("Cannot call " + name + "() on a shared "
+            + "EntityManager outside of a unit of work as the changes would be lost");
+      }
+      return invokeInNewEntityManager(method, args);
+    }
+    return invokeMethod(getTargetEntityManager(), method, args);
+  }
+
+  /**
+   * Invokes the method on a new entity manager which is closed when the call completes or, if the
+   * call creates a query, when the query is executed
+   */
+  protected Object invokeInNewEntityManager(Method method, Object[] args) throws Throwable {
+    EntityManager target = provider.get();
+    boolean close = true;
+    try {
+      Object answer = invokeMethod(target, method, args);
+      if (answer instanceof Query) {
+        close = false;
+        return Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[] { Query.class },
+            new DeferredCloseQuery((Query) answer, target));
+      }
+      return answer;
+    }
+    finally {
+      if (close) {
+        target.close();
+      }
+    }
+  }
+
+  private static Object invokeMethod(Object target, Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    }
+    catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    }
+  }
+
+  /**
+   * A query created outside of a unit of work which closes its entity manager once it has been
+   * executed
+   */
+  private static class DeferredCloseQuery implements InvocationHandler {
+    private final Query query;
+    private final EntityManager entityManager;
+
+    DeferredCloseQuery(Query query, EntityManager entityManager) {
+      this.query = query;
+      this.entityManager = entityManager;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (method.getDeclaringClass() == Object.class) {
+        if (name.equals("equals")) {
+          return proxy == args[0];
+        }
+        else if (name.equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        }
+      }
+      try {
+        if (name.equals("executeUpdate")) {
+          throw new TransactionRequiredException("Cannot execute an update query created by a "
+              + "shared EntityManager outside of a unit of work");
+        }
+        Object answer = invokeMethod(query, method, args);
+        // lets keep the proxy when the fluent setters return the query
+        return answer == query ? proxy : answer;
+      }
+      finally {
+        if (name.equals("getResultList") || name.equals("getSingleResult")
+            || name.equals("executeUpdate")) {
+          if (entityManager.isOpen()) {
+            entityManager.close();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.guiceyfruit.jpa.Propagation;
+import org.guiceyfruit.jpa.ReadOnly;
+import org.guiceyfruit.jpa.Transactional;
+
+/**
+ * The transaction attributes of a method taken from the GuiceyFruit {@link Transactional}
+ * annotation or from Spring's or JTA's <code>@Transactional</code> annotations, which are matched
+ * by name as they are not available in all environments
+ *
+ * @version $Revision: 1.1 $
+ */
+public class TransactionAttributes {
+  private static final String SPRING_TRANSACTIONAL
+      = "org.springframework.transaction.annotation.Transactional";
+  private static final String JTA_TRANSACTIONAL = "javax.transaction.Transactional";
+  private static final Class<?>[] NO_CLASSES = new Class<?>[0];
+
+  private final Propagation propagation;
+  private final boolean readOnly;
+  private final String unitName;
+  private final Class<?>[] rollbackFor;
+  private final Class<?>[] noRollbackFor;
+
+  public TransactionAttributes(Propagation propagation, boolean readOnly, String unitName,
+      Class<?>[] rollbackFor, Class<?>[] noRollbackFor) {
+    this.propagation = propagation;
+    this.readOnly = readOnly;
+    this.unitName = unitName;
+    this.rollbackFor = rollbackFor;
+    this.noRollbackFor = noRollbackFor;
+  }
+
+  /**
+   * Returns the attributes of the transactional annotation on the given method or its declaring
+   * class or null if the method is not transactional
+   *
+   * @throws UnsupportedOperationException if the annotation uses an unsupported propagation
+   */
+  public static TransactionAttributes getAttributes(Method method) {
+    Annotation annotation = findTransactionalAnnotation(method);
+    if (annotation == null) {
+      return null;
+    }
+    boolean readOnly = isReadOnly(method);
+    if (annotation instanceof Transactional) {
+      Transactional transactional = (Transactional) annotation;
+      return new TransactionAttributes(transactional.propagation(),
+          readOnly || transactional.readOnly(), transactional.unitName(),
+          transactional.rollbackFor(), transactional.noRollbackFor());
+    }
+
+    String type = annotation.annotationType().getName();
+    if (type.equals(SPRING_TRANSACTIONAL)) {
+      return new TransactionAttributes(getPropagation(method, attribute(annotation, "propagation")),
+          readOnly || Boolean.TRUE.equals(attribute(annotation, "readOnly")), "",
+          classes(attribute(annotation, "rollbackFor")),
+          classes(attribute(annotation, "noRollbackFor")));
+    }
+    else {
+      return new TransactionAttributes(getPropagation(method, attribute(annotation, "value")),
+          readOnly, "", classes(attribute(annotation, "rollbackOn")),
+          classes(attribute(annotation, "dontRollbackOn")));
+    }
+  }
+
+  /** Returns true if the method or its declaring class is annotated with {@link ReadOnly} */
+  public static boolean isReadOnly(Method method) {
+    return method.isAnnotationPresent(ReadOnly.class)
+        || method.getDeclaringClass().isAnnotationPresent(ReadOnly.class);
+  }
+
+  /**
+   * Returns the transactional annotation of the method or its declaring class or null if there is
+   * none
+   */
+  public static Annotation findTransactionalAnnotation(Method method) {
+    Annotation answer = findTransactionalAnnotation(method.getAnnotations());
+    if (answer == null) {
+      answer = findTransactionalAnnotation(method.getDeclaringClass().getAnnotations());
+    }
+    return answer;
+  }
+
+  /** Returns true if the given annotation demarcates transactions */
+  public static boolean isTransactionalAnnotation(Annotation annotation) {
+    if (annotation instanceof Transactional) {
+      return true;
+    }
+    String name = annotation.annotationType().getName();
+    return name.equals(SPRING_TRANSACTIONAL) || name.equals(JTA_TRANSACTIONAL);
+  }
+
+  private static Annotation findTransactionalAnnotation(Annotation[] annotations) {
+    for (Annotation annotation : annotations) {
+      if (isTransactionalAnnotation(annotation)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  private static Propagation getPropagation(Method method, Object value) {
+    if (value == null) {
+      return Propagation.REQUIRED;
+    }
+    String name = ((Enum<?>) value).name();
+    try {
+      return Propagation.valueOf(name);
+    }
+    catch (IllegalArgumentException e) {
+      throw new UnsupportedOperationException(
+          "Transaction propagation " + name + " is not supported on " + method);
+    }
+  }
+
+  private static Object attribute(Annotation annotation, String name) {
+    try {
+      return annotation.annotationType().getMethod(name).invoke(annotation);
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
+    catch (IllegalAccessException e) {
+      return null;
+    }
+    catch (InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  private static Class<?>[] classes(Object value) {
+    return value instanceof Class<?>[] ? (Class<?>[]) value : NO_CLASSES;
+  }
+
+  public Propagation getPropagation() {
+    return propagation;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  public String getUnitName() {
+    return unitName;
+  }
+
+  /**
+   * Returns true if the given exception should roll back the transaction. The closest superclass
+   * of the exception listed as a rollback or no rollback exception wins; by default runtime
+   * exceptions and errors roll back the transaction.
+   */
+  public boolean isRollbackFor(Throwable exception) {
+    int rollbackDepth = getDepth(exception.getClass(), rollbackFor);
+    int noRollbackDepth = getDepth(exception.getClass(), noRollbackFor);
+    if (rollbackDepth >= 0 || noRollbackDepth >= 0) {
+      return noRollbackDepth < 0 || (rollbackDepth >= 0 && rollbackDepth <= noRollbackDepth);
+    }
+    return exception instanceof RuntimeException || exception instanceof Error;
+  }
+
+  /**
+   * Returns the number of superclasses between the exception type and the closest of the given
+   * types or -1 if it is not an instance of any of them
+   */
+  private static int getDepth(Class<?> exceptionType, Class<?>[] types) {
+    int depth = 0;
+    for (Class<?> type = exceptionType; type != null; type = type.getSuperclass()) {
+      for (Class<?> candidate : types) {
+        if (candidate.equals(type)) {
+          return depth;
+        }
+      }
+      depth++;
+    }
+    return -1;
+  }
+}
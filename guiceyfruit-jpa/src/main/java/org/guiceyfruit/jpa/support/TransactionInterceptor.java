@@ -0,0 +1,194 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.guiceyfruit.jpa.Propagation;
+import org.guiceyfruit.jpa.ReadWriteRouting;
+import org.guiceyfruit.jpa.UnitOfWork;
+
+/**
+ * Demarcates resource local transactions around methods annotated with {@link
+ * org.guiceyfruit.jpa.Transactional} or Spring's or JTA's <code>@Transactional</code> using the
+ * entity manager of the current {@link UnitOfWork}. A unit of work is begun for the outermost
+ * transaction if there is none active and is ended when the transaction completes.
+ * <p/>
+ * Read only transactions set the flush mode of the entity manager to {@link FlushModeType#COMMIT}
+ * and, if the persistence provider allows, disable flushing and dirty checking entirely. Read only
+ * transactions which begin a unit of work mark it as read only so that it can be routed to a
+ * replica by the {@link org.guiceyfruit.jpa.ReadWriteRouting}. A transaction which writes to a
+ * routed unit when the active unit of work is read only suspends it and begins a new unit of work
+ * so that the writes go to the primary unit rather than a replica.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class TransactionInterceptor implements MethodInterceptor {
+  private final ConcurrentMap<Method, TransactionAttributes> attributesCache
+      = new ConcurrentHashMap<Method, TransactionAttributes>();
+  private Provider<PersistenceMemberProvider> persistenceProvider;
+  private UnitOfWork unitOfWork;
+  private ReadWriteRouting readWriteRouting;
+
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    TransactionAttributes attributes = getAttributes(invocation.getMethod());
+
+    Object suspended = null;
+    if (unitOfWork.isActive() && (attributes.getPropagation() == Propagation.REQUIRES_NEW
+        || isWriteInReadOnlyWork(attributes))) {
+      suspended = unitOfWork.suspend();
+    }
+    boolean beganWork = false;
+    if (!unitOfWork.isActive()) {
+      unitOfWork.begin();
+      beganWork = true;
+
+      // lets allow the entity managers of read only transactions to be routed to a replica
+      unitOfWork.setReadOnly(attributes.isReadOnly());
+    }
+    try {
+      EntityManager entityManager = persistenceProvider.get()
+          .getSharedEntityManager(attributes.getUnitName());
+      EntityTransaction transaction = entityManager.getTransaction();
+      if (transaction.isActive()) {
+        return invokeInActiveTransaction(invocation, attributes, transaction);
+      }
+      return invokeInNewTransaction(invocation, attributes, entityManager, transaction);
+    }
+    finally {
+      if (beganWork) {
+        unitOfWork.end();
+      }
+      if (suspended != null) {
+        unitOfWork.resume(suspended);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the transaction writes to a routed persistence unit while the active unit of
+   * work is read only, so its entity managers may be those of a replica
+   */
+  protected boolean isWriteInReadOnlyWork(TransactionAttributes attributes) {
+    return !attributes.isReadOnly() && unitOfWork.isReadOnly() && readWriteRouting != null
+        && readWriteRouting.isRouted(attributes.getUnitName());
+  }
+
+  protected Object invokeInActiveTransaction(MethodInvocation invocation,
+      TransactionAttributes attributes, EntityTransaction transaction) throws Throwable {
+    try {
+      return invocation.proceed();
+    }
+    catch (Throwable e) {
+      if (attributes.isRollbackFor(e)) {
+        transaction.setRollbackOnly();
+      }
+      throw e;
+    }
+  }
+
+  protected Object invokeInNewTransaction(MethodInvocation invocation,
+      TransactionAttributes attributes, EntityManager entityManager,
+      EntityTransaction transaction) throws Throwable {
+    FlushModeType flushMode = entityManager.getFlushMode();
+    if (attributes.isReadOnly()) {
+      EntityManagers.setReadOnly(entityManager, true, flushMode);
+    }
+    try {
+      transaction.begin();
+      Object answer;
+      try {
+        answer = invocation.proceed();
+      }
+      catch (Throwable e) {
+        if (attributes.isRollbackFor(e) || transaction.getRollbackOnly()) {
+          rollback(transaction);
+        }
+        else {
+          transaction.commit();
+        }
+        throw e;
+      }
+      if (transaction.getRollbackOnly()) {
+        transaction.rollback();
+      }
+      else {
+        transaction.commit();
+      }
+      return answer;
+    }
+    finally {
+      if (attributes.isReadOnly()) {
+        EntityManagers.setReadOnly(entityManager, false, flushMode);
+      }
+    }
+  }
+
+  private void rollback(EntityTransaction transaction) {
+    try {
+      transaction.rollback();
+    }
+    catch (RuntimeException e) {
+      // lets not hide the exception which caused the rollback
+    }
+  }
+
+  protected TransactionAttributes getAttributes(Method method) {
+    TransactionAttributes answer = attributesCache.get(method);
+    if (answer == null) {
+      answer = TransactionAttributes.getAttributes(method);
+      if (answer == null) {
+        throw new IllegalStateException("Method is not transactional: " + method);
+      }
+      attributesCache.put(method, answer);
+    }
+    return answer;
+  }
+
+  public UnitOfWork getUnitOfWork() {
+    return unitOfWork;
+  }
+
+  @Inject
+  public void setUnitOfWork(UnitOfWork unitOfWork) {
+    this.unitOfWork = unitOfWork;
+  }
+
+  public ReadWriteRouting getReadWriteRouting() {
+    return readWriteRouting;
+  }
+
+  @Inject
+  public void setReadWriteRouting(ReadWriteRouting readWriteRouting) {
+    this.readWriteRouting = readWriteRouting;
+  }
+
+  @Inject
+  public void setPersistenceProvider(Provider<PersistenceMemberProvider> persistenceProvider) {
+    this.persistenceProvider = persistenceProvider;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa.support;
+
+import com.google.inject.matcher.AbstractMatcher;
+import java.lang.reflect.Method;
+
+/**
+ * Matches the methods which are annotated, or whose declaring class is annotated, with a
+ * transactional annotation supported by {@link TransactionAttributes}
+ * <p/>
+ * The attributes of each matched method are checked when it is matched so that an annotation which
+ * uses an unsupported propagation fails when the injector binds the class rather than when the
+ * method is first called.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class TransactionalMatcher extends AbstractMatcher<Method> {
+
+  /**
+   * @throws UnsupportedOperationException if the annotation of the method uses an unsupported
+   * propagation
+   */
+  public boolean matches(Method method) {
+    if (method.isSynthetic()
+        || TransactionAttributes.findTransactionalAnnotation(method) == null) {
+      return false;
+    }
+    TransactionAttributes.getAttributes(method);
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "transactional()";
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jpa.support.BulkWriter;
+import org.guiceyfruit.jpa.support.QueryStream;
+
+/** @version $Revision: 1.1 $ */
+public class BulkOperationsTest extends TestCase {
+  /** The number of rows can be reduced using a system property when running the tests locally */
+  protected static final int ROWS = Integer.getInteger("org.guiceyfruit.jpa.bulkRows", 1000000);
+  protected static final int ROWS_PER_TRANSACTION = 100000;
+  protected static final int FETCH_SIZE = 1000;
+  protected static final int BATCH_SIZE = 500;
+
+  protected Injector injector;
+  protected PersonLoader loader;
+
+  public void testStreamAndWriteMillionRows() throws Exception {
+    long written = 0;
+    for (int first = 0; first < ROWS; first += ROWS_PER_TRANSACTION) {
+      written += loader.write(first, Math.min(ROWS_PER_TRANSACTION, ROWS - first));
+    }
+    assertEquals(ROWS, written);
+
+    assertEquals(ROWS, loader.read());
+  }
+
+  public void testStreamCanBeClosedEarly() throws Exception {
+    loader.write(0, 10);
+    assertEquals(5, loader.readFirst(5));
+  }
+
+  public void testStreamFlushesChangesBeforeClearing() throws Exception {
+    int count = 2 * FETCH_SIZE + 1;
+    loader.write(0, count);
+    assertEquals(count, loader.rename());
+    assertEquals("Changes should not be discarded when the stream clears", count,
+        loader.countRenamed());
+  }
+
+  public void testBulkOperationsRequireUnitOfWork() throws Exception {
+    BulkOperations bulkOperations = injector.getInstance(BulkOperations.class);
+    try {
+      bulkOperations.stream("select p from Person p order by p.id");
+      fail("Should not stream outside of a unit of work");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      bulkOperations.writer();
+      fail("Should not write outside of a unit of work");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    injector = Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bindConstant().annotatedWith(Names.named(BulkOperations.FETCH_SIZE)).to(FETCH_SIZE);
+        bindConstant().annotatedWith(Names.named(PersistenceUnits.BATCH_SIZE))
+            .to(BATCH_SIZE);
+      }
+    });
+    loader = injector.getInstance(PersonLoader.class);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Injectors.close(injector);
+  }
+
+  public static class PersonLoader {
+    @Inject
+    BulkOperations bulkOperations;
+
+    @Transactional
+    public long write(int first, int count) {
+      BulkWriter writer = bulkOperations.writer();
+      Person firstPerson = null;
+      for (int i = first; i < first + count; i++) {
+        Person person = new Person("person" + i);
+        writer.persist(person);
+        if (firstPerson == null) {
+          firstPerson = person;
+        }
+      }
+      writer.close();
+
+      assertEquals(count / BATCH_SIZE + (count % BATCH_SIZE == 0 ? 0 : 1), writer.getFlushCount());
+      assertFalse("Flushed entities should be detached",
+          bulkOperations.getEntityManager().contains(firstPerson));
+      return writer.getCount();
+    }
+
+    @Transactional(readOnly = true)
+    public long read() {
+      QueryStream<Person> stream = bulkOperations.stream(
+          "select p from Person p where p.name like ?1 order by p.id", "person%");
+      Person firstPerson = null;
+      long count = 0;
+      for (Person person : stream) {
+        if (firstPerson == null) {
+          firstPerson = person;
+        }
+        else if (count == FETCH_SIZE) {
+          assertFalse("Read entities should be detached after each batch",
+              bulkOperations.getEntityManager().contains(firstPerson));
+        }
+        assertEquals("person" + count, person.getName());
+        count++;
+      }
+      assertEquals(count, stream.getCount());
+      assertEquals(count / FETCH_SIZE, stream.getClearCount());
+      return count;
+    }
+
+    @Transactional
+    public int rename() {
+      QueryStream<Person> stream = bulkOperations.stream("select p from Person p order by p.id");
+      int answer = 0;
+      for (Person person : stream) {
+        person.setName("renamed" + answer++);
+      }
+      return answer;
+    }
+
+    @Transactional(readOnly = true)
+    public long countRenamed() {
+      return (Long) bulkOperations.getEntityManager()
+          .createQuery("select count(p) from Person p where p.name like 'renamed%'")
+          .getSingleResult();
+    }
+
+    @Transactional(readOnly = true)
+    public int readFirst(int count) {
+      QueryStream<Person> stream = bulkOperations.stream("select p from Person p order by p.id");
+      int answer = 0;
+      try {
+        while (answer < count && stream.hasNext()) {
+          stream.next();
+          answer++;
+        }
+      }
+      finally {
+        stream.close();
+      }
+      assertFalse(stream.hasNext());
+      return answer;
+    }
+  }
+}
@@ -30,7 +30,11 @@ import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.persistence.TransactionRequiredException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.guiceyfruit.jpa.support.SharedEntityManager;
 
 /**
  * @version $Revision: 1.1 $
@@ -77,7 +81,144 @@ public class InjectionTest extends TestCase {
         });
 
         TestDTO testDTO = injector.getInstance(TestDTO.class);
-        assertEquals("EntityManager", stubEntityManager, testDTO.getEntityManager());
+        EntityManager entityManager = testDTO.getEntityManager();
+        assertNotNull("EntityManager", entityManager);
+        assertNotSame("Should inject a shared EntityManager", stubEntityManager, entityManager);
+
+        UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+        unitOfWork.begin();
+        entityManager.flush();
+        assertSame("EntityManager", stubEntityManager,
+                unitOfWork.getCurrentEntityManager(SharedEntityManager.getSharedEntityManager(
+                        entityManager)));
+        unitOfWork.end();
+        assertFalse("Should have closed the EntityManager", stubEntityManager.isOpen());
+    }
+
+    public void testSharedEntityManagerBoundToUnitOfWork() throws Exception {
+        final List<EntityManager> created = new CopyOnWriteArrayList<EntityManager>();
+        Injector injector = Guice.createInjector(new JpaModule() {
+
+            @Provides
+            public EntityManager createEntityManager() {
+                EntityManager answer = createStubEntityManager();
+                created.add(answer);
+                return answer;
+            }
+        });
+
+        final TestDTO dto1 = injector.getInstance(TestDTO.class);
+        TestDTO dto2 = injector.getInstance(TestDTO.class);
+        assertSame("Should share the EntityManager", dto1.getEntityManager(),
+                dto2.getEntityManager());
+        assertEquals("Should create EntityManagers lazily", 0, created.size());
+
+        final UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+        unitOfWork.begin();
+        dto1.getEntityManager().flush();
+        dto2.getEntityManager().clear();
+        assertEquals("Should reuse the EntityManager in the unit of work", 1, created.size());
+
+        Thread thread = new Thread() {
+            public void run() {
+                unitOfWork.begin();
+                try {
+                    dto1.getEntityManager().flush();
+                }
+                finally {
+                    unitOfWork.end();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals("Each thread should use its own EntityManager", 2, created.size());
+        assertFalse("Should have closed the other thread's EntityManager",
+                created.get(1).isOpen());
+        assertTrue(created.get(0).isOpen());
+
+        unitOfWork.end();
+        assertFalse("Should have closed the EntityManager", created.get(0).isOpen());
+        assertFalse(unitOfWork.isActive());
+
+        try {
+            dto1.getEntityManager().close();
+            fail("Should not be able to close a shared EntityManager");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testSharedEntityManagerOutsideUnitOfWork() throws Exception {
+        final List<EntityManager> created = new CopyOnWriteArrayList<EntityManager>();
+        Injector injector = Guice.createInjector(new JpaModule() {
+
+            @Provides
+            public EntityManager createEntityManager() {
+                EntityManager answer = createStubEntityManager();
+                created.add(answer);
+                return answer;
+            }
+        });
+
+        TestDTO dto = injector.getInstance(TestDTO.class);
+        UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+        dto.getEntityManager().contains(new Object());
+        dto.getEntityManager().clear();
+        assertEquals("Should use a new EntityManager for each call", 2, created.size());
+        assertFalse("Should have closed the EntityManager", created.get(0).isOpen());
+        assertFalse("Should have closed the EntityManager", created.get(1).isOpen());
+        assertFalse("Should not begin a unit of work", unitOfWork.isActive());
+
+        try {
+            dto.getEntityManager().getTransaction();
+            fail("Should not use a transaction outside of a unit of work");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testSharedEntityManagerWritesRequireUnitOfWork() throws Exception {
+        final List<EntityManager> created = new CopyOnWriteArrayList<EntityManager>();
+        Injector injector = Guice.createInjector(new JpaModule() {
+
+            @Provides
+            public EntityManager createEntityManager() {
+                EntityManager answer = createStubEntityManager();
+                created.add(answer);
+                return answer;
+            }
+        });
+
+        EntityManager entityManager = injector.getInstance(TestDTO.class).getEntityManager();
+        try {
+            entityManager.persist(new Object());
+            fail("Should not persist outside of a unit of work");
+        }
+        catch (TransactionRequiredException e) {
+            // expected
+        }
+        try {
+            entityManager.flush();
+            fail("Should not flush outside of a unit of work");
+        }
+        catch (TransactionRequiredException e) {
+            // expected
+        }
+        assertTrue("Should not create an EntityManager", created.isEmpty());
+
+        UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+        unitOfWork.begin();
+        try {
+            entityManager.persist(new Object());
+            entityManager.flush();
+        }
+        finally {
+            unitOfWork.end();
+        }
+        assertEquals(1, created.size());
     }
 
     protected EntityManager createStubEntityManager() {
@@ -167,14 +308,14 @@ public class InjectionTest extends TestCase {
                 return null;
             }
 
-            public void close() {
-                // TODO
+            boolean open = true;
 
+            public void close() {
+                open = false;
             }
 
             public boolean isOpen() {
-                // TODO
-                return false;
+                return open;
             }
 
             public EntityTransaction getTransaction() {
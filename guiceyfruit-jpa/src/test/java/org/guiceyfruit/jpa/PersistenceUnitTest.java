@@ -0,0 +1,172 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jpa.PersistenceUnits.BootstrapMode;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+
+/** @version $Revision: 1.1 $ */
+public class PersistenceUnitTest extends TestCase {
+
+  public void testUnitsFoundInPersistenceXml() throws Exception {
+    assertEquals(Arrays.asList("test", "replica1", "replica2"),
+        PersistenceUnits.findUnitNames(getClass().getClassLoader()));
+  }
+
+  public void testUnitsFoundUsingContextClassLoader() throws Exception {
+    File dir = new File("target/context-units/META-INF");
+    dir.mkdirs();
+    FileWriter writer = new FileWriter(new File(dir, "persistence.xml"));
+    try {
+      writer.write("<persistence><persistence-unit name=\"application\"/></persistence>");
+    }
+    finally {
+      writer.close();
+    }
+
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(
+        new URLClassLoader(new URL[] { dir.getParentFile().toURI().toURL() }, null));
+    try {
+      assertEquals(Arrays.asList("application"), new PersistenceUnits().getUnitNames());
+    }
+    finally {
+      thread.setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  public void testParallelBootstrap() throws Exception {
+    Injector injector = Guice.createInjector(new JpaModule());
+    PersistenceUnits units = injector.getInstance(PersistenceUnits.class);
+    assertEquals(BootstrapMode.PARALLEL, units.getBootstrapMode());
+
+    FactoryBean bean = injector.getInstance(FactoryBean.class);
+    EntityManagerFactory factory = units.getEntityManagerFactory("test");
+    assertTrue(units.isStarted("test"));
+    assertCanCreateEntityManager(bean.entityManagerFactory);
+
+    Injectors.close(injector);
+    assertFalse("Should have closed the factory", factory.isOpen());
+  }
+
+  public void testLazyBootstrap() throws Exception {
+    Injector injector = Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bindConstant().annotatedWith(Names.named(PersistenceUnits.BOOTSTRAP_MODE))
+            .to(BootstrapMode.LAZY);
+      }
+    });
+    PersistenceUnits units = injector.getInstance(PersistenceUnits.class);
+    assertEquals(BootstrapMode.LAZY, units.getBootstrapMode());
+
+    FactoryBean bean = injector.getInstance(FactoryBean.class);
+    assertNotNull(bean.entityManagerFactory);
+    assertSame("Should inject the same factory", bean.entityManagerFactory,
+        injector.getInstance(FactoryBean.class).entityManagerFactory);
+    assertFalse("Should not have started the unit until it is used", units.isStarted("test"));
+
+    assertCanCreateEntityManager(bean.entityManagerFactory);
+    assertTrue(units.isStarted("test"));
+
+    try {
+      bean.entityManagerFactory.close();
+      fail("Should not be able to close a managed factory");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+
+    EntityManagerFactory factory = units.getEntityManagerFactory("");
+    Injectors.close(injector);
+    assertFalse("Should have closed the factory", factory.isOpen());
+  }
+
+  public void testUnitsNotStartedWhenEntityManagerBound() throws Exception {
+    Injector injector = Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bind(EntityManager.class).toProvider(new Provider<EntityManager>() {
+          public EntityManager get() {
+            throw new IllegalStateException("Should not create an EntityManager");
+          }
+        });
+      }
+    });
+    PersistenceUnits units = injector.getInstance(PersistenceUnits.class);
+    assertFalse("Should not have started the unit", units.isStarted("test"));
+    Injectors.close(injector);
+  }
+
+  public void testBatchSizePassedToPersistenceProvider() throws Exception {
+    Injector injector = Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bindConstant().annotatedWith(Names.named(PersistenceUnits.BATCH_SIZE)).to(50);
+      }
+    });
+    PersistenceUnits units = injector.getInstance(PersistenceUnits.class);
+    assertEquals(50, units.getBatchSize());
+    assertEquals("50", units.getUnitProperties("test").get("eclipselink.jdbc.batch-writing.size"));
+
+    // Person uses an identity id which disables insert batching so lets check the setting itself
+    EntityManagerFactory factory = units.getEntityManagerFactory("test");
+    SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+        ((HibernateEntityManagerFactory) factory).getSessionFactory();
+    assertEquals(50, sessionFactory.getSettings().getJdbcBatchSize());
+
+    Injectors.close(injector);
+  }
+
+  protected void assertCanCreateEntityManager(EntityManagerFactory factory) {
+    assertTrue(factory.isOpen());
+    EntityManager entityManager = factory.createEntityManager();
+    try {
+      assertNotNull(entityManager);
+      assertTrue(entityManager.isOpen());
+    }
+    finally {
+      entityManager.close();
+    }
+  }
+
+  public static class FactoryBean {
+    @PersistenceUnit
+    EntityManagerFactory entityManagerFactory;
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+import java.util.HashSet;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jpa.support.LeastLoadedReplicaSelector;
+
+/** @version $Revision: 1.1 $ */
+public class ReadWriteRoutingTest extends TestCase {
+  protected Injector injector;
+
+  public void testReadOnlyUnitsOfWorkUseReplicas() throws Exception {
+    injector = createInjector(new AbstractModule() {
+      protected void configure() {
+      }
+    });
+    PersonDao dao = injector.getInstance(PersonDao.class);
+    ReadWriteRouting routing = injector.getInstance(ReadWriteRouting.class);
+    assertEquals("test", routing.getPrimaryUnit());
+
+    dao.create("James");
+    assertEquals("Writes should use the primary", 1, dao.count());
+
+    // lets give one of the replicas different data so we can see which replica is used
+    createPerson("replica1", "Rob");
+
+    Set<Long> counts = new HashSet<Long>();
+    counts.add(dao.countReadOnly());
+    counts.add(dao.countReadOnly());
+    assertEquals("Should use each replica in turn", 2, counts.size());
+    assertFalse("Should not read from the primary", counts.contains(2L));
+
+    counts.clear();
+    counts.add(dao.countReplica());
+    counts.add(dao.countReplica());
+    assertEquals("Should use each replica in turn", 2, counts.size());
+  }
+
+  public void testWritesInReadOnlyUnitsOfWorkUsePrimary() throws Exception {
+    injector = createInjector(new AbstractModule() {
+      protected void configure() {
+      }
+    });
+    PersonDao dao = injector.getInstance(PersonDao.class);
+    ReadOnlyService service = injector.getInstance(ReadOnlyService.class);
+
+    assertEquals(0, service.createReadOnly("James"));
+    assertEquals(0, service.createInReadOnlyTransaction("Hiram"));
+    assertEquals("Writes should use the primary", 2, dao.count());
+    assertEquals("Should not write to the replicas", 0, dao.countReplica());
+    assertEquals("Should not write to the replicas", 0, dao.countReplica());
+  }
+
+  public void testLeastLoadedReplicaSelector() throws Exception {
+    injector = createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(ReplicaSelector.class).to(LeastLoadedReplicaSelector.class);
+      }
+    });
+    PersonDao dao = injector.getInstance(PersonDao.class);
+    UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+    LeastLoadedReplicaSelector selector = injector.getInstance(LeastLoadedReplicaSelector.class);
+
+    unitOfWork.begin();
+    unitOfWork.setReadOnly(true);
+    assertEquals(0, dao.countReplica());
+    assertEquals(1, selector.getLoad("replica1") + selector.getLoad("replica2"));
+
+    unitOfWork.end();
+
+    assertEquals(0, selector.getLoad("replica1"));
+    assertEquals(0, selector.getLoad("replica2"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (injector != null) {
+      Injectors.close(injector);
+    }
+  }
+
+  protected Injector createInjector(Module module) {
+    return Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bindConstant().annotatedWith(Names.named(ReadWriteRouting.REPLICA_UNITS))
+            .to("replica1 replica2");
+      }
+    }, module);
+  }
+
+  protected void createPerson(String unitName, String name) {
+    PersistenceUnits units = injector.getInstance(PersistenceUnits.class);
+    EntityManagerFactory factory = units.getEntityManagerFactory(unitName);
+    EntityManager entityManager = factory.createEntityManager();
+    try {
+      entityManager.getTransaction().begin();
+      entityManager.persist(new Person(name));
+      entityManager.getTransaction().commit();
+    }
+    finally {
+      entityManager.close();
+    }
+  }
+
+  public static class ReadOnlyService {
+    @Inject
+    PersonDao dao;
+
+    /** Writes and then returns the count of the replica used by the unit of work */
+    @ReadOnly
+    public long createReadOnly(String name) {
+      dao.create(name);
+      return dao.queryCount();
+    }
+
+    @Transactional(readOnly = true)
+    public long createInReadOnlyTransaction(String name) {
+      dao.create(name);
+      return dao.queryCount();
+    }
+  }
+
+  public static class PersonDao {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Transactional
+    public void create(String name) {
+      entityManager.persist(new Person(name));
+    }
+
+    @Transactional
+    public long count() {
+      return queryCount();
+    }
+
+    @Transactional(readOnly = true)
+    public long countReadOnly() {
+      return queryCount();
+    }
+
+    @ReadOnly
+    public long countReplica() {
+      return queryCount();
+    }
+
+    protected long queryCount() {
+      return ((Number) entityManager.createQuery("select count(p) from Person p")
+          .getSingleResult()).longValue();
+    }
+  }
+}
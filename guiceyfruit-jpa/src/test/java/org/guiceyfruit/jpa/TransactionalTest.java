@@ -0,0 +1,206 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jpa;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import java.io.IOException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+
+/** @version $Revision: 1.1 $ */
+public class TransactionalTest extends TestCase {
+  protected Injector injector;
+  protected PersonService service;
+
+  public void testCommitAndRollback() throws Exception {
+    service.create("James");
+    assertEquals(1, service.count());
+
+    try {
+      service.createAndFail("Rob", new IllegalStateException("expected"));
+      fail("Should have thrown an exception");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals("Runtime exceptions should roll back", 1, service.count());
+
+    try {
+      service.createAndFail("Hiram", new Exception("expected"));
+      fail("Should have thrown an exception");
+    }
+    catch (Exception e) {
+      // expected
+    }
+    assertEquals("Checked exceptions should commit", 2, service.count());
+
+    try {
+      service.createAndFailWithRollback("Guillaume", new IOException("expected"));
+      fail("Should have thrown an exception");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertEquals("Rollback exceptions should roll back", 2, service.count());
+
+    assertFalse("The unit of work should have ended",
+        injector.getInstance(UnitOfWork.class).isActive());
+  }
+
+  public void testReadOnlyTransaction() throws Exception {
+    Long id = service.create("James");
+
+    service.renameReadOnly(id, "Changed");
+    assertEquals("Read only changes should not be flushed", "James", service.getName(id));
+
+    service.rename(id, "Changed");
+    assertEquals("Changed", service.getName(id));
+  }
+
+  public void testPropagation() throws Exception {
+    try {
+      service.createBothAndFail("James", "Rob", true);
+      fail("Should have thrown an exception");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals("Only the new transaction should have committed", 1, service.count());
+
+    service.createBothAndFail("Hiram", "Guillaume", false);
+    assertEquals("The joined transaction should have been rolled back", 1, service.count());
+  }
+
+  public void testClassLevelAnnotation() throws Exception {
+    injector.getInstance(ClassLevelService.class).create("James");
+    assertEquals(1, service.count());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    // the entity managers are created by the persistence unit defined in persistence.xml
+    injector = Guice.createInjector(new JpaModule() {
+      @Override
+      protected void configure() {
+        super.configure();
+        bindConstant().annotatedWith(Names.named(PersistenceUnits.BATCH_SIZE)).to(50);
+      }
+    });
+    service = injector.getInstance(PersonService.class);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Injectors.close(injector);
+  }
+
+  public static class PersonService {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    NestedService nested;
+
+    @Transactional
+    public Long create(String name) {
+      Person person = new Person(name);
+      entityManager.persist(person);
+      return person.getId();
+    }
+
+    @Transactional
+    public void createAndFail(String name, Exception e) throws Exception {
+      entityManager.persist(new Person(name));
+      throw e;
+    }
+
+    @Transactional(rollbackFor = IOException.class)
+    public void createAndFailWithRollback(String name, IOException e) throws IOException {
+      entityManager.persist(new Person(name));
+      throw e;
+    }
+
+    @Transactional
+    public void rename(Long id, String name) {
+      entityManager.find(Person.class, id).setName(name);
+    }
+
+    @Transactional(readOnly = true)
+    public void renameReadOnly(Long id, String name) {
+      entityManager.find(Person.class, id).setName(name);
+    }
+
+    @Transactional(readOnly = true)
+    public String getName(Long id) {
+      return entityManager.find(Person.class, id).getName();
+    }
+
+    @Transactional(readOnly = true)
+    public long count() {
+      return ((Number) entityManager.createQuery("select count(p) from Person p")
+          .getSingleResult()).longValue();
+    }
+
+    @Transactional
+    public void createBothAndFail(String name, String nestedName, boolean requiresNew) {
+      entityManager.persist(new Person(name));
+      if (requiresNew) {
+        nested.createInNewTransaction(nestedName);
+        throw new IllegalStateException("expected");
+      }
+      try {
+        nested.createAndFail(nestedName);
+      }
+      catch (IllegalStateException e) {
+        // the joined transaction should now only roll back
+      }
+    }
+  }
+
+  public static class NestedService {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void createInNewTransaction(String name) {
+      entityManager.persist(new Person(name));
+    }
+
+    @Transactional
+    public void createAndFail(String name) {
+      entityManager.persist(new Person(name));
+      throw new IllegalStateException("expected");
+    }
+  }
+
+  @Transactional
+  public static class ClassLevelService {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    public void create(String name) {
+      entityManager.persist(new Person(name));
+    }
+  }
+}
@@ -18,29 +18,109 @@
 
 package org.guiceyfruit.testing.junit3;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import org.guiceyfruit.testing.InjectorManager;
 
-/** @version $Revision: 1.1 $ */
+/**
+ * A base class for JUnit 3 tests which injects each test case before it is run.
+ * <p/>
+ * JUnit creates a separate instance for each test method, so test cases may be run concurrently,
+ * for example by an {@link junit.extensions.ActiveTestSuite}; each one enters its own test scope
+ * on the thread running it so its {@link org.guiceyfruit.testing.TestScoped} objects are not
+ * shared with the other tests.
+ * <p/>
+ * JUnit 3 has no notification of a test class completing so the test cases created for each test
+ * class are counted and the class is completed, closing its
+ * {@link org.guiceyfruit.testing.ClassScoped} objects and allowing its injector to be evicted, once
+ * all of them have been run.
+ *
+ * @version $Revision: 1.1 $
+ */
 public class GuiceyTestCase extends TestCase {
   protected static InjectorManager injectorManager;
+  private static final ConcurrentMap<Class<?>, AtomicInteger> pendingTests
+      = new ConcurrentHashMap<Class<?>, AtomicInteger>();
 
-  @Override
-  protected void setUp() throws Exception {
+  public GuiceyTestCase() {
+    testCreated();
+  }
+
+  public GuiceyTestCase(String name) {
+    super(name);
+    testCreated();
+  }
+
+  /**
+   * Creates the injectors for the given test classes in the background; test cases are created
+   * for all of the tests in a suite before any are run so this is called automatically if the
+   * {@link InjectorManager#PREFETCH_ENABLED} system property is <tt>true</tt>
+   */
+  public static void prefetch(Class<?>... testClasses) {
+    getInjectorManager().prefetch(testClasses);
+  }
+
+  protected static InjectorManager getInjectorManager() {
     synchronized (GuiceyTestCase.class) {
       if (injectorManager == null) {
         injectorManager = new InjectorManager();
         injectorManager.beforeClasses();
       }
+      return injectorManager;
     }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    InjectorManager manager = getInjectorManager();
 
     super.setUp();
 
-    injectorManager.beforeTest(this);
+    manager.beforeTest(this);
   }
 
   @Override
   protected void tearDown() throws Exception {
-    injectorManager.afterTest(this);
+    try {
+      getInjectorManager().afterTest(this);
+    }
+    finally {
+      try {
+        testCompleted();
+      }
+      finally {
+        super.tearDown();
+      }
+    }
+  }
+
+  private void testCreated() {
+    Class<?> testType = getClass();
+    AtomicInteger counter = pendingTests.get(testType);
+    if (counter == null) {
+      AtomicInteger newCounter = new AtomicInteger();
+      counter = pendingTests.putIfAbsent(testType, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.incrementAndGet();
+
+    InjectorManager manager = getInjectorManager();
+    if (manager.isPrefetchEnabled()) {
+      manager.prefetch(testType);
+    }
+  }
+
+  /** Completes the test class once all of the test cases created for it have been run */
+  private void testCompleted() throws Exception {
+    Class<?> testType = getClass();
+    AtomicInteger counter = pendingTests.get(testType);
+    if (counter != null && counter.decrementAndGet() <= 0) {
+      pendingTests.remove(testType, counter);
+      getInjectorManager().afterClasses(testType);
+    }
   }
 }
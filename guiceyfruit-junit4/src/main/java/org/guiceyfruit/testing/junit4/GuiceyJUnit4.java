@@ -25,13 +25,24 @@ import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.Statement;
 import org.junit.runner.notification.RunNotifier;
 
-/** @version $Revision: 1.1 $ */
+/**
+ * A JUnit 4 runner which injects test instances using Guice. The injectors are shared across all
+ * of the test classes using the same module so test classes and methods can be run concurrently.
+ *
+ * @version $Revision: 1.1 $
+ */
 public class GuiceyJUnit4 extends BlockJUnit4ClassRunner {
 
   protected static InjectorManager manager = new InjectorManager();
 
   public GuiceyJUnit4(Class<?> aClass) throws InitializationError {
     super(aClass);
+
+    // runners are created for all the classes in a suite before any are run so if prefetching is
+    // enabled lets create the injector in the background while the earlier classes run
+    if (manager.isPrefetchEnabled()) {
+      manager.prefetch(aClass);
+    }
   }
 
   @Override
@@ -53,7 +64,7 @@ public class GuiceyJUnit4 extends BlockJUnit4ClassRunner {
       public void evaluate() throws Throwable {
         parent.evaluate();
 
-        manager.afterClasses();
+        manager.afterClasses(getTestClass().getJavaClass());
       }
     };
   }
@@ -74,12 +85,15 @@ public class GuiceyJUnit4 extends BlockJUnit4ClassRunner {
   @Override
   protected Statement withAfters(FrameworkMethod frameworkMethod, final Object test,
       Statement statement) {
-    final Statement parent = super.withBefores(frameworkMethod, test, statement);
+    final Statement parent = super.withAfters(frameworkMethod, test, statement);
     return new Statement() {
       public void evaluate() throws Throwable {
-        parent.evaluate();
-
-        manager.afterTest(test);
+        try {
+          parent.evaluate();
+        }
+        finally {
+          manager.afterTest(test);
+        }
       }
     };
   }
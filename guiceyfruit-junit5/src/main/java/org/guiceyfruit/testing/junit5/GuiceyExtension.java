@@ -0,0 +1,84 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing.junit5;
+
+import java.util.function.Function;
+import org.guiceyfruit.testing.InjectorManager;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+
+/**
+ * A JUnit Jupiter extension which injects test instances using Guice; use it by annotating your
+ * test class with <code>@ExtendWith(GuiceyExtension.class)</code>. The module is found in the same
+ * way as the other test integrations using {@link org.guiceyfruit.testing.UseModule} or a nested
+ * <code>TestModule</code> class.
+ * <p/>
+ * A single {@link InjectorManager} is kept in the store of the root extension context so that
+ * injectors are shared by all of the test classes using the same module type; the singletons are
+ * closed when the test run completes. Each test method gets its own
+ * {@link org.guiceyfruit.testing.TestScoped} objects and each test class its own {@link
+ * org.guiceyfruit.testing.ClassScoped} objects so the extension can be used when
+ * <tt>junit.jupiter.execution.parallel.enabled</tt> runs classes and methods concurrently.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class GuiceyExtension implements AfterAllCallback, BeforeEachCallback, AfterEachCallback {
+  private static final Namespace NAMESPACE = Namespace.create(GuiceyExtension.class);
+
+  public void afterAll(ExtensionContext context) throws Exception {
+    getInjectorManager(context).afterClasses(context.getRequiredTestClass());
+  }
+
+  public void beforeEach(ExtensionContext context) throws Exception {
+    getInjectorManager(context).beforeTest(context.getRequiredTestInstance());
+  }
+
+  public void afterEach(ExtensionContext context) throws Exception {
+    getInjectorManager(context).afterTest(context.getRequiredTestInstance());
+  }
+
+  /** Returns the injector manager shared by all of the tests in the run */
+  protected InjectorManager getInjectorManager(ExtensionContext context) {
+    Store store = context.getRoot().getStore(NAMESPACE);
+    ClosableInjectorManager resource = store.getOrComputeIfAbsent(InjectorManager.class,
+        new Function<Class<InjectorManager>, ClosableInjectorManager>() {
+          public ClosableInjectorManager apply(Class<InjectorManager> key) {
+            return new ClosableInjectorManager();
+          }
+        }, ClosableInjectorManager.class);
+    return resource.manager;
+  }
+
+  /**
+   * Closes the singletons of the injectors and writes the injection report when the root context
+   * is closed at the end of the test run
+   */
+  static class ClosableInjectorManager implements Store.CloseableResource {
+    final InjectorManager manager = new InjectorManager();
+
+    public void close() throws Throwable {
+      manager.writeReport();
+      manager.closeSingletons();
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing.junit5.scopes;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.guiceyfruit.testing.TestScoped;
+
+/** @version $Revision: 1.1 $ */
+@TestScoped
+public class MethodCounter {
+  public static final Set<MethodCounter> started
+      = ConcurrentHashMap.<MethodCounter>newKeySet();
+  public static final Set<MethodCounter> stopped
+      = ConcurrentHashMap.<MethodCounter>newKeySet();
+
+  @PostConstruct
+  public void start() {
+    started.add(this);
+  }
+
+  @PreDestroy
+  public void stop() {
+    stopped.add(this);
+  }
+}
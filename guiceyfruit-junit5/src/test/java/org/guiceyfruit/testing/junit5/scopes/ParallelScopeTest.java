@@ -0,0 +1,71 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing.junit5.scopes;
+
+import com.google.inject.Inject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.guiceyfruit.jsr250.Jsr250Module;
+import org.guiceyfruit.testing.junit5.GuiceyExtension;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Runs the same test concurrently to check each test gets its own test scope while sharing the
+ * class scope
+ *
+ * @version $Revision: 1.1 $
+ */
+@ExtendWith(GuiceyExtension.class)
+public class ParallelScopeTest {
+  protected static final int REPETITIONS = 4;
+  protected static final CountDownLatch latch = new CountDownLatch(REPETITIONS);
+
+  @Inject
+  protected MethodCounter methodCounter;
+  @Inject
+  protected MethodCounter methodCounter2;
+  @Inject
+  protected ClassCounter classCounter;
+
+  @RepeatedTest(REPETITIONS)
+  public void testScopes() throws Exception {
+    Assertions.assertSame(methodCounter, methodCounter2, "methodCounter");
+    Assertions.assertNotNull(classCounter, "classCounter");
+
+    // lets wait for as many of the tests as we can to be running at the same time
+    latch.countDown();
+    latch.await(5, TimeUnit.SECONDS);
+
+    Assertions.assertFalse(MethodCounter.stopped.contains(methodCounter),
+        "methodCounter should not be closed by another test");
+  }
+
+  @AfterAll
+  public static void afterClass() {
+    Assertions.assertEquals(REPETITIONS, MethodCounter.started.size(), "MethodCounter started");
+    Assertions.assertEquals(REPETITIONS, MethodCounter.stopped.size(), "MethodCounter stopped");
+    Assertions.assertEquals(1, ClassCounter.started.size(), "ClassCounter started");
+  }
+
+  public static class TestModule extends Jsr250Module {
+  }
+}
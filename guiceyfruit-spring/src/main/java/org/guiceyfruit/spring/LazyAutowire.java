@@ -0,0 +1,47 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring;
+
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an {@link org.springframework.beans.factory.annotation.Autowired} member of type
+ * {@link java.util.List}, {@link java.util.Collection} or {@link java.util.Map} to be injected with
+ * an immutable view whose elements are only created from their bindings when they are first
+ * accessed rather than creating every matching object when the bean is injected.
+ * <p/>
+ * Elements of unscoped and singleton bindings are created once for each view; elements of bindings
+ * in other scopes are looked up from their scope on each access. Injecting a member declared as a
+ * collection or map type which cannot hold the view, such as a {@link java.util.Set} or a {@link
+ * java.util.HashMap}, fails with an error naming the types it may be declared as. The annotation
+ * has no effect on arrays and single values.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Documented
+@Target({ FIELD, METHOD, PARAMETER })
+@Retention(RUNTIME)
+public @interface LazyAutowire {
+}
@@ -28,20 +28,37 @@ import com.google.inject.matcher.Matchers;
 import com.google.inject.spi.InjectionListener;
 import com.google.inject.spi.TypeListener;
 import com.google.inject.spi.TypeEncounter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
 import java.util.Arrays;
 import java.util.Collections;
+import org.guiceyfruit.Lazy;
 import org.guiceyfruit.jsr250.Jsr250Module;
 import org.guiceyfruit.spring.support.AutowiredMemberProvider;
 import org.guiceyfruit.spring.support.DisposableBeanCloser;
+import org.guiceyfruit.spring.support.InjectorBeanFactory;
+import org.guiceyfruit.spring.support.LifecycleProcessor;
+import org.guiceyfruit.spring.support.ValueMemberProvider;
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * A module for injecting beans using the Spring annotations
+ * <p/>
+ * The singleton Spring {@link org.springframework.context.Lifecycle} beans can be started by calling
+ * {@link LifecycleProcessor#start()} and should be stopped by calling {@link
+ * LifecycleProcessor#stop()} before the injector is closed, as the order in which the singletons
+ * are closed is not defined; any beans which are still running are stopped when the processor
+ * itself is closed. Members annotated with {@link Value} are injected with the placeholders of
+ * their expression resolved from the {@link com.google.inject.name.Named} string constants of the
+ * injector.
  *
  * @version $Revision: 1.1 $
  */
 public class SpringModule extends Jsr250Module {
+  private static final String SPRING_VALUE = "org.springframework.beans.factory.annotation.Value";
 
   /**
    * Returns a new Injector with support for
@@ -59,6 +76,8 @@ public class SpringModule extends Jsr250Module {
     super.configure();
 
     bindAnnotationInjector(Autowired.class, AutowiredMemberProvider.class);
+    bindLazyInjection();
+    bindValueInjection();
 
     // TODO cannot use the matchers to perform subclass checks!
     bindListener(Matchers.any(), new TypeListener() {
@@ -83,6 +102,52 @@ public class SpringModule extends Jsr250Module {
     });
 
     bind(DisposableBeanCloser.class);
+
+    bind(LifecycleProcessor.class);
+  }
+
+  /**
+   * Binds the {@link Value} annotation along with Spring's <code>@Value</code> annotation, if it is
+   * available in the version of Spring being used, to the {@link ValueMemberProvider}
+   */
+  protected void bindValueInjection() {
+    bindAnnotationInjector(Value.class, ValueMemberProvider.class);
+
+    Class<? extends Annotation> springValue = loadAnnotationType(SPRING_VALUE);
+    if (springValue != null) {
+      bindAnnotationInjector(springValue, ValueMemberProvider.class);
+    }
+  }
+
+  /**
+   * Returns true for the members annotated with {@link Lazy} which are also annotated with {@link
+   * Autowired} as the {@link AutowiredMemberProvider} injects them with a lazy proxy of the value
+   * it resolves, so the {@link org.guiceyfruit.support.LazyMemberProvider} must skip them
+   */
+  protected boolean isInjectedByAnotherAnnotation(Class<? extends Annotation> annotationType,
+      AnnotatedElement member) {
+    return annotationType == Lazy.class && member.isAnnotationPresent(Autowired.class);
+  }
+
+  /** Returns the annotation type of the given name or null if it is not available */
+  protected Class<? extends Annotation> loadAnnotationType(String name) {
+    try {
+      Class<?> type = SpringModule.class.getClassLoader().loadClass(name);
+      return type.isAnnotation() ? type.asSubclass(Annotation.class) : null;
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Binds the Spring {@link BeanFactory} and {@link ListableBeanFactory} to an {@link
+   * InjectorBeanFactory} which exposes the bindings of the injector as beans so that code using the
+   * Spring APIs can be used without creating a Spring container
+   */
+  protected void bindBeanFactory() {
+    bind(ListableBeanFactory.class).to(InjectorBeanFactory.class);
+    bind(BeanFactory.class).to(InjectorBeanFactory.class);
   }
 
 }
@@ -0,0 +1,47 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring;
+
+import java.lang.annotation.Documented;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import java.lang.annotation.Retention;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.Target;
+
+/**
+ * Injects a field or single parameter method with the value of an expression containing
+ * <code>${name}</code> or <code>${name:default}</code> placeholders which are resolved from the
+ * {@link com.google.inject.name.Named} string constants of the injector or the system properties
+ * and then converted to the type of the member. This annotation can be used in place of Spring's
+ * <code>@Value</code> annotation for versions of Spring which do not provide it; Spring's own
+ * annotation is also supported when it is available.
+ *
+ * @version $Revision: 1.1 $
+ * @see org.guiceyfruit.spring.support.ValueMemberProvider
+ */
+@Documented
+@Target({ FIELD, METHOD, PARAMETER })
+@Retention(RUNTIME)
+public @interface Value {
+
+  /** The expression used to create the value such as <code>${host}:${port:8080}</code> */
+  String value();
+}
@@ -23,7 +23,9 @@ import com.google.inject.BindingAnnotation;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.internal.Iterables;
 import com.google.inject.internal.Lists;
@@ -34,6 +36,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
@@ -52,10 +55,15 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.Lazy;
+import org.guiceyfruit.spring.LazyAutowire;
 import org.guiceyfruit.spring.NoAutowire;
 import org.guiceyfruit.support.AnnotationMemberProviderSupport;
 import org.guiceyfruit.support.Comparators;
+import org.guiceyfruit.support.LazyProxies;
 import org.guiceyfruit.support.Predicate;
 import org.guiceyfruit.support.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,12 +71,24 @@ import org.springframework.beans.factory.annotation.Qualifier;
 
 /**
  * Creates a value for an {@link Autowired} member with an optional {@link Qualifier} annotation
+ * <p/>
+ * The bindings matching each member are resolved the first time the member is injected and are
+ * then cached, along with members which have no matching bindings, so that injecting further
+ * instances only has to invoke the providers of the matching bindings.
+ * <p/>
+ * Members which are also annotated with {@link Lazy} or Spring's <code>@Lazy</code> are injected
+ * with a proxy which creates the matching object when it is first used.
  *
  * @version $Revision: 1.1 $
  */
+@Singleton
 public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Autowired> {
+  private static final Provider<?>[] NO_PROVIDERS = new Provider<?>[0];
+  private static final String SPRING_LAZY = "org.springframework.context.annotation.Lazy";
 
   private final Injector injector;
+  private final ConcurrentMap<MemberKey, Resolution> resolutions
+      = new ConcurrentHashMap<MemberKey, Resolution>();
 
   @Inject
   public AutowiredMemberProvider(Injector injector) {
@@ -81,27 +101,152 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return !annotation.required();
   }
 
+  @Override
+  public Object provide(Autowired annotation, TypeLiteral<?> type, Field field) {
+    MemberKey key = new MemberKey(type, field, -1);
+    Resolution resolution = resolutions.get(key);
+    if (resolution == null) {
+      resolution = cacheResolution(key,
+          resolve(annotation, field, type.getFieldType(field), field.getType(), null));
+    }
+    return resolution.provide();
+  }
+
+  @Override
+  public Object provide(Autowired annotation, TypeLiteral<?> type, Method method,
+      Class<?> parameterType, int parameterIndex) {
+    MemberKey key = new MemberKey(type, method, parameterIndex);
+    Resolution resolution = resolutions.get(key);
+    if (resolution == null) {
+      resolution = cacheResolution(key, resolve(annotation, method,
+          type.getParameterTypes(method).get(parameterIndex),
+          method.getParameterTypes()[parameterIndex],
+          method.getParameterAnnotations()[parameterIndex]));
+    }
+    return resolution.provide();
+  }
+
   protected Object provide(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
       Class<?> memberType, Annotation[] annotations) {
+    return resolve(annotation, member, typeLiteral, memberType, annotations).provide();
+  }
+
+  /** Returns the number of injection points whose bindings have been resolved */
+  public int getResolutionCount() {
+    return resolutions.size();
+  }
+
+  private Resolution cacheResolution(MemberKey key, Resolution resolution) {
+    // if another thread resolved the member concurrently it resolved the same bindings
+    Resolution existing = resolutions.putIfAbsent(key, resolution);
+    return existing != null ? existing : resolution;
+  }
+
+  /**
+   * Resolves the bindings which are used to inject the given member
+   */
+  protected Resolution resolve(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
+      Class<?> memberType, Annotation[] annotations) {
     Predicate<Binding> filter = createQualifierFilter(member, annotations);
 
     Class<?> type = typeLiteral.getRawType();
     if (type.isArray()) {
-      return provideArrayValue(member, typeLiteral, memberType, filter);
+      return resolveArrayValue(member, typeLiteral, memberType, filter);
     }
     else if (Collection.class.isAssignableFrom(type)) {
-      Collection collection = createCollection(type);
-      return provideCollectionValues(collection, member, typeLiteral, filter);
+      return resolveCollectionValues(type, member, typeLiteral, filter,
+          isLazy(member, annotations));
     }
     else if (Map.class.isAssignableFrom(type)) {
-      Map map = createMap(type);
-      return provideMapValues(map, member, typeLiteral, filter);
+      return resolveMapValues(type, member, typeLiteral, filter, isLazy(member, annotations));
     }
     else {
-      return provideSingleValue(member, type, annotation, filter);
+      Resolution resolution = resolveSingleValue(member, type, annotation, filter);
+      if (isLazyProxy(member, annotations)) {
+        resolution = lazyResolution(type, resolution);
+      }
+      return resolution;
     }
   }
 
+  /**
+   * Returns true if the member or parameter is annotated with the GuiceyFruit {@link Lazy}
+   * annotation or with Spring's <code>@Lazy</code> annotation so that a proxy is injected which
+   * creates the real object when it is first used
+   */
+  protected boolean isLazyProxy(Member member, Annotation[] parameterAnnotations) {
+    if (parameterAnnotations != null) {
+      for (Annotation annotation : parameterAnnotations) {
+        if (isLazyAnnotation(annotation)) {
+          return true;
+        }
+      }
+    }
+    if (member instanceof AnnotatedElement) {
+      for (Annotation annotation : ((AnnotatedElement) member).getAnnotations()) {
+        if (isLazyAnnotation(annotation)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  protected boolean isLazyAnnotation(Annotation annotation) {
+    if (annotation instanceof Lazy) {
+      return true;
+    }
+    // Spring's @Lazy is matched by name as it is not available in all versions of Spring
+    Class<? extends Annotation> annotationType = annotation.annotationType();
+    if (SPRING_LAZY.equals(annotationType.getName())) {
+      try {
+        return !Boolean.FALSE.equals(annotationType.getMethod("value").invoke(annotation));
+      }
+      catch (Exception e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a resolution which injects a lazy proxy of the value of the given resolution unless
+   * there is no value to inject or the type cannot be proxied
+   */
+  protected Resolution lazyResolution(Class<?> type, final Resolution resolution) {
+    if (resolution == Resolution.NO_VALUE || resolution instanceof Failure || type.isPrimitive()
+        || Modifier.isFinal(type.getModifiers())) {
+      return resolution;
+    }
+    final Class<Object> proxyType = (Class<Object>) type;
+    final Provider<Object> provider = new Provider<Object>() {
+      public Object get() {
+        return resolution.provide();
+      }
+    };
+    return new Resolution() {
+      public Object provide() {
+        return LazyProxies.newProxy(proxyType, provider);
+      }
+    };
+  }
+
+  /**
+   * Returns true if the member or parameter is annotated with {@link LazyAutowire} so that a
+   * collection or map is injected with a view which creates its elements when they are accessed
+   */
+  protected boolean isLazy(Member member, Annotation[] parameterAnnotations) {
+    if (parameterAnnotations != null) {
+      for (Annotation annotation : parameterAnnotations) {
+        if (annotation instanceof LazyAutowire) {
+          return true;
+        }
+      }
+    }
+    return member instanceof AnnotatedElement
+        && ((AnnotatedElement) member).isAnnotationPresent(LazyAutowire.class);
+  }
+
   /**
    * Returns a new filter on the given member to respect the use of {@link Qualifier} annotations or
    * annotations annotated with {@link Qualifier}
@@ -197,50 +342,60 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return false;
   }
 
-  protected Object provideSingleValue(Member member, Class<?> type, Autowired annotation,
+  protected Resolution resolveSingleValue(Member member, Class<?> type, Autowired annotation,
       Predicate<Binding> filter) {
     Set<Binding<?>> set = getSortedBindings(type, filter);
     int size = set.size();
     if (size == 1) {
       Binding<?> binding = Iterables.getOnlyElement(set);
-      return binding.getProvider().get();
+      return new SingleValue(binding.getProvider());
     }
     else if (size == 0) {
       // should we at least try and create one
+      String message = "Could not find required binding for " + filter + " when injecting "
+          + member;
       try {
         Binding<?> binding = injector.getBinding(type);
         if (filter.matches(binding)) {
-          return binding.getProvider().get();
+          return new OptionalValue(binding.getProvider(), annotation.required(),
+              "Could not resolve type " + type.getCanonicalName() + " with filter " + filter
+                  + " when injecting " + member);
         }
         else {
-          if (annotation.required()) {
-            throw new ProvisionException(
-                "Could not find required binding for " + filter + " when injecting " + member);
-          }
-          return null;
+          return annotation.required() ? new Failure(message, null) : Resolution.NO_VALUE;
         }
       }
       catch (Exception e) {
         // TODO should we log the warning that we can't resolve this?
         if (annotation.required()) {
-          if (e instanceof ProvisionException) {
-            throw (ProvisionException) e;
-          }
-          throw new ProvisionException(
+          return new Failure(
               "Could not resolve type " + type.getCanonicalName() + " with filter " + filter
                   + " when injecting " + member + ": " + e, e);
         }
-        return null;
+        return Resolution.NO_VALUE;
       }
       //throw new ProvisionException("No binding could be found for " + type.getCanonicalName());
     }
     else {
-      throw new ProvisionException(
+      return new Failure(
           "Too many bindings " + size + " found for " + type.getCanonicalName() + " with keys "
-              + keys(set) + " when injecting " + member);
+              + keys(set) + " when injecting " + member, null);
     }
   }
 
+  /**
+   * Returns the value of a member which is not an array, collection or map
+   *
+   * @deprecated the bindings of each member are now resolved once so this method is no longer
+   * called when injecting; override {@link #resolveSingleValue(Member, Class, Autowired,
+   * Predicate)} instead
+   */
+  @Deprecated
+  protected Object provideSingleValue(Member member, Class<?> type, Autowired annotation,
+      Predicate<Binding> filter) {
+    return resolveSingleValue(member, type, annotation, filter).provide();
+  }
+
   /** Returns the keys used in the given bindings */
   public static List<Key<?>> keys(Iterable<Binding<?>> bindings) {
     List<Key<?>> answer = Lists.newArrayList();
@@ -250,26 +405,44 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return answer;
   }
 
-  protected Object provideArrayValue(Member member, TypeLiteral<?> type, Class<?> memberType,
-      Predicate<Binding> filter) {
-    Class<?> componentType = memberType.getComponentType();
-    Set<Binding<?>> set = getSortedBindings(componentType, filter);
+  protected Resolution resolveArrayValue(Member member, TypeLiteral<?> type,
+      Class<?> memberType, Predicate<Binding> filter) {
+    final Class<?> componentType = memberType.getComponentType();
+    final Provider<?>[] providers = providers(getSortedBindings(componentType, filter));
     // TODO should we return an empty array when no matches?
     // FWIW Spring seems to return null
-    if (set.isEmpty()) {
-      return null;
+    if (providers.length == 0) {
+      return Resolution.NO_VALUE;
     }
-    Object array = Array.newInstance(componentType, set.size());
-    int index = 0;
-    for (Binding<?> binding : set) {
-      Object value = binding.getProvider().get();
-      Array.set(array, index++, value);
-    }
-    return array;
+    return new Resolution() {
+      public Object provide() {
+        Object array = Array.newInstance(componentType, providers.length);
+        for (int i = 0; i < providers.length; i++) {
+          Array.set(array, i, providers[i].get());
+        }
+        return array;
+      }
+    };
   }
 
-  private Collection provideCollectionValues(Collection collection, Member member,
-      TypeLiteral<?> type, Predicate<Binding> filter) {
+  /**
+   * Returns the array value of a member
+   *
+   * @deprecated the bindings of each member are now resolved once so this method is no longer
+   * called when injecting; override {@link #resolveArrayValue(Member, TypeLiteral, Class,
+   * Predicate)} instead
+   */
+  @Deprecated
+  protected Object provideArrayValue(Member member, TypeLiteral<?> type, Class<?> memberType,
+      Predicate<Binding> filter) {
+    return resolveArrayValue(member, type, memberType, filter).provide();
+  }
+
+  private Resolution resolveCollectionValues(final Class<?> collectionType, Member member,
+      TypeLiteral<?> type, Predicate<Binding> filter, boolean lazy) {
+    if (lazy && !collectionType.isAssignableFrom(LazyBindingList.class)) {
+      return lazyTypeFailure(member, collectionType, "List, Collection");
+    }
     Type typeInstance = type.getType();
     if (typeInstance instanceof ParameterizedType) {
       ParameterizedType parameterizedType = (ParameterizedType) typeInstance;
@@ -280,25 +453,41 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
           Class<?> componentType = (Class<?>) argument;
           if (componentType != Object.class) {
             Set<Binding<?>> set = getSortedBindings(componentType, filter);
-            if (set.isEmpty()) {
+            final Provider<?>[] providers = providers(set);
+            if (providers.length == 0) {
               // TODO return null or empty collection if nothing to inject?
-              return null;
+              return Resolution.NO_VALUE;
             }
-            for (Binding<?> binding : set) {
-              Object value = binding.getProvider().get();
-              collection.add(value);
+            if (lazy) {
+              final boolean[] memoize = LazyBindingList.memoizeFlags(set);
+              return new Resolution() {
+                public Object provide() {
+                  return new LazyBindingList(providers, memoize);
+                }
+              };
             }
-            return collection;
+            return new Resolution() {
+              public Object provide() {
+                Collection collection = createCollection(collectionType);
+                for (Provider<?> provider : providers) {
+                  collection.add(provider.get());
+                }
+                return collection;
+              }
+            };
           }
         }
       }
     }
     // TODO return null or empty collection if nothing to inject?
-    return null;
+    return Resolution.NO_VALUE;
   }
 
-  protected Map provideMapValues(Map map, Member member, TypeLiteral<?> type,
-      Predicate<Binding> filter) {
+  protected Resolution resolveMapValues(final Class<?> mapType, Member member,
+      TypeLiteral<?> type, Predicate<Binding> filter, boolean lazy) {
+    if (lazy && !mapType.isAssignableFrom(LazyBindingMap.class)) {
+      return lazyTypeFailure(member, mapType, "Map");
+    }
     Type typeInstance = type.getType();
     if (typeInstance instanceof ParameterizedType) {
       ParameterizedType parameterizedType = (ParameterizedType) typeInstance;
@@ -308,9 +497,9 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
         if (key instanceof Class) {
           Class<?> keyType = (Class<?>) key;
           if (keyType != Object.class && keyType != String.class) {
-            throw new ProvisionException(
+            return new Failure(
                 "Cannot inject Map instances with a key type of " + keyType.getName() + " for "
-                    + member);
+                    + member, null);
           }
           Type valueType = arguments[1];
           if (valueType instanceof Class) {
@@ -319,21 +508,84 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
               Set<Binding<?>> set = getSortedBindings(componentType, filter);
               if (set.isEmpty()) {
                 // TODO return null or empty collection if nothing to inject?
-                return null;
+                return Resolution.NO_VALUE;
               }
+              final Provider<?>[] providers = providers(set);
+              final String[] keys = new String[providers.length];
+              int index = 0;
               for (Binding<?> binding : set) {
-                Object keyValue = binding.getKey().toString();
-                Object value = binding.getProvider().get();
-                map.put(keyValue, value);
+                keys[index++] = binding.getKey().toString();
+              }
+              if (lazy) {
+                final boolean[] memoize = LazyBindingList.memoizeFlags(set);
+                final Map<String, Integer> keyIndex = new HashMap<String, Integer>();
+                for (int i = 0; i < keys.length; i++) {
+                  keyIndex.put(keys[i], i);
+                }
+                return new Resolution() {
+                  public Object provide() {
+                    return new LazyBindingMap(keys, keyIndex,
+                        new LazyBindingList(providers, memoize));
+                  }
+                };
               }
-              return map;
+              return new Resolution() {
+                public Object provide() {
+                  Map map = createMap(mapType);
+                  for (int i = 0; i < providers.length; i++) {
+                    map.put(keys[i], providers[i].get());
+                  }
+                  return map;
+                }
+              };
             }
           }
         }
       }
     }
     // TODO return null or empty collection if nothing to inject?
-    return null;
+    return Resolution.NO_VALUE;
+  }
+
+  /**
+   * Adds the values of a map member to the given map
+   *
+   * @deprecated the bindings of each member are now resolved once so this method is no longer
+   * called when injecting; override {@link #resolveMapValues(Class, Member, TypeLiteral,
+   * Predicate, boolean)} instead
+   */
+  @Deprecated
+  protected Map provideMapValues(Map map, Member member, TypeLiteral<?> type,
+      Predicate<Binding> filter) {
+    Map values = (Map) resolveMapValues(Map.class, member, type, filter, false).provide();
+    if (values == null) {
+      return null;
+    }
+    map.putAll(values);
+    return map;
+  }
+
+  /**
+   * Returns the failure of a member annotated with {@link LazyAutowire} whose declared type cannot
+   * hold the lazy view of its bindings
+   */
+  private Resolution lazyTypeFailure(Member member, Class<?> declaredType, String allowedTypes) {
+    return new Failure("Cannot inject " + member + " lazily as its type "
+        + declaredType.getName() + " is not a view type; declare it as a " + allowedTypes
+        + " or remove the @" + LazyAutowire.class.getSimpleName() + " annotation", null);
+  }
+
+  /** Returns the providers of the given bindings in the order of the bindings */
+  protected static Provider<?>[] providers(Set<Binding<?>> bindings) {
+    if (bindings.isEmpty()) {
+      return NO_PROVIDERS;
+    }
+    Provider<?>[] answer = new Provider<?>[bindings.size()];
+    int index = 0;
+    for (Binding<?> binding : bindings) {
+      answer[index++] = binding.getProvider();
+    }
+    return answer;
   }
 
   protected Map createMap(Class<?> type) {
@@ -448,7 +700,11 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return true;
   }
 
-  private String annotationName(Binding<?> binding) {
+  /**
+   * Returns the name of the binding defined by its {@link Named} or {@link Qualifier} annotation or
+   * null if it has no name
+   */
+  static String annotationName(Binding<?> binding) {
     Annotation annotation = binding.getKey().getAnnotation();
     if (annotation instanceof Named) {
       Named named = (Named) annotation;
@@ -465,4 +721,83 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return bindings.getKey().getTypeLiteral().getRawType().getName();
   }
 
+  /**
+   * The resolved bindings of an injection point which creates the value to inject
+   */
+  protected abstract static class Resolution {
+    /** The resolution of a member which has no value to inject */
+    public static final Resolution NO_VALUE = new Resolution() {
+      public Object provide() {
+        return null;
+      }
+    };
+
+    /** Returns the value to inject */
+    public abstract Object provide();
+  }
+
+  /** Injects the value of the only matching binding */
+  private static class SingleValue extends Resolution {
+    private final Provider<?> provider;
+
+    SingleValue(Provider<?> provider) {
+      this.provider = provider;
+    }
+
+    public Object provide() {
+      return provider.get();
+    }
+  }
+
+  /**
+   * Injects the value of a just in time binding which is only required to be injected if the
+   * member is required
+   */
+  private static class OptionalValue extends Resolution {
+    private final Provider<?> provider;
+    private final boolean required;
+    private final String message;
+
+    OptionalValue(Provider<?> provider, boolean required, String message) {
+      this.provider = provider;
+      this.required = required;
+      this.message = message;
+    }
+
+    public Object provide() {
+      try {
+        return provider.get();
+      }
+      catch (ProvisionException e) {
+        if (required) {
+          throw e;
+        }
+        return null;
+      }
+      catch (RuntimeException e) {
+        if (required) {
+          throw new ProvisionException(message + ": " + e, e);
+        }
+        return null;
+      }
+    }
+  }
+
+  /** Fails the injection of a member whose bindings could not be resolved */
+  private static class Failure extends Resolution {
+    private final String message;
+    private final Throwable cause;
+
+    Failure(String message, Throwable cause) {
+      this.message = message;
+      this.cause = cause;
+    }
+
+    public Object provide() {
+      if (cause != null) {
+        throw new ProvisionException(message, cause);
+      }
+      throw new ProvisionException(message);
+    }
+  }
 }
@@ -0,0 +1,330 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Maps;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.internal.Sets;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.guiceyfruit.Injectors;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanNotOfRequiredTypeException;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+
+/**
+ * A Spring {@link ListableBeanFactory} which exposes the bindings of an injector as beans so that
+ * code using the Spring APIs can be used without creating a Spring container.
+ * <p/>
+ * The bean name of a binding is the value of its {@link com.google.inject.name.Named} or {@link
+ * org.springframework.beans.factory.annotation.Qualifier} annotation, the class name of its type if
+ * it has no binding annotation or the class name followed by the annotation otherwise. The names
+ * and the types the bindings can be assigned to are indexed the first time the factory is used so
+ * that looking up a bean by name or the beans of a type does not search the bindings.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class InjectorBeanFactory implements ListableBeanFactory {
+  private static final String[] NO_NAMES = new String[0];
+
+  private final Injector injector;
+  private volatile Index index;
+
+  @Inject
+  public InjectorBeanFactory(Injector injector) {
+    Preconditions.checkNotNull(injector, "injector");
+    this.injector = injector;
+  }
+
+  public Injector getInjector() {
+    return injector;
+  }
+
+  public Object getBean(String name) throws BeansException {
+    return getBean(getBeanEntry(name));
+  }
+
+  public Object getBean(String name, Class requiredType) throws BeansException {
+    BeanEntry entry = getBeanEntry(name, requiredType);
+    Object answer = getBean(entry);
+    if (requiredType != null && !requiredType.isInstance(answer)) {
+      throw new BeanNotOfRequiredTypeException(name, requiredType, answer.getClass());
+    }
+    return answer;
+  }
+
+  public Object getBean(String name, Object[] args) throws BeansException {
+    if (args != null && args.length > 0) {
+      throw new BeanCreationException(name,
+          "Explicit arguments cannot be used to create beans from a Guice injector");
+    }
+    return getBean(name);
+  }
+
+  /** Returns the only bean which is assignable to the given type */
+  public <T> T getBean(Class<T> requiredType) throws BeansException {
+    List<BeanEntry> entries = getIndex().getEntries(requiredType);
+    if (entries.size() != 1) {
+      throw new NoSuchBeanDefinitionException(requiredType,
+          "expected a single bean but found " + entries.size() + ": " + names(entries, true));
+    }
+    return requiredType.cast(getBean(entries.get(0)));
+  }
+
+  public boolean containsBean(String name) {
+    return getIndex().names.containsKey(name);
+  }
+
+  public boolean isSingleton(String name) throws NoSuchBeanDefinitionException {
+    return getBeanEntry(name).isSingleton();
+  }
+
+  public boolean isPrototype(String name) throws NoSuchBeanDefinitionException {
+    return getBeanEntry(name).getScopeAnnotation() == null;
+  }
+
+  public boolean isTypeMatch(String name, Class targetType) throws NoSuchBeanDefinitionException {
+    Class<?> type = getType(name);
+    return targetType == null || targetType.isAssignableFrom(type);
+  }
+
+  public Class getType(String name) throws NoSuchBeanDefinitionException {
+    return getBeanEntry(name).type;
+  }
+
+  public String[] getAliases(String name) {
+    return NO_NAMES;
+  }
+
+  public boolean containsBeanDefinition(String beanName) {
+    return containsBean(beanName);
+  }
+
+  public int getBeanDefinitionCount() {
+    return getIndex().names.size();
+  }
+
+  public String[] getBeanDefinitionNames() {
+    Map<String, List<BeanEntry>> names = getIndex().names;
+    return names.keySet().toArray(new String[names.size()]);
+  }
+
+  public String[] getBeanNamesForType(Class type) {
+    return getBeanNamesForType(type, true, true);
+  }
+
+  public String[] getBeanNamesForType(Class type, boolean includeNonSingletons,
+      boolean allowEagerInit) {
+    List<String> answer = names(getIndex().getEntries(type), includeNonSingletons);
+    return answer.toArray(new String[answer.size()]);
+  }
+
+  public Map getBeansOfType(Class type) throws BeansException {
+    return getBeansOfType(type, true, true);
+  }
+
+  public Map getBeansOfType(Class type, boolean includeNonSingletons, boolean allowEagerInit)
+      throws BeansException {
+    List<BeanEntry> entries = getIndex().getEntries(type);
+    Map<String, Object> answer = Maps.newLinkedHashMap();
+    for (BeanEntry entry : entries) {
+      if (includeNonSingletons || entry.isSingleton()) {
+        answer.put(entry.name, getBean(entry));
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the bean name of the given binding
+   */
+  public static String getBeanName(Binding<?> binding) {
+    String name = AutowiredMemberProvider.annotationName(binding);
+    if (name != null) {
+      return name;
+    }
+    Key<?> key = binding.getKey();
+    String typeName = key.getTypeLiteral().getRawType().getName();
+    Annotation annotation = key.getAnnotation();
+    if (annotation != null) {
+      return typeName + annotation;
+    }
+    Class<? extends Annotation> annotationType = key.getAnnotationType();
+    if (annotationType != null) {
+      return typeName + "@" + annotationType.getName();
+    }
+    return typeName;
+  }
+
+  protected Object getBean(BeanEntry entry) throws BeansException {
+    try {
+      return entry.binding.getProvider().get();
+    }
+    catch (ProvisionException e) {
+      throw new BeanCreationException(entry.name, "Failed to create bean: " + e.getMessage(), e);
+    }
+  }
+
+  protected BeanEntry getBeanEntry(String name) throws NoSuchBeanDefinitionException {
+    return getBeanEntry(name, null);
+  }
+
+  /**
+   * Returns the binding of the given name which is assignable to the given type if there is more
+   * than one binding with the name
+   */
+  protected BeanEntry getBeanEntry(String name, Class<?> requiredType)
+      throws NoSuchBeanDefinitionException {
+    List<BeanEntry> entries = getIndex().names.get(name);
+    if (entries == null) {
+      throw new NoSuchBeanDefinitionException(name);
+    }
+    if (entries.size() == 1) {
+      return entries.get(0);
+    }
+    BeanEntry answer = null;
+    for (BeanEntry entry : entries) {
+      if (requiredType == null || requiredType.isAssignableFrom(entry.type)) {
+        if (answer != null) {
+          throw new NoSuchBeanDefinitionException(name,
+              "There is more than one binding called '" + name + "' of type " + requiredType);
+        }
+        answer = entry;
+      }
+    }
+    if (answer == null) {
+      throw new NoSuchBeanDefinitionException(name,
+          "There is no binding called '" + name + "' of type " + requiredType);
+    }
+    return answer;
+  }
+
+  protected Index getIndex() {
+    Index answer = index;
+    if (answer == null) {
+      synchronized (this) {
+        answer = index;
+        if (answer == null) {
+          answer = new Index(injector);
+          index = answer;
+        }
+      }
+    }
+    return answer;
+  }
+
+  private static List<String> names(List<BeanEntry> entries, boolean includeNonSingletons) {
+    List<String> answer = Lists.newArrayList();
+    for (BeanEntry entry : entries) {
+      if (includeNonSingletons || entry.isSingleton()) {
+        answer.add(entry.name);
+      }
+    }
+    return answer;
+  }
+
+  /** A binding exposed as a bean */
+  protected static class BeanEntry {
+    private final String name;
+    private final Binding<?> binding;
+    private final Class<?> type;
+
+    BeanEntry(String name, Binding<?> binding) {
+      this.name = name;
+      this.binding = binding;
+      this.type = binding.getKey().getTypeLiteral().getRawType();
+    }
+
+    public Class<? extends Annotation> getScopeAnnotation() {
+      return Injectors.getScopeAnnotation(binding);
+    }
+
+    public boolean isSingleton() {
+      return getScopeAnnotation() == Singleton.class;
+    }
+  }
+
+  /**
+   * The bindings of the injector indexed by their bean name and by each of the classes and
+   * interfaces the type of their key can be assigned to
+   */
+  protected static class Index {
+    private final Map<String, List<BeanEntry>> names = Maps.newLinkedHashMap();
+    private final Map<Class<?>, List<BeanEntry>> types = Maps.newHashMap();
+
+    Index(Injector injector) {
+      for (Binding<?> binding : injector.getBindings().values()) {
+        BeanEntry entry = new BeanEntry(getBeanName(binding), binding);
+        add(names, entry.name, entry);
+        addTypes(entry.type, entry, Sets.<Class<?>>newHashSet());
+      }
+    }
+
+    public List<BeanEntry> getEntries(Class<?> type) {
+      if (type == null) {
+        type = Object.class;
+      }
+      List<BeanEntry> answer = types.get(type);
+      if (answer == null) {
+        return Collections.emptyList();
+      }
+      return answer;
+    }
+
+    private void addTypes(Class<?> type, BeanEntry entry, Set<Class<?>> visited) {
+      if (!visited.add(type)) {
+        // we have already reached this interface from another type
+        return;
+      }
+      add(types, type, entry);
+      Class<?> superclass = type.getSuperclass();
+      if (superclass != null) {
+        addTypes(superclass, entry, visited);
+      }
+      for (Class<?> anInterface : type.getInterfaces()) {
+        addTypes(anInterface, entry, visited);
+      }
+      if (type.isInterface()) {
+        addTypes(Object.class, entry, visited);
+      }
+    }
+
+    private static <K> void add(Map<K, List<BeanEntry>> map, K key, BeanEntry entry) {
+      List<BeanEntry> list = map.get(key);
+      if (list == null) {
+        list = Lists.newArrayList();
+        map.put(key, list);
+      }
+      list.add(entry);
+    }
+  }
+}
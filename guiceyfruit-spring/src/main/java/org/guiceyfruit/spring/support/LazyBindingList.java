@@ -0,0 +1,83 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.Binding;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.lang.annotation.Annotation;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.guiceyfruit.Injectors;
+
+/**
+ * An immutable list whose elements are only created from the providers of their bindings when they
+ * are first accessed. The providers are resolved once for an injection point and shared by all of
+ * the lists injected into it.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LazyBindingList extends AbstractList<Object> implements RandomAccess {
+  private final Provider<?>[] providers;
+  private final boolean[] memoize;
+  private final AtomicReferenceArray<Object> values;
+
+  public LazyBindingList(Provider<?>[] providers, boolean[] memoize) {
+    this.providers = providers;
+    this.memoize = memoize;
+    this.values = new AtomicReferenceArray<Object>(providers.length);
+  }
+
+  /**
+   * Returns the flags of which of the given bindings can have their values created once for each
+   * list as they are either unscoped or singletons. Memoizing unscoped bindings matches the
+   * semantics of an eagerly injected list, which holds a single instance of each unscoped binding
+   * created at injection time; bindings in any other scope are looked up on every access so that
+   * the list always returns the instance of the current scope.
+   */
+  public static boolean[] memoizeFlags(Set<Binding<?>> bindings) {
+    boolean[] answer = new boolean[bindings.size()];
+    int index = 0;
+    for (Binding<?> binding : bindings) {
+      Class<? extends Annotation> scopeAnnotation = Injectors.getScopeAnnotation(binding);
+      answer[index++] = scopeAnnotation == null || scopeAnnotation == Singleton.class;
+    }
+    return answer;
+  }
+
+  public Object get(int index) {
+    if (!memoize[index]) {
+      return providers[index].get();
+    }
+    Object value = values.get(index);
+    if (value == null) {
+      value = providers[index].get();
+      if (!values.compareAndSet(index, null, value)) {
+        value = values.get(index);
+      }
+    }
+    return value;
+  }
+
+  public int size() {
+    return providers.length;
+  }
+}
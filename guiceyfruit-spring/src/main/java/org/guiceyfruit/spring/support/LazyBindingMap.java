@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map of the names of bindings to their values which are only created when they are
+ * first accessed. The keys and the index of the keys are shared by all of the maps injected into
+ * the same injection point.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LazyBindingMap extends AbstractMap<String, Object> {
+  private final String[] keys;
+  private final Map<String, Integer> keyIndex;
+  private final LazyBindingList values;
+  private Set<Entry<String, Object>> entrySet;
+
+  public LazyBindingMap(String[] keys, Map<String, Integer> keyIndex, LazyBindingList values) {
+    this.keys = keys;
+    this.keyIndex = keyIndex;
+    this.values = values;
+  }
+
+  @Override
+  public Object get(Object key) {
+    Integer index = keyIndex.get(key);
+    return index != null ? values.get(index) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return keyIndex.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<String, Object>>() {
+        public Iterator<Entry<String, Object>> iterator() {
+          return new EntryIterator();
+        }
+
+        public int size() {
+          return keys.length;
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  private class EntryIterator implements Iterator<Entry<String, Object>> {
+    private int index;
+
+    public boolean hasNext() {
+      return index < keys.length;
+    }
+
+    public Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final int current = index++;
+      return new Entry<String, Object>() {
+        public String getKey() {
+          return keys[current];
+        }
+
+        public Object getValue() {
+          return values.get(current);
+        }
+
+        public Object setValue(Object value) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+          if (object instanceof Entry) {
+            Entry<?, ?> that = (Entry<?, ?>) object;
+            Object value = getValue();
+            return keys[current].equals(that.getKey())
+                && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+          }
+          return false;
+        }
+
+        @Override
+        public int hashCode() {
+          Object value = getValue();
+          return keys[current].hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+          return keys[current] + "=" + getValue();
+        }
+      };
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
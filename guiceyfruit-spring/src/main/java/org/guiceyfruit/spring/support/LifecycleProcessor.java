@@ -0,0 +1,275 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Maps;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.spi.InstanceBinding;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.Lifecycle;
+import org.springframework.core.Ordered;
+
+/**
+ * Starts and stops the singleton Spring {@link Lifecycle} beans of an injector in phases.
+ * <p/>
+ * The phase of a bean is the value of {@link Ordered#getOrder()} if it implements {@link Ordered}
+ * or zero otherwise. Phases are started in ascending order and stopped in descending order; the
+ * beans within a phase are started and stopped concurrently using a bounded number of threads.
+ * Stopping a phase waits at most {@link #getStopTimeout()} milliseconds for its beans to stop.
+ * <p/>
+ * Only the beans started by {@link #start()} are stopped, so beans which were never started are
+ * not created just to be stopped. {@link #stop()} should be called before the injector is closed
+ * using {@link Injectors#close(Injector)}, as the singletons are closed in no particular order so
+ * the beans the running beans depend on could otherwise be closed first. Any beans which are still
+ * running are stopped when this processor is closed as it is a {@link DisposableBean}.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class LifecycleProcessor implements DisposableBean {
+  /** The default number of milliseconds to wait for the beans of a phase to stop */
+  public static final long DEFAULT_STOP_TIMEOUT = 30000L;
+
+  private final Injector injector;
+  private int maxThreads = Runtime.getRuntime().availableProcessors();
+  private long stopTimeout = DEFAULT_STOP_TIMEOUT;
+  private SortedMap<Integer, List<Lifecycle>> startedPhases = Maps.newTreeMap();
+
+  @Inject
+  public LifecycleProcessor(Injector injector) {
+    Preconditions.checkNotNull(injector, "injector");
+    this.injector = injector;
+  }
+
+  /**
+   * Starts all of the singleton {@link Lifecycle} beans which are not already running in ascending
+   * phase order
+   *
+   * @throws IllegalStateException if any of the beans of a phase failed to start in which case the
+   * later phases are not started
+   */
+  public synchronized void start() {
+    SortedMap<Integer, List<Lifecycle>> phases = getPhases(getLifecycleBeans());
+    if (phases.isEmpty()) {
+      return;
+    }
+    ExecutorService executor = createExecutor();
+    try {
+      for (Map.Entry<Integer, List<Lifecycle>> entry : phases.entrySet()) {
+        startPhase(entry.getKey(), entry.getValue(), executor);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Stops the beans started by {@link #start()} which are still running in descending phase order
+   *
+   * @throws CloseFailedException if any of the beans failed to stop or did not stop in time
+   */
+  public synchronized void stop() throws CloseFailedException {
+    SortedMap<Integer, List<Lifecycle>> phases = startedPhases;
+    if (phases.isEmpty()) {
+      return;
+    }
+    startedPhases = Maps.newTreeMap();
+    CloseErrors errors = new CloseErrorsImpl(this);
+    ExecutorService executor = createExecutor();
+    try {
+      List<Integer> keys = Lists.newArrayList(phases.keySet());
+      Collections.reverse(keys);
+      for (Integer phase : keys) {
+        stopPhase(phase, phases.get(phase), executor, errors);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    errors.throwIfNecessary();
+  }
+
+  public void destroy() throws Exception {
+    stop();
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /** Sets the maximum number of threads used to start or stop the beans of a phase */
+  public void setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  public long getStopTimeout() {
+    return stopTimeout;
+  }
+
+  /** Sets the number of milliseconds to wait for the beans of a phase to stop */
+  public void setStopTimeout(long stopTimeout) {
+    this.stopTimeout = stopTimeout;
+  }
+
+  /** Returns the phase of the given bean */
+  protected int getPhase(Lifecycle bean) {
+    if (bean instanceof Ordered) {
+      return ((Ordered) bean).getOrder();
+    }
+    return 0;
+  }
+
+  /** Returns the singleton and instance bound {@link Lifecycle} beans of the injector */
+  protected List<Lifecycle> getLifecycleBeans() {
+    List<Lifecycle> answer = Lists.newArrayList();
+    Set<Binding<?>> bindings = Injectors.getBindingsOf(injector, Lifecycle.class);
+    for (Binding<?> binding : bindings) {
+      if (binding instanceof InstanceBinding
+          || Injectors.getScopeAnnotation(binding) == Singleton.class) {
+        answer.add((Lifecycle) binding.getProvider().get());
+      }
+    }
+    return answer;
+  }
+
+  protected void startPhase(int phase, List<Lifecycle> beans, ExecutorService executor) {
+    List<Future<?>> futures = Lists.newArrayList();
+    for (final Lifecycle bean : beans) {
+      if (!bean.isRunning()) {
+        // lets record the bean before starting it so that it is stopped even if it fails part way
+        addBean(startedPhases, phase, bean);
+        futures.add(executor.submit(new Callable<Object>() {
+          public Object call() throws Exception {
+            bean.start();
+            return null;
+          }
+        }));
+      }
+    }
+    // lets wait for all the beans of the phase to finish starting before reporting a failure
+    Throwable failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted starting phase " + phase, e);
+      }
+    }
+    if (failure != null) {
+      throw new IllegalStateException(
+          "Failed to start Lifecycle beans in phase " + phase + ". Reason: " + failure, failure);
+    }
+  }
+
+  protected void stopPhase(int phase, List<Lifecycle> beans, ExecutorService executor,
+      CloseErrors errors) {
+    Map<Lifecycle, Future<?>> futures = Maps.newLinkedHashMap();
+    for (final Lifecycle bean : beans) {
+      if (bean.isRunning()) {
+        futures.put(bean, executor.submit(new Callable<Object>() {
+          public Object call() throws Exception {
+            bean.stop();
+            return null;
+          }
+        }));
+      }
+    }
+    long deadline = System.currentTimeMillis() + stopTimeout;
+    for (Map.Entry<Lifecycle, Future<?>> entry : futures.entrySet()) {
+      Lifecycle bean = entry.getKey();
+      try {
+        entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        errors.closeError(phase, bean, cause instanceof Exception ? (Exception) cause : e);
+      }
+      catch (TimeoutException e) {
+        errors.closeError(phase, bean, e);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        errors.closeError(phase, bean, e);
+        return;
+      }
+    }
+  }
+
+  private SortedMap<Integer, List<Lifecycle>> getPhases(List<Lifecycle> beans) {
+    SortedMap<Integer, List<Lifecycle>> answer = Maps.newTreeMap();
+    for (Lifecycle bean : beans) {
+      addBean(answer, getPhase(bean), bean);
+    }
+    return answer;
+  }
+
+  private static void addBean(SortedMap<Integer, List<Lifecycle>> phases, int phase,
+      Lifecycle bean) {
+    List<Lifecycle> list = phases.get(phase);
+    if (list == null) {
+      list = Lists.newArrayList();
+      phases.put(phase, list);
+    }
+    list.add(bean);
+  }
+
+  private ExecutorService createExecutor() {
+    return Executors.newFixedThreadPool(Math.max(1, maxThreads), new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "GuiceyFruit Lifecycle " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.TypeLiteral;
+import java.lang.reflect.Member;
+
+/**
+ * The key of an injection point of a member of an injectable type which is used to cache the
+ * resolved values of annotated members
+ *
+ * @version $Revision: 1.1 $
+ */
+final class MemberKey {
+  private final TypeLiteral<?> type;
+  private final Member member;
+  private final int parameterIndex;
+
+  MemberKey(TypeLiteral<?> type, Member member, int parameterIndex) {
+    this.type = type;
+    this.member = member;
+    this.parameterIndex = parameterIndex;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (object instanceof MemberKey) {
+      MemberKey that = (MemberKey) object;
+      return parameterIndex == that.parameterIndex && member.equals(that.member)
+          && type.equals(that.type);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return (member.hashCode() * 31 + type.hashCode()) * 31 + parameterIndex;
+  }
+}
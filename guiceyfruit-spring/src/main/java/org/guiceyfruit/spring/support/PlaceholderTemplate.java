@@ -0,0 +1,191 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.internal.Lists;
+import com.google.inject.internal.Preconditions;
+import java.util.List;
+
+/**
+ * An expression containing <code>${name}</code> and <code>${name:default}</code> placeholders
+ * which is parsed once so that it can be resolved many times without parsing the text again.
+ * Default values may themselves contain placeholders such as <code>${a:${b}}</code>; an
+ * unterminated placeholder is treated as literal text.
+ *
+ * @version $Revision: 1.1 $
+ */
+public final class PlaceholderTemplate {
+  private static final String PREFIX = "${";
+  private static final char SUFFIX = '}';
+  private static final char DEFAULT_SEPARATOR = ':';
+
+  /** Resolves the value of a placeholder returning null if the placeholder has no value */
+  public interface PlaceholderResolver {
+    String resolvePlaceholder(String name);
+  }
+
+  private final String expression;
+  private final Part[] parts;
+
+  private PlaceholderTemplate(String expression, List<Part> parts) {
+    this.expression = expression;
+    this.parts = parts.toArray(new Part[parts.size()]);
+  }
+
+  /** Parses the given expression into a template */
+  public static PlaceholderTemplate compile(String expression) {
+    Preconditions.checkNotNull(expression, "expression");
+    List<Part> parts = Lists.newArrayList();
+    int index = 0;
+    while (index < expression.length()) {
+      int start = expression.indexOf(PREFIX, index);
+      int end = start < 0 ? -1 : findPlaceholderEnd(expression, start + PREFIX.length());
+      if (end < 0) {
+        parts.add(new Literal(expression.substring(index)));
+        break;
+      }
+      if (start > index) {
+        parts.add(new Literal(expression.substring(index, start)));
+      }
+      parts.add(Placeholder.compile(expression.substring(start + PREFIX.length(), end)));
+      index = end + 1;
+    }
+    return new PlaceholderTemplate(expression, parts);
+  }
+
+  /**
+   * Returns the text of the template with each placeholder replaced by its resolved value or its
+   * default value
+   *
+   * @throws IllegalArgumentException if a placeholder without a default value cannot be resolved
+   */
+  public String resolve(PlaceholderResolver resolver) {
+    if (parts.length == 1) {
+      return parts[0].resolve(resolver);
+    }
+    StringBuilder buffer = new StringBuilder();
+    for (Part part : parts) {
+      buffer.append(part.resolve(resolver));
+    }
+    return buffer.toString();
+  }
+
+  /** Returns true if the template contains no placeholders */
+  public boolean isLiteral() {
+    for (Part part : parts) {
+      if (!(part instanceof Literal)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  /** Returns the index of the suffix which closes the placeholder starting at the given index */
+  private static int findPlaceholderEnd(String text, int index) {
+    int depth = 0;
+    while (index < text.length()) {
+      if (text.startsWith(PREFIX, index)) {
+        depth++;
+        index += PREFIX.length();
+        continue;
+      }
+      if (text.charAt(index) == SUFFIX) {
+        if (depth == 0) {
+          return index;
+        }
+        depth--;
+      }
+      index++;
+    }
+    return -1;
+  }
+
+  /** Returns the index of the default value separator which is not in a nested placeholder */
+  private static int findDefaultSeparator(String text) {
+    int depth = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.startsWith(PREFIX, i)) {
+        depth++;
+        i += PREFIX.length() - 1;
+      }
+      else if (text.charAt(i) == SUFFIX) {
+        depth--;
+      }
+      else if (depth == 0 && text.charAt(i) == DEFAULT_SEPARATOR) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private interface Part {
+    String resolve(PlaceholderResolver resolver);
+  }
+
+  private static final class Literal implements Part {
+    private final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    public String resolve(PlaceholderResolver resolver) {
+      return text;
+    }
+  }
+
+  private static final class Placeholder implements Part {
+    private final String name;
+    private final PlaceholderTemplate defaultValue;
+
+    Placeholder(String name, PlaceholderTemplate defaultValue) {
+      this.name = name;
+      this.defaultValue = defaultValue;
+    }
+
+    static Placeholder compile(String text) {
+      int idx = findDefaultSeparator(text);
+      if (idx < 0) {
+        return new Placeholder(text, null);
+      }
+      return new Placeholder(text.substring(0, idx),
+          PlaceholderTemplate.compile(text.substring(idx + 1)));
+    }
+
+    public String resolve(PlaceholderResolver resolver) {
+      String value = resolver.resolvePlaceholder(name);
+      if (value != null) {
+        return value;
+      }
+      if (defaultValue != null) {
+        return defaultValue.resolve(resolver);
+      }
+      throw new IllegalArgumentException("Could not resolve placeholder '" + name + "'");
+    }
+  }
+}
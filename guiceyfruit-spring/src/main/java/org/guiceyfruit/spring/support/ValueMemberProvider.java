@@ -0,0 +1,251 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.internal.Preconditions;
+import com.google.inject.internal.Sets;
+import com.google.inject.name.Names;
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import org.guiceyfruit.spring.Value;
+import org.guiceyfruit.spring.support.PlaceholderTemplate.PlaceholderResolver;
+import org.guiceyfruit.support.AnnotationMemberProviderSupport;
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.util.StringUtils;
+
+/**
+ * Creates a value for a member annotated with {@link Value} or with Spring's <code>@Value</code>
+ * annotation by resolving the placeholders of its expression against the {@link
+ * com.google.inject.name.Named} string constants of the injector, such as the environment bound by
+ * {@link org.guiceyfruit.Injectors#createInjector(java.util.Map, com.google.inject.Module[])},
+ * falling back to the system properties. The text is then converted to the type of the member
+ * using Spring's property editors.
+ * <p/>
+ * The expression of each member is compiled and resolved the first time the member is injected.
+ * Values of immutable types such as strings, primitives and enums, and arrays of them, are then
+ * cached so that injecting further instances does not convert the text again; values of other
+ * types are converted from the cached text for each instance.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class ValueMemberProvider extends AnnotationMemberProviderSupport<Annotation> {
+  private static final Set<Class<?>> IMMUTABLE_TYPES = Sets.<Class<?>>newHashSet(String.class,
+      Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+      Float.class, Double.class, BigInteger.class, BigDecimal.class, Class.class, File.class,
+      Locale.class, URI.class, Pattern.class, Charset.class);
+
+  private final Injector injector;
+  private final SimpleTypeConverter typeConverter = new SimpleTypeConverter();
+  private final ConcurrentMap<MemberKey, ResolvedValue> values
+      = new ConcurrentHashMap<MemberKey, ResolvedValue>();
+  private final PlaceholderResolver resolver = new PlaceholderResolver() {
+    public String resolvePlaceholder(String name) {
+      return resolvePlaceholderValue(name);
+    }
+  };
+
+  @Inject
+  public ValueMemberProvider(Injector injector) {
+    Preconditions.checkNotNull(injector, "injector");
+    this.injector = injector;
+  }
+
+  public boolean isNullParameterAllowed(Annotation annotation, Method method,
+      Class<?> parameterType, int parameterIndex) {
+    return false;
+  }
+
+  @Override
+  public Object provide(Annotation annotation, TypeLiteral<?> type, Field field) {
+    MemberKey key = new MemberKey(type, field, -1);
+    ResolvedValue value = values.get(key);
+    if (value == null) {
+      value = cacheValue(key, resolve(annotation, field, field.getType()));
+    }
+    return value.get();
+  }
+
+  @Override
+  public Object provide(Annotation annotation, TypeLiteral<?> type, Method method,
+      Class<?> parameterType, int parameterIndex) {
+    MemberKey key = new MemberKey(type, method, parameterIndex);
+    ResolvedValue value = values.get(key);
+    if (value == null) {
+      value = cacheValue(key,
+          resolve(annotation, method, method.getParameterTypes()[parameterIndex]));
+    }
+    return value.get();
+  }
+
+  protected Object provide(Annotation annotation, Member member, TypeLiteral<?> requiredType,
+      Class<?> memberType, Annotation[] annotations) {
+    return resolve(annotation, member, memberType).get();
+  }
+
+  /** Returns the number of injection points whose values have been resolved */
+  public int getResolvedValueCount() {
+    return values.size();
+  }
+
+  private ResolvedValue cacheValue(MemberKey key, ResolvedValue value) {
+    ResolvedValue existing = values.putIfAbsent(key, value);
+    return existing != null ? existing : value;
+  }
+
+  /** Compiles and resolves the expression of the annotation for the given member */
+  protected ResolvedValue resolve(Annotation annotation, Member member, Class<?> memberType) {
+    String expression = getExpression(annotation);
+    PlaceholderTemplate template = PlaceholderTemplate.compile(expression);
+    String text;
+    try {
+      text = template.resolve(resolver);
+    }
+    catch (IllegalArgumentException e) {
+      throw new ProvisionException("Failed to resolve the expression '" + expression + "' for "
+          + member + ". Reason: " + e.getMessage(), e);
+    }
+
+    ResolvedValue answer = new ResolvedValue(member, memberType, text);
+    if (isCacheable(memberType)) {
+      answer.value = convert(member, text, memberType);
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the value of the named placeholder from the {@link com.google.inject.name.Named}
+   * string bindings of the injector or its parents or from the system properties or null if there
+   * is no value
+   */
+  protected String resolvePlaceholderValue(String name) {
+    Key<String> key = Key.get(String.class, Names.named(name));
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      Binding<?> binding = current.getBindings().get(key);
+      if (binding != null) {
+        Object value = binding.getProvider().get();
+        if (value != null) {
+          return value.toString();
+        }
+      }
+    }
+    return System.getProperty(name);
+  }
+
+  /** Returns true if the converted values of the given type can be shared by many instances */
+  protected boolean isCacheable(Class<?> type) {
+    if (type.isArray()) {
+      type = type.getComponentType();
+    }
+    return type.isPrimitive() || type.isEnum() || IMMUTABLE_TYPES.contains(type);
+  }
+
+  protected Object convert(Member member, String text, Class<?> type) {
+    if (type == String.class || type == Object.class) {
+      return text;
+    }
+    Object value = text;
+    if (type.isArray() && type.getComponentType() != char.class) {
+      // lets convert each of the comma separated elements to the component type
+      value = StringUtils.commaDelimitedListToStringArray(text);
+    }
+    // the property editors of the converter are stateful so must not be used concurrently
+    synchronized (typeConverter) {
+      try {
+        return typeConverter.convertIfNecessary(value, type);
+      }
+      catch (TypeMismatchException e) {
+        throw new ProvisionException("Failed to convert value '" + text + "' to "
+            + type.getName() + " for " + member + ". Reason: " + e, e);
+      }
+    }
+  }
+
+  /** Returns the expression of the given {@link Value} or Spring <code>@Value</code> annotation */
+  protected String getExpression(Annotation annotation) {
+    if (annotation instanceof Value) {
+      return ((Value) annotation).value();
+    }
+    try {
+      Method method = annotation.annotationType().getMethod("value");
+      return String.valueOf(method.invoke(annotation));
+    }
+    catch (NoSuchMethodException e) {
+      throw new ProvisionException("Annotation " + annotation + " has no value() method", e);
+    }
+    catch (IllegalAccessException e) {
+      throw new ProvisionException("Failed to access the value of " + annotation + ": " + e, e);
+    }
+    catch (InvocationTargetException e) {
+      throw new ProvisionException("Failed to access the value of " + annotation + ": "
+          + e.getTargetException(), e.getTargetException());
+    }
+  }
+
+  /** The resolved text of an injection point along with its converted value if it is cacheable */
+  protected class ResolvedValue {
+    private final Member member;
+    private final Class<?> type;
+    private final String text;
+    private Object value;
+
+    ResolvedValue(Member member, Class<?> type, String text) {
+      this.member = member;
+      this.type = type;
+      this.text = text;
+    }
+
+    public Object get() {
+      Object answer = value;
+      if (answer == null) {
+        return convert(member, text, type);
+      }
+      if (answer.getClass().isArray()) {
+        // lets not share a mutable array between instances
+        int length = Array.getLength(answer);
+        Object copy = Array.newInstance(answer.getClass().getComponentType(), length);
+        System.arraycopy(answer, 0, copy, 0, length);
+        return copy;
+      }
+      return answer;
+    }
+  }
+}
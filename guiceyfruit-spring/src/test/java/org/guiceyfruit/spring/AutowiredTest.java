@@ -21,12 +21,21 @@ package org.guiceyfruit.spring;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.name.Names;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import org.guiceyfruit.Configures;
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.Lazy;
+import org.guiceyfruit.spring.support.AutowiredMemberProvider;
+import org.guiceyfruit.spring.testbeans.ITestBean;
 import org.guiceyfruit.spring.testbeans.IndexedTestBean;
+import org.guiceyfruit.spring.testbeans.LazyArrayListInjectionBean;
+import org.guiceyfruit.spring.testbeans.LazyCollectionInjectionBean;
 import org.guiceyfruit.spring.testbeans.MapFieldInjectionBean;
 import org.guiceyfruit.spring.testbeans.MapMethodInjectionBean;
 import org.guiceyfruit.spring.testbeans.NestedTestBean;
@@ -36,7 +45,9 @@ import org.guiceyfruit.spring.testbeans.ResourceInjectionBean;
 import org.guiceyfruit.spring.testbeans.TestBean;
 import org.guiceyfruit.spring.testbeans.TypedExtendedResourceInjectionBean;
 import org.guiceyfruit.support.GuiceyFruitModule;
+import org.guiceyfruit.support.LazyProxies;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 
 /**
@@ -112,6 +123,29 @@ public class AutowiredTest extends TestCase {
     assertSame(ntb2, bean.nestedTestBeansField[1]);
   }
 
+  public void testAutowiredResolutionsAreCached() {
+    final TestBean tb = new TestBean();
+
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(TestBean.class).toInstance(tb);
+      }
+    });
+
+    AutowiredMemberProvider provider = injector.getInstance(AutowiredMemberProvider.class);
+    OptionalResourceInjectionBean bean = injector.getInstance(OptionalResourceInjectionBean.class);
+    int resolutions = provider.getResolutionCount();
+    assertTrue("resolutions: " + resolutions, resolutions > 0);
+    assertNull(bean.getNestedTestBeans());
+
+    bean = injector.getInstance(OptionalResourceInjectionBean.class);
+    assertSame(provider, injector.getInstance(AutowiredMemberProvider.class));
+    assertEquals(resolutions, provider.getResolutionCount());
+    assertSame(tb, bean.getTestBean());
+    assertSame(tb, bean.getTestBean4());
+    assertNull(bean.getNestedTestBeans());
+  }
+
   public void testOptionalResourceInjectionWithIncompleteDependencies() {
     final TestBean tb = new TestBean();
 
@@ -366,6 +400,103 @@ public class AutowiredTest extends TestCase {
     assertTrue(bean.getTestBeanMap().values().contains(tb2));
   }
 
+  public void testLazyCollectionAndMapInjection() {
+    final AtomicInteger created = new AtomicInteger();
+    Injector injector = SpringModule.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        super.configure();
+
+        bind(NestedTestBean.class, "nestedTestBean1").toProvider(new Provider<NestedTestBean>() {
+          public NestedTestBean get() {
+            created.incrementAndGet();
+            return new NestedTestBean("ntb1");
+          }
+        });
+        bind(NestedTestBean.class, "nestedTestBean2").toProvider(new Provider<NestedTestBean>() {
+          public NestedTestBean get() {
+            created.incrementAndGet();
+            return new NestedTestBean("ntb2");
+          }
+        });
+      }
+    });
+
+    LazyCollectionInjectionBean bean = injector.getInstance(LazyCollectionInjectionBean.class);
+    List<NestedTestBean> list = bean.getNestedTestBeans();
+    Map<String, NestedTestBean> map = bean.getNestedTestBeanMap();
+    assertEquals(2, list.size());
+    assertEquals(2, map.size());
+    assertTrue(map.containsKey(mapKey(NestedTestBean.class, "nestedTestBean2")));
+    assertEquals("no elements should be created yet", 0, created.get());
+
+    NestedTestBean ntb2 = list.get(1);
+    assertEquals("ntb2", ntb2.getCompany());
+    assertSame("elements should be memoized", ntb2, list.get(1));
+    assertEquals(1, created.get());
+
+    assertEquals("ntb1", map.get(mapKey(NestedTestBean.class, "nestedTestBean1")).getCompany());
+    assertEquals(2, created.get());
+
+    try {
+      list.add(new NestedTestBean());
+      fail("lazy lists should be immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testLazyCollectionOfNonViewTypeFails() {
+    Injector injector = SpringModule.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        bind(NestedTestBean.class, "nestedTestBean1").toInstance(new NestedTestBean("ntb1"));
+      }
+    });
+    try {
+      injector.getInstance(LazyArrayListInjectionBean.class);
+      fail("Should not be able to inject an ArrayList lazily");
+    }
+    catch (ProvisionException e) {
+      assertTrue("Should mention the annotation: " + e.getMessage(),
+          e.getMessage().contains("@LazyAutowire"));
+    }
+  }
+
+  public void testLazyAutowiredProxy() {
+    final AtomicInteger created = new AtomicInteger();
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(ITestBean.class).toProvider(new Provider<ITestBean>() {
+          public ITestBean get() {
+            created.incrementAndGet();
+            return new TestBean("lazy");
+          }
+        });
+      }
+    });
+
+    LazyAutowiredBean bean = injector.getInstance(LazyAutowiredBean.class);
+    assertNotNull(bean.testBean);
+    assertEquals("created before use", 0, created.get());
+    assertEquals("lazy", bean.testBean.getName());
+    assertEquals("lazy", bean.testBean.getName());
+    assertEquals("created once", 1, created.get());
+  }
+
+  public void testLazyAutowiredProxyOfImplementationBinding() {
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(TestBean.class).toInstance(new TestBean("impl"));
+      }
+    });
+
+    // the interface is only reachable by autowiring the implementation binding
+    LazyAutowiredBean bean = injector.getInstance(LazyAutowiredBean.class);
+    assertTrue(LazyProxies.isLazyProxy(bean.testBean));
+    assertFalse(LazyProxies.isInitialized(bean.testBean));
+    assertEquals("impl", bean.testBean.getName());
+  }
+
   public void testMethodInjectionWithMap() {
     final TestBean tb = new TestBean("tb1");
 
@@ -909,4 +1040,10 @@ public class AutowiredTest extends TestCase {
     // return name;
     return Key.get(type, Names.named(name)).toString();
   }
+
+  public static class LazyAutowiredBean {
+    @Autowired
+    @Lazy
+    ITestBean testBean;
+  }
 }
@@ -0,0 +1,107 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring;
+
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.guiceyfruit.spring.support.InjectorBeanFactory;
+import org.guiceyfruit.spring.testbeans.ITestBean;
+import org.guiceyfruit.spring.testbeans.IndexedTestBean;
+import org.guiceyfruit.spring.testbeans.NestedTestBean;
+import org.guiceyfruit.spring.testbeans.TestBean;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanNotOfRequiredTypeException;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+
+/** @version $Revision: 1.1 $ */
+public class InjectorBeanFactoryTest extends TestCase {
+  protected final TestBean tb1 = new TestBean("tb1");
+  protected final TestBean tb2 = new TestBean("tb2");
+  protected ListableBeanFactory beanFactory;
+
+  public void testGetBeanByName() throws Exception {
+    assertSame(tb1, beanFactory.getBean("testBean1"));
+    assertSame(tb2, beanFactory.getBean("testBean2", ITestBean.class));
+    assertTrue(beanFactory.containsBean("testBean1"));
+    assertFalse(beanFactory.containsBean("noSuchBean"));
+    assertEquals(TestBean.class, beanFactory.getType("testBean1"));
+
+    try {
+      beanFactory.getBean("noSuchBean");
+      fail("should have thrown NoSuchBeanDefinitionException");
+    }
+    catch (NoSuchBeanDefinitionException e) {
+      // expected
+    }
+    try {
+      beanFactory.getBean("testBean1", NestedTestBean.class);
+      fail("should have thrown BeanNotOfRequiredTypeException");
+    }
+    catch (BeanNotOfRequiredTypeException e) {
+      // expected
+    }
+  }
+
+  public void testUnnamedBindingsUseTheirClassName() throws Exception {
+    Object bean = beanFactory.getBean(IndexedTestBean.class.getName());
+    assertTrue(bean instanceof IndexedTestBean);
+    assertTrue(beanFactory.isSingleton(IndexedTestBean.class.getName()));
+    assertSame(bean, ((InjectorBeanFactory) beanFactory).getBean(IndexedTestBean.class));
+  }
+
+  public void testGetBeansOfType() throws Exception {
+    Map beans = beanFactory.getBeansOfType(ITestBean.class);
+    assertEquals(2, beans.size());
+    assertSame(tb1, beans.get("testBean1"));
+    assertSame(tb2, beans.get("testBean2"));
+
+    List<String> names = Arrays.asList(beanFactory.getBeanNamesForType(ITestBean.class));
+    assertEquals(2, names.size());
+    assertTrue(names.contains("testBean1"));
+    assertTrue(names.contains("testBean2"));
+
+    assertEquals(0, beanFactory.getBeanNamesForType(Runnable.class).length);
+  }
+
+  public void testBeanFactoryIsBound() throws Exception {
+    Injector injector = ((InjectorBeanFactory) beanFactory).getInjector();
+    assertSame(beanFactory, injector.getInstance(BeanFactory.class));
+    assertSame(beanFactory, beanFactory.getBean(ListableBeanFactory.class.getName()));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Injector injector = SpringModule.createInjector(new SpringModule() {
+      protected void configure() {
+        bindBeanFactory();
+
+        bind(TestBean.class, "testBean1").toInstance(tb1);
+        bind(TestBean.class, "testBean2").toInstance(tb2);
+        bind(IndexedTestBean.class).in(Singleton.class);
+      }
+    });
+    beanFactory = injector.getInstance(ListableBeanFactory.class);
+  }
+}
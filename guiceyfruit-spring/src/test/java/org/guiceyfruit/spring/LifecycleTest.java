@@ -20,13 +20,23 @@ import com.google.inject.AbstractModule;
 import com.google.inject.CreationException;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import junit.framework.TestCase;
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.spring.support.LifecycleProcessor;
 import org.guiceyfruit.support.CloseFailedException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+import org.springframework.core.Ordered;
 
 /** @author james.strachan@gmail.com (James Strachan) */
 public class LifecycleTest extends TestCase {
@@ -53,6 +63,122 @@ public class LifecycleTest extends TestCase {
     assertTrue("The pre destroy lifecycle should have been invoked on bean", bean.preDestroy);
   }
 
+  public void testLifecycleBeansStartedAndStoppedInPhases() throws Exception {
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch bothStarting = new CountDownLatch(2);
+    Injector injector = Guice.createInjector(new SpringModule(), new AbstractModule() {
+      protected void configure() {
+        bind(PhasedBean.class).annotatedWith(Names.named("early"))
+            .toInstance(new PhasedBean("early", -1, events, null));
+        bind(PhasedBean.class).annotatedWith(Names.named("a"))
+            .toInstance(new PhasedBean("a", 1, events, bothStarting));
+        bind(PhasedBean.class).annotatedWith(Names.named("b"))
+            .toInstance(new PhasedBean("b", 1, events, bothStarting));
+      }
+    });
+
+    LifecycleProcessor processor = injector.getInstance(LifecycleProcessor.class);
+    processor.setMaxThreads(4);
+    processor.start();
+
+    // the beans of phase 1 can only start if they are started concurrently
+    assertEquals(3, events.size());
+    assertEquals("start early", events.get(0));
+    assertTrue(events.contains("start a"));
+    assertTrue(events.contains("start b"));
+
+    events.clear();
+    processor.stop();
+    assertEquals(3, events.size());
+    assertEquals("stop early", events.get(2));
+    assertTrue(events.contains("stop a"));
+    assertTrue(events.contains("stop b"));
+
+    Injectors.close(injector);
+    assertEquals("stopped beans should not be stopped again", 3, events.size());
+  }
+
+  public void testOnlyStartedBeansAreStopped() throws Exception {
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    Injector injector = Guice.createInjector(new SpringModule(), new AbstractModule() {
+      protected void configure() {
+        bind(PhasedBean.class).annotatedWith(Names.named("running"))
+            .toInstance(new PhasedBean("running", 0, events, null));
+        bind(CountingLifecycleBean.class).in(Singleton.class);
+      }
+    });
+    injector.getInstance(LifecycleProcessor.class);
+    PhasedBean running = injector.getInstance(Key.get(PhasedBean.class, Names.named("running")));
+    running.start();
+    events.clear();
+
+    CountingLifecycleBean.created = 0;
+    Injectors.close(injector);
+    assertEquals("beans not started should not be created", 0, CountingLifecycleBean.created);
+    assertTrue("beans not started should not be stopped: " + events, events.isEmpty());
+  }
+
+  public static class CountingLifecycleBean implements Lifecycle {
+    static volatile int created;
+
+    public CountingLifecycleBean() {
+      created++;
+    }
+
+    public void start() {
+    }
+
+    public void stop() {
+    }
+
+    public boolean isRunning() {
+      return true;
+    }
+  }
+
+  static class PhasedBean implements Lifecycle, Ordered {
+    private final String name;
+    private final int phase;
+    private final List<String> events;
+    private final CountDownLatch latch;
+    private volatile boolean running;
+
+    PhasedBean(String name, int phase, List<String> events, CountDownLatch latch) {
+      this.name = name;
+      this.phase = phase;
+      this.events = events;
+      this.latch = latch;
+    }
+
+    public void start() {
+      if (latch != null) {
+        latch.countDown();
+        try {
+          assertTrue("beans of a phase should start concurrently",
+              latch.await(10, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      events.add("start " + name);
+      running = true;
+    }
+
+    public void stop() {
+      events.add("stop " + name);
+      running = false;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public int getOrder() {
+      return phase;
+    }
+  }
+
   static class MyBean implements InitializingBean, DisposableBean {
     @Autowired
     public AnotherBean another;
@@ -0,0 +1,113 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.ProvisionException;
+import com.google.inject.internal.Maps;
+import com.google.inject.name.Names;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.guiceyfruit.spring.support.ValueMemberProvider;
+
+/** @version $Revision: 1.1 $ */
+public class ValueTest extends TestCase {
+  protected Injector injector = Guice.createInjector(new SpringModule(), new AbstractModule() {
+    protected void configure() {
+      Map<String, String> properties = Maps.newHashMap();
+      properties.put("host", "localhost");
+      properties.put("port", "8181");
+      properties.put("unit", "SECONDS");
+      Names.bindProperties(binder(), properties);
+    }
+  });
+
+  public void testPlaceholdersResolvedAndConverted() throws Exception {
+    ValueBean bean = injector.getInstance(ValueBean.class);
+    assertEquals("localhost:8181", bean.address);
+    assertEquals(8181, bean.port);
+    assertEquals(30L, bean.timeout);
+    assertEquals(TimeUnit.SECONDS, bean.unit);
+    assertEquals("localhost", bean.backupHost);
+    assertEquals("${unterminated", bean.literal);
+
+    assertNotNull(bean.ports);
+    assertEquals(3, bean.ports.length);
+    assertEquals(2, bean.ports[1]);
+  }
+
+  public void testValuesAreResolvedOncePerMember() throws Exception {
+    ValueMemberProvider provider = injector.getInstance(ValueMemberProvider.class);
+    ValueBean bean1 = injector.getInstance(ValueBean.class);
+    int count = provider.getResolvedValueCount();
+    assertEquals(7, count);
+
+    ValueBean bean2 = injector.getInstance(ValueBean.class);
+    assertEquals(count, provider.getResolvedValueCount());
+    assertSame(bean1.address, bean2.address);
+    assertNotSame("Arrays should not be shared", bean1.ports, bean2.ports);
+    assertEquals(bean1.ports[2], bean2.ports[2]);
+  }
+
+  public void testMissingPlaceholderFails() throws Exception {
+    try {
+      injector.getInstance(MissingValueBean.class);
+      fail("Should have failed to resolve the placeholder");
+    }
+    catch (ProvisionException e) {
+      assertTrue("Message should mention the placeholder: " + e.getMessage(),
+          e.getMessage().contains("doesNotExist"));
+    }
+  }
+
+  public static class ValueBean {
+    @Value("${host}:${port}")
+    String address;
+
+    @Value("${port}")
+    int port;
+
+    @Value("${timeout:30}")
+    long timeout;
+
+    @Value("${unit}")
+    TimeUnit unit;
+
+    @Value("${backup.host:${host}}")
+    String backupHost;
+
+    @Value("${unterminated")
+    String literal;
+
+    int[] ports;
+
+    @Value("${ports:1,2,3}")
+    public void setPorts(int[] ports) {
+      this.ports = ports;
+    }
+  }
+
+  public static class MissingValueBean {
+    @Value("${doesNotExist}")
+    String value;
+  }
+}
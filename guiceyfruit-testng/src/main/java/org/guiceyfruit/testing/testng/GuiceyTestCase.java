@@ -18,40 +18,77 @@
 
 package org.guiceyfruit.testing.testng;
 
+import java.util.concurrent.atomic.AtomicReference;
 import org.guiceyfruit.testing.InjectorManager;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 
-/** @version $Revision: 1.1 $ */
+/**
+ * A base class for TestNG tests which injects the test instance before each test method.
+ * <p/>
+ * Test classes may be run concurrently using <code>parallel="classes"</code> or
+ * <code>parallel="instances"</code>. As the fields of a test instance are injected for each test
+ * method, the methods of one instance cannot run concurrently so <code>parallel="methods"</code>
+ * is rejected when a test method starts while another method of the same instance is running.
+ *
+ * @version $Revision: 1.1 $
+ */
 public class GuiceyTestCase {
   protected static InjectorManager injectorManager;
 
-  @BeforeClass(alwaysRun = true)
-  protected void setUp() throws Exception {
+  private final AtomicReference<Thread> runningThread = new AtomicReference<Thread>();
+
+  /**
+   * Creates the injectors for the given test classes in the background
+   *
+   * @see PrefetchListener
+   */
+  public static void prefetch(Class<?>... testClasses) {
+    getInjectorManager().prefetch(testClasses);
+  }
+
+  protected static InjectorManager getInjectorManager() {
     synchronized (GuiceyTestCase.class) {
       if (injectorManager == null) {
         injectorManager = new InjectorManager();
         injectorManager.beforeClasses();
       }
+      return injectorManager;
     }
   }
 
+  @BeforeClass(alwaysRun = true)
+  protected void setUp() throws Exception {
+    getInjectorManager();
+  }
+
   @BeforeMethod(alwaysRun = true)
   protected void startTestScope() throws Exception {
-    injectorManager.beforeTest(this);
+    Thread thread = Thread.currentThread();
+    if (!runningThread.compareAndSet(null, thread)) {
+      throw new IllegalStateException("Cannot run the test methods of " + getClass().getName()
+          + " concurrently as the test is injected for each method. Use parallel=\"classes\" or"
+          + " parallel=\"instances\" rather than parallel=\"methods\"");
+    }
+    getInjectorManager().beforeTest(this);
   }
 
   @AfterMethod(alwaysRun = true)
   protected void tearDownTestScope() throws Exception {
-    injectorManager.afterTest(this);
+    try {
+      getInjectorManager().afterTest(this);
+    }
+    finally {
+      runningThread.compareAndSet(Thread.currentThread(), null);
+    }
   }
 
   @AfterClass(alwaysRun = true)
   protected void tearDown() throws Exception {
     if (injectorManager != null) {
-      injectorManager.afterClasses();
+      injectorManager.afterClasses(getClass());
     }
   }
 }
\ No newline at end of file
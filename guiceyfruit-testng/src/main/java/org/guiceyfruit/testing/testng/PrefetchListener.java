@@ -0,0 +1,68 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.testing.testng;
+
+import com.google.inject.internal.Sets;
+import java.util.Set;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * A TestNG listener which creates the injectors of all of the {@link GuiceyTestCase} classes in a
+ * test on background threads before the test classes are run, so that creating the injectors
+ * overlaps with running the tests.
+ * <p/>
+ * Register it in your testng.xml using <code>&lt;listeners&gt;&lt;listener
+ * class-name="org.guiceyfruit.testing.testng.PrefetchListener"/&gt;&lt;/listeners&gt;</code>
+ *
+ * @version $Revision: 1.1 $
+ */
+public class PrefetchListener implements ITestListener {
+
+  public void onStart(ITestContext context) {
+    Set<Class<?>> testClasses = Sets.newLinkedHashSet();
+    for (ITestNGMethod method : context.getAllTestMethods()) {
+      Class<?> type = method.getRealClass();
+      if (type != null && GuiceyTestCase.class.isAssignableFrom(type)) {
+        testClasses.add(type);
+      }
+    }
+    GuiceyTestCase.prefetch(testClasses.toArray(new Class<?>[testClasses.size()]));
+  }
+
+  public void onFinish(ITestContext context) {
+  }
+
+  public void onTestStart(ITestResult result) {
+  }
+
+  public void onTestSuccess(ITestResult result) {
+  }
+
+  public void onTestFailure(ITestResult result) {
+  }
+
+  public void onTestSkipped(ITestResult result) {
+  }
+
+  public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+  }
+}